@@ -0,0 +1,213 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.bench;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+
+import org.fcrepo.common.FaultException;
+
+import org.fcrepo.server.storage.translation.DODeserializer;
+import org.fcrepo.server.storage.translation.DOSerializer;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import fedora.utilities.digitalobject.DirObjectLister;
+import fedora.utilities.digitalobject.ObjectStore;
+import fedora.utilities.digitalobject.RepoUtil;
+import fedora.utilities.file.FileUtil;
+
+/**
+ * An object store that keeps each object in its own file in a directory,
+ * for benchmarking code that reads from and writes to a store without
+ * needing a Fedora database.
+ *
+ * <p>Objects are read from <code>pid.xml</code> (with the colon replaced by
+ * an underscore), and replacements are written to
+ * <code>pid.xml.new</code>, so the original content of the store is never
+ * changed.  Iterating the store reads the original objects, not the
+ * replacements.</p>
+ *
+ * @author Chris Wilper
+ */
+public class FileObjectStore
+        implements ObjectStore {
+
+    /** Size of the buffer used to copy replacements. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Accepts object files, not replacements or temporary files. */
+    private static final FileFilter OBJECT_FILES = new FileFilter() {
+        public boolean accept(File file) {
+            String name = file.getName();
+            return file.isDirectory()
+                    || (name.endsWith(".xml") && !name.startsWith("."));
+        }
+    };
+
+    /** The directory the object files are in. */
+    private final File m_dir;
+
+    /** The deserializer to use. */
+    private final DODeserializer m_deserializer;
+
+    /** The serializer to use. */
+    private final DOSerializer m_serializer;
+
+    /**
+     * Creates an instance.
+     *
+     * @param dir the directory the object files are in.
+     * @param deserializer the deserializer to use.
+     * @param serializer the serializer to use.
+     */
+    public FileObjectStore(File dir,
+                           DODeserializer deserializer,
+                           DOSerializer serializer) {
+        m_dir = dir;
+        m_deserializer = deserializer;
+        m_serializer = serializer;
+    }
+
+    /**
+     * Gets the file the given object is read from.
+     *
+     * @param pid the pid of the object.
+     * @return the file.
+     */
+    public File getFile(String pid) {
+        return new File(m_dir, pid.replace(':', '_') + ".xml");
+    }
+
+    //---
+    // ObjectStore implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public DigitalObject getObject(String pid) {
+        File file = getFile(pid);
+        if (!file.exists()) {
+            return null;
+        }
+        return RepoUtil.readObject(m_deserializer, file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getObjectStream(String pid) {
+        File file = getFile(pid);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (IOException e) {
+            throw new FaultException("Error reading " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public File getObjectFile(String pid) {
+        File file = getFile(pid);
+        if (!file.exists()) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean replaceObject(DigitalObject obj) {
+        File file = getFile(obj.getPid());
+        if (!file.exists()) {
+            return false;
+        }
+        RepoUtil.writeObject(m_serializer, obj, getNewFile(file));
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean replaceObject(String pid, InputStream source) {
+        OutputStream out = null;
+        try {
+            File file = getFile(pid);
+            if (!file.exists()) {
+                return false;
+            }
+            out = new FileOutputStream(getNewFile(file));
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = source.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new FaultException("Error replacing " + pid, e);
+        } finally {
+            FileUtil.close(source);
+            FileUtil.close(out);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public File createTempFile(String pid) {
+        File file = getFile(pid);
+        if (!file.exists()) {
+            return null;
+        }
+        return FileUtil.createTempFile(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean replaceObject(String pid, File temp) {
+        File file = getFile(pid);
+        if (!file.exists()) {
+            if (!temp.delete()) {
+                throw new FaultException("Error deleting " + temp.getPath());
+            }
+            return false;
+        }
+        FileUtil.commitFile(temp, getNewFile(file), false);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<DigitalObject> iterator() {
+        return new DirObjectLister(m_dir, OBJECT_FILES, m_deserializer)
+                .iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        // no-op
+    }
+
+    private static File getNewFile(File file) {
+        return new File(file.getPath() + ".new");
+    }
+
+}
@@ -0,0 +1,464 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.bench;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.fcrepo.common.FaultException;
+
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.DSBinding;
+import org.fcrepo.server.storage.types.DSBindingMap;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamReferencedContent;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.Disseminator;
+
+/**
+ * Builds in-memory Fedora 2.x style digital objects for benchmarks.
+ *
+ * <p>Objects always have DC and RELS-EXT datastreams, followed by content
+ * datastreams drawn from a fixed pool of typical IDs, each with a MIME type
+ * and format URI drawn from a fixed pool.  Disseminators bind the
+ * datastreams of the object to the binding keys of one of a small number of
+ * BMechs.  All choices are made with the given <code>Random</code>, so a
+ * seeded one gives repeatable objects.</p>
+ *
+ * @author Chris Wilper
+ */
+@SuppressWarnings("deprecation")
+public abstract class SyntheticObjects {
+
+    /** IDs of content datastreams, in order of preference. */
+    private static final String[] DATASTREAM_IDS =
+            new String[] {"THUMB", "MEDIUM", "HIGH", "VERYHIGH", "TEXT",
+                          "OCR", "PDF", "MODS", "MARC", "TEI", "EAD",
+                          "AUDIO", "VIDEO", "TRANSCRIPT", "FITS", "TECHMD"};
+
+    /** MIME types of content datastreams; parallel to FORMAT_URIS. */
+    private static final String[] MIME_TYPES =
+            new String[] {"image/jpeg", "image/tiff", "image/png",
+                          "text/plain", "application/pdf", "text/xml",
+                          "audio/mpeg", "video/mp4"};
+
+    /** Format URIs of content datastreams; parallel to MIME_TYPES. */
+    private static final String[] FORMAT_URIS =
+            new String[] {null, null, null, null, null,
+                          "http://www.loc.gov/mods/v3", null, null};
+
+    /** Number of distinct BMechs disseminators are drawn from. */
+    private static final int BMECH_COUNT = 8;
+
+    /** Creation date of the first version of everything. */
+    private static final long EPOCH = 1199145600000L; // 2008-01-01
+
+    /**
+     * Typical object shapes, for benchmarks that compare sizes.
+     */
+    public enum Size {
+
+        /** A handful of datastreams with little inline XML. */
+        SMALL(4, 1, 0, 2 * 1024, 0),
+
+        /** Many versioned datastreams and some disseminators. */
+        MEDIUM(16, 3, 2, 64 * 1024, 0),
+
+        /** A small object plus one 100MB inline XML datastream. */
+        HUGE(4, 1, 0, 2 * 1024, 100 * 1024 * 1024);
+
+        /** Number of content datastreams. */
+        public final int datastreamCount;
+
+        /** Number of versions of each datastream and disseminator. */
+        public final int versionCount;
+
+        /** Number of disseminators. */
+        public final int disseminatorCount;
+
+        /** Approximate size of each inline XML datastream version. */
+        public final int inlineSize;
+
+        /** Size of the extra BIG inline datastream, or 0 for none. */
+        public final int bigInlineSize;
+
+        Size(int datastreamCount,
+             int versionCount,
+             int disseminatorCount,
+             int inlineSize,
+             int bigInlineSize) {
+            this.datastreamCount = datastreamCount;
+            this.versionCount = versionCount;
+            this.disseminatorCount = disseminatorCount;
+            this.inlineSize = inlineSize;
+            this.bigInlineSize = bigInlineSize;
+        }
+    }
+
+    /**
+     * Builds an object of the given size.
+     *
+     * @param pid the pid of the object.
+     * @param random the source of all choices.
+     * @param size the shape of the object.
+     * @return the object.
+     */
+    public static DigitalObject newObject(String pid,
+                                          Random random,
+                                          Size size) {
+        DigitalObject obj = newObject(pid,
+                                      random,
+                                      size.datastreamCount,
+                                      size.versionCount,
+                                      size.disseminatorCount,
+                                      size.inlineSize);
+        if (size.bigInlineSize > 0) {
+            addInlineDatastream(obj, "BIG", "text/xml", null, 1,
+                                size.bigInlineSize);
+        }
+        return obj;
+    }
+
+    /**
+     * Builds a BMech with DSINPUTSPEC, METHODMAP and WSDL datastreams
+     * for the given number of wsdl message parts, named
+     * <code>PART0</code>, <code>PART1</code>, etc.
+     *
+     * @param pid the pid of the BMech.
+     * @param bDefPID the pid of the BDef it implements.
+     * @param partCount the number of message parts (datastream inputs).
+     * @param methodCount the number of methods.
+     * @param bigInlineSize the size of an extra inline XML datastream, or
+     *        0 for none.
+     * @return the object.
+     */
+    public static DigitalObject newBMech(String pid,
+                                         String bDefPID,
+                                         int partCount,
+                                         int methodCount,
+                                         int bigInlineSize) {
+        DigitalObject obj = new BasicDigitalObject();
+        obj.setPid(pid);
+        obj.setLabel("Synthetic BMech " + pid);
+        obj.setState("A");
+        obj.setOwnerId("fedoraAdmin");
+        obj.setCreateDate(new Date(EPOCH));
+        obj.setLastModDate(new Date(EPOCH));
+        obj.setExtProperty("http://www.w3.org/1999/02/22-rdf-syntax-ns#type",
+                           "FedoraBMechObject");
+        addInlineDatastream(obj, "DC", "text/xml",
+                            "http://www.openarchives.org/OAI/2.0/oai_dc/",
+                            1, 1024);
+        addInlineDatastream(obj, "DSINPUTSPEC", "text/xml", null,
+                            getDSInputSpec(bDefPID, partCount));
+        addInlineDatastream(obj, "METHODMAP", "text/xml", null,
+                            getMethodMap(bDefPID, partCount, methodCount));
+        addInlineDatastream(obj, "WSDL", "text/xml", null,
+                            getWSDL(partCount, methodCount));
+        if (bigInlineSize > 0) {
+            addInlineDatastream(obj, "BIG", "text/xml", null, 1,
+                                bigInlineSize);
+        }
+        return obj;
+    }
+
+    /**
+     * Builds an object.
+     *
+     * @param pid the pid of the object.
+     * @param random the source of all choices.
+     * @param datastreamCount the number of content datastreams, not
+     *        counting DC and RELS-EXT.
+     * @param versionCount the number of versions of each datastream
+     *        and disseminator.
+     * @param disseminatorCount the number of disseminators.
+     * @param inlineSize the approximate size, in bytes, of the content of each
+     *        inline XML datastream version.
+     * @return the object.
+     */
+    public static DigitalObject newObject(String pid,
+                                          Random random,
+                                          int datastreamCount,
+                                          int versionCount,
+                                          int disseminatorCount,
+                                          int inlineSize) {
+        DigitalObject obj = new BasicDigitalObject();
+        obj.setPid(pid);
+        obj.setLabel("Synthetic object " + pid);
+        obj.setState("A");
+        obj.setOwnerId("fedoraAdmin");
+        obj.setCreateDate(new Date(EPOCH));
+        obj.setLastModDate(new Date(EPOCH + versionCount));
+        obj.setExtProperty(
+                "info:fedora/fedora-system:def/model#contentModel",
+                "CModel" + random.nextInt(4));
+
+        String[] dsIDs = new String[datastreamCount];
+        for (int i = 0; i < datastreamCount; i++) {
+            if (i < DATASTREAM_IDS.length) {
+                dsIDs[i] = DATASTREAM_IDS[i];
+            } else {
+                dsIDs[i] = "DS" + (i - DATASTREAM_IDS.length + 1);
+            }
+        }
+
+        addInlineDatastream(obj, "DC", "text/xml",
+                            "http://www.openarchives.org/OAI/2.0/oai_dc/",
+                            versionCount, inlineSize);
+        addInlineDatastream(obj, "RELS-EXT", "application/rdf+xml",
+                            "info:fedora/fedora-system:FedoraRELSExt-1.0",
+                            versionCount, inlineSize);
+        for (String dsID : dsIDs) {
+            int type = random.nextInt(MIME_TYPES.length);
+            if (MIME_TYPES[type].equals("text/xml")) {
+                addInlineDatastream(obj, dsID, MIME_TYPES[type],
+                                    FORMAT_URIS[type], versionCount,
+                                    inlineSize);
+            } else {
+                addReferencedDatastream(obj, dsID, MIME_TYPES[type],
+                                        FORMAT_URIS[type], versionCount);
+            }
+        }
+        for (int i = 0; i < disseminatorCount; i++) {
+            addDisseminator(obj, "DISS" + (i + 1),
+                            random.nextInt(BMECH_COUNT), dsIDs, random,
+                            versionCount);
+        }
+        return obj;
+    }
+
+    /**
+     * Gets the inline XML content used for datastreams of the given size.
+     *
+     * @param pid the pid of the object.
+     * @param dsID the datastream id.
+     * @param size the approximate size, in bytes.
+     * @return the content.
+     */
+    public static byte[] getXMLContent(String pid, String dsID, int size) {
+        StringBuilder out = new StringBuilder(size + 256);
+        if (dsID.equals("DC")) {
+            out.append("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/"
+                    + "OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/"
+                    + "elements/1.1/\">\n");
+            out.append("  <dc:title>Synthetic object " + pid + "</dc:title>\n");
+            out.append("  <dc:identifier>" + pid + "</dc:identifier>\n");
+            while (out.length() < size) {
+                out.append("  <dc:description>Lorem ipsum dolor sit amet"
+                        + " consectetur adipiscing elit</dc:description>\n");
+            }
+            out.append("</oai_dc:dc>");
+        } else if (dsID.equals("RELS-EXT")) {
+            out.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/"
+                    + "22-rdf-syntax-ns#\" xmlns:rel=\"info:fedora/"
+                    + "fedora-system:def/relations-external#\">\n");
+            out.append("  <rdf:Description rdf:about=\"info:fedora/" + pid
+                    + "\">\n");
+            int i = 0;
+            while (out.length() < size) {
+                out.append("    <rel:isMemberOf rdf:resource=\"info:fedora/"
+                        + "demo:Collection" + i++ + "\"/>\n");
+            }
+            out.append("  </rdf:Description>\n</rdf:RDF>");
+        } else {
+            out.append("<content pid=\"" + pid + "\" ds=\"" + dsID
+                    + "\">\n");
+            int i = 0;
+            while (out.length() < size) {
+                out.append("  <value n=\"" + i++ + "\">Lorem ipsum dolor"
+                        + " sit amet consectetur adipiscing elit</value>\n");
+            }
+            out.append("</content>");
+        }
+        return getBytes(out.toString());
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static String getDSInputSpec(String bDefPID, int partCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<fbs:DSInputSpec xmlns:fbs=\"http://fedora.comm.nsdlib.org"
+                + "/service/bindspec\" bDefPID=\"" + bDefPID
+                + "\" label=\"Datastream inputs\">\n");
+        for (int i = 0; i < partCount; i++) {
+            out.append("  <fbs:DSInput DSMax=\"1\" DSMin=\"1\""
+                    + " DSOrdinality=\"false\" wsdlMsgPartName=\"PART" + i
+                    + "\">\n");
+            out.append("    <fbs:DSInputLabel>Part " + i
+                    + "</fbs:DSInputLabel>\n");
+            out.append("    <fbs:DSMIME>image/jpeg</fbs:DSMIME>\n");
+            out.append("    <fbs:DSInputInstruction/>\n");
+            out.append("  </fbs:DSInput>\n");
+        }
+        out.append("</fbs:DSInputSpec>");
+        return out.toString();
+    }
+
+    private static String getMethodMap(String bDefPID,
+                                       int partCount,
+                                       int methodCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<fmm:MethodMap xmlns:fmm=\"http://fedora.comm.nsdlib.org"
+                + "/service/methodmap\" bDefPID=\"" + bDefPID
+                + "\" name=\"MethodMap\">\n");
+        for (int m = 0; m < methodCount; m++) {
+            out.append("  <fmm:Method operationName=\"method" + m
+                    + "\" wsdlMsgName=\"method" + m
+                    + "Request\" wsdlMsgOutput=\"response\">\n");
+            for (int i = 0; i < partCount; i++) {
+                out.append("    <fmm:DatastreamInputParm parmName=\"PART" + i
+                        + "\" passBy=\"URL_REF\" required=\"true\"/>\n");
+            }
+            out.append("    <fmm:MethodReturnType wsdlMsgName=\"response\""
+                    + " wsdlMsgTOMIME=\"image/jpeg\"/>\n");
+            out.append("  </fmm:Method>\n");
+        }
+        out.append("</fmm:MethodMap>");
+        return out.toString();
+    }
+
+    private static String getWSDL(int partCount, int methodCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<wsdl:definitions xmlns:wsdl=\"http://schemas.xmlsoap.org"
+                + "/wsdl/\" xmlns:http=\"http://schemas.xmlsoap.org/wsdl/"
+                + "http/\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+                + " name=\"Service\">\n");
+        for (int m = 0; m < methodCount; m++) {
+            out.append("  <wsdl:message name=\"method" + m + "Request\">\n");
+            for (int i = 0; i < partCount; i++) {
+                out.append("    <wsdl:part name=\"PART" + i
+                        + "\" type=\"xsd:string\"/>\n");
+            }
+            out.append("  </wsdl:message>\n");
+        }
+        out.append("  <wsdl:binding name=\"binding\" type=\"portType\">\n");
+        out.append("    <http:binding verb=\"GET\"/>\n");
+        for (int m = 0; m < methodCount; m++) {
+            out.append("    <wsdl:operation name=\"method" + m + "\">\n");
+            out.append("      <http:operation location=\"convert?");
+            for (int i = 0; i < partCount; i++) {
+                out.append((i == 0 ? "" : "&amp;") + "p" + i + "=(PART" + i
+                        + ")");
+            }
+            out.append("\"/>\n");
+            out.append("    </wsdl:operation>\n");
+        }
+        out.append("  </wsdl:binding>\n");
+        out.append("</wsdl:definitions>");
+        return out.toString();
+    }
+
+    private static byte[] getBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new FaultException(e);
+        }
+    }
+
+    private static void addInlineDatastream(DigitalObject obj,
+                                            String dsID,
+                                            String mimeType,
+                                            String formatURI,
+                                            String xml) {
+        DatastreamXMLMetadata ds = new DatastreamXMLMetadata("UTF-8");
+        setCommon(ds, dsID, "X", mimeType, formatURI, 0);
+        ds.xmlContent = getBytes(xml);
+        ds.DSSize = ds.xmlContent.length;
+        obj.addDatastreamVersion(ds, false);
+    }
+
+    private static void addInlineDatastream(DigitalObject obj,
+                                            String dsID,
+                                            String mimeType,
+                                            String formatURI,
+                                            int versionCount,
+                                            int size) {
+        for (int v = 0; v < versionCount; v++) {
+            DatastreamXMLMetadata ds = new DatastreamXMLMetadata("UTF-8");
+            setCommon(ds, dsID, "X", mimeType, formatURI, v);
+            ds.xmlContent = getXMLContent(obj.getPid(), dsID, size);
+            ds.DSSize = ds.xmlContent.length;
+            obj.addDatastreamVersion(ds, true);
+        }
+    }
+
+    private static void addReferencedDatastream(DigitalObject obj,
+                                                String dsID,
+                                                String mimeType,
+                                                String formatURI,
+                                                int versionCount) {
+        for (int v = 0; v < versionCount; v++) {
+            Datastream ds = new DatastreamReferencedContent();
+            setCommon(ds, dsID, "E", mimeType, formatURI, v);
+            ds.DSLocation = "http://example.org/content/"
+                    + obj.getPid().replace(':', '/') + "/" + dsID + "/" + v;
+            ds.DSLocationType = "URL";
+            obj.addDatastreamVersion(ds, true);
+        }
+    }
+
+    private static void setCommon(Datastream ds,
+                                  String dsID,
+                                  String controlGroup,
+                                  String mimeType,
+                                  String formatURI,
+                                  int version) {
+        ds.DatastreamID = dsID;
+        ds.DSVersionID = dsID + "." + version;
+        ds.DSControlGrp = controlGroup;
+        ds.DSState = "A";
+        ds.DSVersionable = true;
+        ds.DSLabel = dsID + " version " + version;
+        ds.DSCreateDT = new Date(EPOCH + version);
+        ds.DSMIME = mimeType;
+        ds.DSFormatURI = formatURI;
+    }
+
+    private static void addDisseminator(DigitalObject obj,
+                                        String dissID,
+                                        int bMech,
+                                        String[] dsIDs,
+                                        Random random,
+                                        int versionCount) {
+        // BMech n has n + 1 binding keys
+        int keyCount = bMech % 4 + 1;
+        for (int v = 0; v < versionCount; v++) {
+            Disseminator diss = new Disseminator();
+            diss.parentPID = obj.getPid();
+            diss.dissID = dissID;
+            diss.dissVersionID = dissID + "." + v;
+            diss.dissLabel = dissID + " version " + v;
+            diss.bDefID = "demo:BDef" + bMech;
+            diss.sDepID = "demo:BMech" + bMech;
+            diss.dissCreateDT = new Date(EPOCH + v);
+            diss.dissState = "A";
+            diss.dissVersionable = true;
+            DSBindingMap map = new DSBindingMap();
+            map.dsBindMapID = dissID + "." + v + "MAP";
+            map.dsBindMechanismPID = diss.sDepID;
+            map.state = "A";
+            map.dsBindings = new DSBinding[keyCount];
+            for (int k = 0; k < keyCount; k++) {
+                DSBinding binding = new DSBinding();
+                binding.bindKeyName = "KEY" + k;
+                binding.bindLabel = "Binding for KEY" + k;
+                binding.datastreamID = dsIDs.length == 0
+                        ? "DC" : dsIDs[random.nextInt(dsIDs.length)];
+                binding.seqNo = "0";
+                map.dsBindings[k] = binding;
+            }
+            diss.dsBindMapID = map.dsBindMapID;
+            diss.dsBindMap = map;
+            obj.disseminators(dissID).add(diss);
+        }
+    }
+
+}
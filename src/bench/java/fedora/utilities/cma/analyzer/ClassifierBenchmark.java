@@ -0,0 +1,198 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.cma.analyzer;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import fedora.utilities.bench.SyntheticObjects;
+
+/**
+ * Benchmarks for the per-object work done by the analyzer's
+ * <code>DefaultClassifier</code>.
+ *
+ * <p>Each operation works on the next of a fixed, seeded set of synthetic
+ * objects (or their signatures), so results are repeatable and not skewed
+ * by a single hot object.  Signature lookups always use a signature that is
+ * equal to, but not the same instance as, the key in the map, as happens
+ * when the analyzer classifies a new object.</p>
+ *
+ * @author Chris Wilper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+
+    /** Number of distinct objects each per-object benchmark cycles through. */
+    private static final int OBJECT_COUNT = 1024;
+
+    /**
+     * Synthetic objects and their signatures.
+     */
+    @State(Scope.Thread)
+    public static class Objects {
+
+        /** Number of content datastreams per object. */
+        @Param({"4", "16"})
+        public int datastreams;
+
+        /** Number of disseminators per object. */
+        @Param({"0", "3"})
+        public int disseminators;
+
+        DefaultClassifier classifier;
+
+        DigitalObject[] objects;
+
+        Signature[] signatures;
+
+        Signature[] copies;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            classifier = new DefaultClassifier(new Properties());
+            Random random = new Random(42);
+            objects = new DigitalObject[OBJECT_COUNT];
+            signatures = new Signature[OBJECT_COUNT];
+            copies = new Signature[OBJECT_COUNT];
+            for (int i = 0; i < OBJECT_COUNT; i++) {
+                objects[i] = SyntheticObjects.newObject("demo:" + i,
+                                                        random,
+                                                        datastreams,
+                                                        2,
+                                                        disseminators,
+                                                        512);
+                signatures[i] = classifier.getSignature(objects[i]);
+                copies[i] = classifier.getSignature(objects[i]);
+            }
+        }
+
+        int next() {
+            next = (next + 1) & (OBJECT_COUNT - 1);
+            return next;
+        }
+    }
+
+    /**
+     * A map of a given number of distinct signatures, with equal copies of
+     * each to look up.
+     */
+    @State(Scope.Thread)
+    public static class SignatureMap {
+
+        /** Number of distinct signatures in the map. */
+        @Param({"10", "1000", "100000"})
+        public int signatureCount;
+
+        Map<Signature, Object> map;
+
+        Signature[] probes;
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            DefaultClassifier classifier =
+                    new DefaultClassifier(new Properties());
+            Random random = new Random(42);
+            map = new HashMap<Signature, Object>();
+            Set<Signature> keys = new LinkedHashSet<Signature>();
+            probes = new Signature[signatureCount];
+            int i = 0;
+            // objects are built one at a time and dropped, so only the
+            // signatures are held in memory
+            while (keys.size() < signatureCount) {
+                DigitalObject obj =
+                        SyntheticObjects.newObject("demo:" + i++,
+                                                   random,
+                                                   2 + random.nextInt(12),
+                                                   1,
+                                                   random.nextInt(4),
+                                                   64);
+                Signature key = classifier.getSignature(obj);
+                if (keys.add(key)) {
+                    map.put(key, obj.getPid());
+                    probes[keys.size() - 1] = classifier.getSignature(obj);
+                }
+            }
+        }
+
+        int next() {
+            if (++next == probes.length) {
+                next = 0;
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Measures <code>DefaultClassifier.getSignature</code>.
+     */
+    @Benchmark
+    public Signature getSignature(Objects state) {
+        return state.classifier.getSignature(state.objects[state.next()]);
+    }
+
+    /**
+     * Measures <code>Signature.hashCode</code>.
+     */
+    @Benchmark
+    public int signatureHashCode(Objects state) {
+        return state.signatures[state.next()].hashCode();
+    }
+
+    /**
+     * Measures <code>Signature.equals</code> on equal signatures, which is
+     * the worst case since every aspect must be compared.
+     */
+    @Benchmark
+    public boolean signatureEquals(Objects state) {
+        int i = state.next();
+        return state.signatures[i].equals(state.copies[i]);
+    }
+
+    /**
+     * Measures <code>DefaultClassifier.getDSCompositeModelContent</code>.
+     */
+    @Benchmark
+    public String getDSCompositeModelContent(Objects state) {
+        return DefaultClassifier.getDSCompositeModelContent(
+                state.signatures[state.next()]);
+    }
+
+    /**
+     * Measures a lookup in a map keyed by signature.
+     */
+    @Benchmark
+    public Object signatureMapLookup(SignatureMap state) {
+        return state.map.get(state.probes[state.next()]);
+    }
+
+}
@@ -0,0 +1,87 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.cma.generator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import fedora.utilities.bench.SyntheticObjects;
+
+/**
+ * Benchmarks for generating service deployments from a BMech.
+ *
+ * <p>Every message part of the BMech is renamed, as the generator does when
+ * the classifier found datastreams bound under new names.</p>
+ *
+ * @author Chris Wilper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class ServiceDeploymentGeneratorBenchmark {
+
+    /**
+     * The shape of the BMech: SMALL has 2 parts and methods, MEDIUM has 8,
+     * and HUGE is MEDIUM with an extra 100MB inline datastream to copy.
+     */
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public SyntheticObjects.Size size;
+
+    private DigitalObject m_bMech;
+
+    private ServiceDeploymentGenerator m_generator;
+
+    private Map<String, String> m_newParts;
+
+    @Setup
+    public void setUp() {
+        int count = size == SyntheticObjects.Size.SMALL ? 2 : 8;
+        m_bMech = SyntheticObjects.newBMech("demo:BMech1",
+                                            "demo:BDef1",
+                                            count,
+                                            count,
+                                            size.bigInlineSize);
+        m_generator = new ServiceDeploymentGenerator(m_bMech, false);
+        m_newParts = new HashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            m_newParts.put("PART" + i, "DS" + i);
+        }
+    }
+
+    /**
+     * Measures creating a generator for the BMech.
+     */
+    @Benchmark
+    public ServiceDeploymentGenerator newGenerator() {
+        return new ServiceDeploymentGenerator(m_bMech, false);
+    }
+
+    /**
+     * Measures <code>ServiceDeploymentGenerator.generate</code>.
+     */
+    @Benchmark
+    public DigitalObject generate() {
+        return m_generator.generate("demo:SDep1", m_newParts, "demo:CModel1");
+    }
+
+}
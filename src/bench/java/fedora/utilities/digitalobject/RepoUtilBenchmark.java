@@ -0,0 +1,106 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.File;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.fcrepo.server.storage.translation.FOXML1_0DODeserializer;
+import org.fcrepo.server.storage.translation.FOXML1_0DOSerializer;
+import org.fcrepo.server.storage.translation.FOXML1_1DOSerializer;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import fedora.utilities.bench.SyntheticObjects;
+
+/**
+ * Benchmarks for reading FOXML 1.0 objects and writing FOXML 1.1 objects
+ * with <code>RepoUtil</code>.
+ *
+ * <p>The serializers need a Fedora server configuration, so the JVM must be
+ * started with <code>-Dfedora.home</code> pointing to a Fedora home
+ * directory.  Forked benchmark JVMs inherit it.</p>
+ *
+ * @author Chris Wilper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class RepoUtilBenchmark {
+
+    /** The shape of the object. */
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public SyntheticObjects.Size size;
+
+    private File m_dir;
+
+    private File m_source;
+
+    private File m_target;
+
+    private DigitalObject m_obj;
+
+    private FOXML1_0DODeserializer m_deserializer;
+
+    private FOXML1_1DOSerializer m_serializer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("bench", "");
+        m_dir.delete();
+        m_dir.mkdir();
+        m_source = new File(m_dir, "source.xml");
+        m_target = new File(m_dir, "target.xml");
+        m_obj = SyntheticObjects.newObject("demo:1", new Random(42), size);
+        RepoUtil.writeObject(new FOXML1_0DOSerializer(), m_obj, m_source);
+        m_deserializer = new FOXML1_0DODeserializer();
+        m_serializer = new FOXML1_1DOSerializer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_source.delete();
+        m_target.delete();
+        m_dir.delete();
+    }
+
+    /**
+     * Measures <code>RepoUtil.readObject</code> with the FOXML 1.0
+     * deserializer.
+     */
+    @Benchmark
+    public DigitalObject readObject() {
+        return RepoUtil.readObject(m_deserializer, m_source);
+    }
+
+    /**
+     * Measures <code>RepoUtil.writeObject</code> with the FOXML 1.1
+     * serializer.
+     */
+    @Benchmark
+    public File writeObject() {
+        RepoUtil.writeObject(m_serializer, m_obj, m_target);
+        return m_target;
+    }
+
+}
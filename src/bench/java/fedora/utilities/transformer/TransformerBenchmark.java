@@ -0,0 +1,152 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.transformer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.fcrepo.common.FaultException;
+
+import org.fcrepo.server.storage.translation.FOXML1_0DODeserializer;
+import org.fcrepo.server.storage.translation.FOXML1_0DOSerializer;
+import org.fcrepo.server.storage.translation.FOXML1_1DOSerializer;
+
+import fedora.utilities.bench.FileObjectStore;
+import fedora.utilities.bench.SyntheticObjects;
+import fedora.utilities.digitalobject.RepoUtil;
+import fedora.utilities.file.FileUtil;
+
+/**
+ * Benchmarks for <code>Transformer.transformOne</code> with
+ * <code>foxml-upgrade-cma.xslt</code>, applied either by the XSLT processor
+ * or by the streaming upgrader.
+ *
+ * <p>Each operation reads the FOXML 1.0 object from a file, transforms it,
+ * spools the result, and copies it into the store, as a real run does.
+ * Writing the source object needs a Fedora server configuration, so the JVM
+ * must be started with <code>-Dfedora.home</code> pointing to a Fedora home
+ * directory.</p>
+ *
+ * @author Chris Wilper
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class TransformerBenchmark {
+
+    /** Classpath location of the upgrade stylesheet. */
+    private static final String XSLT_PATH =
+            "fedora/utilities/cma/generator/resources/foxml-upgrade-cma.xslt";
+
+    /** PID of the object being transformed. */
+    private static final String PID = "demo:1";
+
+    /** The shape of the object. */
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public SyntheticObjects.Size size;
+
+    /** How the stylesheet is applied: xslt or streaming. */
+    @Param({"xslt", "streaming"})
+    public String upgrader;
+
+    private File m_dir;
+
+    private File m_xsltFile;
+
+    private FileObjectStore m_store;
+
+    private javax.xml.transform.Transformer m_transformer;
+
+    @Setup
+    public void setUp() throws Exception {
+        // per-object INFO logging would otherwise be part of the measurement
+        Logger.getLogger(Transformer.class).setLevel(Level.WARN);
+        m_dir = File.createTempFile("bench", "");
+        m_dir.delete();
+        m_dir.mkdir();
+        m_xsltFile = new File(m_dir, "foxml-upgrade-cma.xslt");
+        copyResource(XSLT_PATH, m_xsltFile);
+        m_store = new FileObjectStore(m_dir,
+                                      new FOXML1_0DODeserializer(),
+                                      new FOXML1_1DOSerializer());
+        RepoUtil.writeObject(new FOXML1_0DOSerializer(),
+                             SyntheticObjects.newObject(PID,
+                                                        new Random(42),
+                                                        size),
+                             m_store.getFile(PID));
+        if (upgrader.equals("streaming")) {
+            m_transformer = StreamingUpgrader.fromStylesheet(m_xsltFile);
+        } else {
+            m_transformer = TransformerFactory.newInstance().newTransformer(
+                    new StreamSource(m_xsltFile));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    /**
+     * Measures <code>Transformer.transformOne</code>.
+     */
+    @Benchmark
+    public int transformOne() throws Exception {
+        return Transformer.transformOne(m_transformer, PID, m_store, false);
+    }
+
+    private static void copyResource(String path, File file)
+            throws Exception {
+        InputStream in =
+                TransformerBenchmark.class.getClassLoader()
+                        .getResourceAsStream(path);
+        if (in == null) {
+            throw new FaultException("Resource not found: " + path);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        } finally {
+            FileUtil.close(in);
+            FileUtil.close(out);
+        }
+    }
+
+}
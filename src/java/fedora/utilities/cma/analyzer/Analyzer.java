@@ -13,6 +13,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 
@@ -28,9 +29,14 @@ import org.fcrepo.server.storage.types.DigitalObjectUtil;
 
 import fedora.utilities.Log4J;
 import fedora.utilities.config.ConfigUtil;
+import fedora.utilities.digitalobject.FailedObjectList;
 import fedora.utilities.digitalobject.ObjectLister;
+import fedora.utilities.digitalobject.ObjectReadException;
+import fedora.utilities.digitalobject.PidList;
 import fedora.utilities.digitalobject.RepoUtil;
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
 
 import static fedora.utilities.cma.analyzer.Constants.UTF8;
 
@@ -75,6 +81,13 @@ public class Analyzer {
      */
     public static final String SERIALIZER_PROPERTY = "serializer";
 
+    /**
+     * The property indicating whether to skip objects that can't be read or
+     * classified, listing them in <code>analyzer-failed.txt</code>, rather
+     * than stopping; <code>continueOnError</code>
+     */
+    public static final String CONTINUE_ON_ERROR_PROPERTY = "continueOnError";
+
     //---
     // Property defaults
     //---
@@ -107,6 +120,12 @@ public class Analyzer {
     /** Logger for this class. */
     private static final Logger LOG = Logger.getLogger(Analyzer.class);
 
+    /** Where the slowest and largest objects are reported, if asked. */
+    private static final String TOP_OBJECTS_FILE = "analyzer-top-objects.txt";
+
+    /** Where skipped objects are listed, if continuing on error. */
+    private static final String FAILED_FILE = "analyzer-failed.txt";
+
     /** Prefix for generated content model object filenames. */
     private static final String CMODEL_PREFIX = "cmodel-";
 
@@ -129,6 +148,9 @@ public class Analyzer {
     /** The output format of the content model objects. */
     private final DOSerializer m_serializer;
 
+    /** Whether objects that can't be read or classified will be skipped. */
+    private final boolean m_continueOnError;
+
     /** The directory the content model objects and lists will be sent to. */
     private File m_outputDir;
 
@@ -156,6 +178,7 @@ public class Analyzer {
     public Analyzer(Classifier classifier, DOSerializer serializer) {
         m_classifier = classifier;
         m_serializer = serializer;
+        m_continueOnError = false;
     }
 
     /**
@@ -166,6 +189,19 @@ public class Analyzer {
      *                           default is DEFAULT_CLASSIFIER.
      *   serializer (optional) - the serializer to use for output objects;
      *                           default is DEFAULT_SERIALIZER.
+     *   metrics    (optional) - whether to log per-stage timings and
+     *                           progress; default is false.
+     *   jmx        (optional) - whether to register an MBean with live
+     *                           progress; default is false.
+     *   jfr        (optional) - whether to emit Flight Recorder events;
+     *                           default is false.
+     *   topObjects (optional) - the number of slowest and largest objects
+     *                           to report in analyzer-top-objects.txt in
+     *                           the output directory; default is 0.
+     *   continueOnError (optional) - whether to skip objects that can't be
+     *                           read or classified, listing them in
+     *                           analyzer-failed.txt in the output
+     *                           directory; default is false.
      * </pre>
      *
      * @param props
@@ -180,6 +216,11 @@ public class Analyzer {
                 (DOSerializer) ConfigUtil.construct(props,
                                                     SERIALIZER_PROPERTY,
                                                     DEFAULT_SERIALIZER);
+        m_continueOnError =
+                ConfigUtil.getOptionalBoolean(props,
+                                              CONTINUE_ON_ERROR_PROPERTY,
+                                              false);
+        Metrics.configure(props);
     }
 
     //---
@@ -198,6 +239,9 @@ public class Analyzer {
      * @param clearOutputDir
      *        if the output directory contains files, and this is true, they
      *        will be automatically deleted before classification begins.
+     * @throws FaultException
+     *         if an object can't be read or classified and this instance
+     *         doesn't continue on error, or output can't be written.
      */
     @SuppressWarnings("deprecation")
     public void classifyAll(ObjectLister lister,
@@ -206,6 +250,7 @@ public class Analyzer {
         clearState();
         setOutputDir(outputDir, clearOutputDir);
         LOG.info("Classification started.");
+        Metrics.begin("Analyzer", -1);
         int objectCount = 0;
         PrintWriter noCModelWriter;
         PrintWriter sDepWriter;
@@ -235,13 +280,41 @@ public class Analyzer {
         } catch (IOException e) {
             throw new FaultException("Error opening file for writing", e);
         }
+        FailedObjectList failed = null;
+        if (m_continueOnError) {
+            failed = new FailedObjectList(new File(outputDir, FAILED_FILE));
+        }
         try {
-            for (DigitalObject object : lister) {
-                // Update MIME types and Format URIs before processing
-                DigitalObjectUtil.updateLegacyDatastreams(object);
-                String ftype = object.getExtProperty(Constants.RDF.TYPE.uri);
-                if (Constants.MODEL.DATA_OBJECT.looselyMatches(ftype, false)) {
-                    DigitalObject cModel = m_classifier.getContentModel(object);
+            Metrics.startObject();
+            Iterator<DigitalObject> objects = lister.iterator();
+            while (objects.hasNext()) {
+                DigitalObject object;
+                try {
+                    object = objects.next();
+                } catch (ObjectReadException e) {
+                    skip(failed, e.getPid(), e.getFile(), e);
+                    continue;
+                }
+                String ftype;
+                boolean dataObject;
+                DigitalObject cModel = null;
+                try {
+                    // Update MIME types and Format URIs before processing
+                    DigitalObjectUtil.updateLegacyDatastreams(object);
+                    ftype = object.getExtProperty(Constants.RDF.TYPE.uri);
+                    dataObject = Constants.MODEL.DATA_OBJECT.looselyMatches(
+                            ftype, false);
+                    if (dataObject) {
+                        long start = Metrics.start(Stage.CLASSIFY);
+                        cModel = m_classifier.getContentModel(
+                                new LatestVersions(object));
+                        Metrics.stop(Stage.CLASSIFY, start, object.getPid());
+                    }
+                } catch (RuntimeException e) {
+                    skip(failed, object.getPid(), null, e);
+                    continue;
+                }
+                if (dataObject) {
                     if (cModel == null) {
                         noCModelWriter.println(object.getPid());
                     } else {
@@ -255,9 +328,17 @@ public class Analyzer {
                     sDefWriter.println(object.getPid());
                 }
                 objectCount++;
+                Metrics.processed(object.getPid());
             }
             serializeCModels();
             writeBMechDirectives();
+            // the text lists must be complete before their binary forms
+            // are written; closing them again below does no harm
+            noCModelWriter.close();
+            sDepWriter.close();
+            sDefWriter.close();
+            closeMemberLists();
+            writeBinaryPidLists();
         } finally {
             noCModelWriter.close();
             sDepWriter.close();
@@ -266,7 +347,15 @@ public class Analyzer {
             LOG.info("Classification finished.");
             LOG.info("Total objects analyzed: " + objectCount);
             LOG.info("Total content models generated: " + m_cModelCount);
+            if (failed != null) {
+                failed.close();
+                LOG.info("Total objects skipped after failure: "
+                        + failed.getCount() + " (see "
+                        + failed.getFile().getPath() + ")");
+            }
             LOG.info("Output is in directory: " + outputDir.getPath());
+            Metrics.finish();
+            Metrics.writeTopObjects(new File(outputDir, TOP_OBJECTS_FILE));
         }
     }
 
@@ -284,6 +373,8 @@ public class Analyzer {
         }
     }
 
+    // writes each content model's directives as text, for people, and in
+    // binary, for the generator
     private void writeBMechDirectives() {
         for (DigitalObject obj : m_cModelNumber.keySet()) {
             int num = m_cModelNumber.get(obj).intValue();
@@ -310,21 +401,52 @@ public class Analyzer {
                             "Error writing deployment directives: "
                             + file.getPath(), e);
                 }
+                DeploymentDirective.write(
+                        m_classifier.getDeploymentDirectives(obj.getPid()),
+                        new File(m_outputDir, CMODEL_PREFIX + num
+                                + DeploymentDirective.BINARY_SUFFIX));
             }
         }
     }
 
+    // writes the binary form of each list of pids, for the transformer
+    private void writeBinaryPidLists() {
+        PidList.writeBinary(new File(m_outputDir, "nocmodel.txt"));
+        PidList.writeBinary(new File(m_outputDir, "sdeps.txt"));
+        PidList.writeBinary(new File(m_outputDir, "sdefs.txt"));
+        for (int i = 1; i <= m_cModelCount; i++) {
+            PidList.writeBinary(new File(m_outputDir, MEMBER_PREFIX + i
+                    + MEMBER_SUFFIX));
+        }
+    }
+
+    // lists an object that couldn't be processed and moves on, or rethrows
+    // the failure if not continuing on error
+    private static void skip(FailedObjectList failed,
+                             String pid,
+                             File file,
+                             RuntimeException e) {
+        if (failed == null) {
+            throw e;
+        }
+        failed.add(pid, file, e);
+        Metrics.failed();
+        Metrics.startObject();
+    }
+
     private void recordMembership(DigitalObject object, DigitalObject cModel) {
         PrintWriter writer = m_memberLists.get(cModel);
         if (writer == null) {
             m_cModelCount++;
             m_cModelNumber.put(cModel, new Integer(m_cModelCount));
+            Metrics.setContentModels(m_cModelCount);
             File file =
                     new File(m_outputDir, MEMBER_PREFIX + m_cModelCount
                             + MEMBER_SUFFIX);
             try {
                 writer = new PrintWriter(
-                        new OutputStreamWriter(new FileOutputStream(file)));
+                        new OutputStreamWriter(new FileOutputStream(file),
+                                               UTF8));
                 m_memberLists.put(cModel, writer);
                 writer.println("# The following objects will be assigned to "
                         + "cmodel-" + m_cModelCount);
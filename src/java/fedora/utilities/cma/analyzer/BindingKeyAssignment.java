@@ -0,0 +1,124 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.cma.analyzer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The assignment of a datastream to a binding key of an old-style
+ * disseminator.
+ *
+ * <p>Instances are interned, so the same assignment found in many objects
+ * is held once, and is usually compared by reference.  The hash code is
+ * that of the text form, <code>key=id</code>, so sets of assignments
+ * iterate in the same order as sets of their text forms would.
+ * Immutable.</p>
+ *
+ * @author Chris Wilper
+ */
+public final class BindingKeyAssignment {
+
+    /** The instances made so far. */
+    private static final ConcurrentMap<BindingKeyAssignment,
+            BindingKeyAssignment> INSTANCES =
+            new ConcurrentHashMap<BindingKeyAssignment,
+                    BindingKeyAssignment>();
+
+    /** The binding key. */
+    private final String m_bindingKey;
+
+    /** The datastream id. */
+    private final String m_datastreamID;
+
+    /** The hash code. */
+    private final int m_hashCode;
+
+    /**
+     * Creates an instance.
+     *
+     * @param bindingKey the binding key.
+     * @param datastreamID the datastream id.
+     */
+    private BindingKeyAssignment(String bindingKey, String datastreamID) {
+        m_bindingKey = bindingKey;
+        m_datastreamID = datastreamID;
+        m_hashCode = toString().hashCode();
+    }
+
+    /**
+     * Gets the assignment of a datastream to a binding key.
+     *
+     * @param bindingKey the binding key.
+     * @param datastreamID the datastream id.
+     * @return the interned instance.
+     */
+    public static BindingKeyAssignment of(String bindingKey,
+                                          String datastreamID) {
+        BindingKeyAssignment assignment =
+                new BindingKeyAssignment(bindingKey, datastreamID);
+        BindingKeyAssignment existing =
+                INSTANCES.putIfAbsent(assignment, assignment);
+        return existing == null ? assignment : existing;
+    }
+
+    /**
+     * Gets the binding key.
+     *
+     * @return the binding key.
+     */
+    public String getBindingKey() {
+        return m_bindingKey;
+    }
+
+    /**
+     * Gets the datastream id.
+     *
+     * @return the datastream id.
+     */
+    public String getDatastreamID() {
+        return m_datastreamID;
+    }
+
+    //---
+    // Object overrides
+    //---
+
+    /**
+     * Gets the text form, <code>key=id</code>.
+     *
+     * @return the text form.
+     */
+    @Override
+    public String toString() {
+        return m_bindingKey + "=" + m_datastreamID;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof BindingKeyAssignment) {
+            BindingKeyAssignment a = (BindingKeyAssignment) o;
+            return m_hashCode == a.m_hashCode
+                    && m_bindingKey.equals(a.m_bindingKey)
+                    && m_datastreamID.equals(a.m_datastreamID);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return m_hashCode;
+    }
+
+}
@@ -4,6 +4,8 @@
  */
 package fedora.utilities.cma.analyzer;
 
+import java.util.List;
+
 import org.fcrepo.server.storage.types.DigitalObject;
 
 /**
@@ -22,6 +24,18 @@ public interface Classifier {
      */
     DigitalObject getContentModel(DigitalObject obj);
 
+    /**
+     * Gets a content model object appropriate to the given object, whose
+     * latest datastream and disseminator versions have already been found.
+     * This saves each aspect of the object from scanning its versions
+     * again.
+     *
+     * @param latest the latest versions of the object to examine.
+     * @return a content model object that describe the class of object
+     *         it belongs to.
+     */
+    DigitalObject getContentModel(LatestVersions latest);
+
     /**
      * Gets Behavior Mechanism Directives for the given content model,
      * which was previously returned by this classifier.
@@ -46,4 +60,14 @@ public interface Classifier {
      */
     String getBMechDirectives(String cModelPID);
 
+    /**
+     * Gets the same directives as {@link #getBMechDirectives(String)}, in
+     * structured form, so they can be written in a form that needn't be
+     * parsed.
+     *
+     * @param cModelPID identifies the content model whose directives to get.
+     * @return the directives, or null if no BMech directives exist.
+     */
+    List<DeploymentDirective> getDeploymentDirectives(String cModelPID);
+
 }
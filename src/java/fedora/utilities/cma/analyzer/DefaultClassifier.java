@@ -6,10 +6,11 @@ package fedora.utilities.cma.analyzer;
 
 import java.io.UnsupportedEncodingException;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -22,7 +23,6 @@ import org.fcrepo.common.Models;
 
 import org.fcrepo.server.storage.types.BasicDigitalObject;
 import org.fcrepo.server.storage.types.DSBinding;
-import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.server.storage.types.DigitalObject;
 import org.fcrepo.server.storage.types.Disseminator;
@@ -182,41 +182,60 @@ public class DefaultClassifier
      * {@inheritDoc}
      */
     public DigitalObject getContentModel(DigitalObject obj) {
-        return getContentModel(getSignature(obj));
+        return getContentModel(new LatestVersions(obj));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DigitalObject getContentModel(LatestVersions latest) {
+        return getContentModel(getSignature(latest));
     }
 
     /**
      * {@inheritDoc}
      */
     public String getBMechDirectives(String cModelPID) {
-        return getBMechDirectives(m_memberSignatures.get(cModelPID), cModelPID);
+        List<DeploymentDirective> directives =
+                getDeploymentDirectives(cModelPID);
+        if (directives == null) {
+            return null;
+        }
+        return DeploymentDirective.toText(directives);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<DeploymentDirective> getDeploymentDirectives(
+            String cModelPID) {
+        return getDeploymentDirectives(m_memberSignatures.get(cModelPID),
+                                       cModelPID);
     }
 
     //---
     // Instance helpers
     //---
 
-    private String getBMechDirectives(Signature memberSignature,
-                                      String cModelPID) {
+    private List<DeploymentDirective> getDeploymentDirectives(
+            Signature memberSignature,
+            String cModelPID) {
         Set<String> bMechPIDs = memberSignature.getBMechPIDs();
         if (bMechPIDs == null || bMechPIDs.size() == 0) {
             return null;
         }
-        StringBuilder out = new StringBuilder();
+        List<DeploymentDirective> directives =
+                new ArrayList<DeploymentDirective>();
         int i = 0;
         for (String origPID : bMechPIDs) {
-            out.append("OLD_BMECH " + origPID + CR);
             i++;
-            out.append("NEW_DEPLOYMENTS " + cModelPID + "-SDep" + i + CR);
-            out.append("NEW_PARTS");
-            Set<String> assignments =
-                    memberSignature.getBindingKeyAssignments(origPID);
-            for (String assignment : assignments) {
-                out.append(" " + assignment);
-            }
-            out.append(CR + CR);
+            directives.add(new DeploymentDirective(origPID,
+                    cModelPID + "-SDep" + i,
+                    new ArrayList<BindingKeyAssignment>(
+                            memberSignature.getBindingKeyAssignments(
+                                    origPID))));
         }
-        return out.toString();
+        return directives;
     }
 
     private void setAspects(Set<Aspect> ignoreAspects) {
@@ -265,13 +284,20 @@ public class DefaultClassifier
         return cModelObj;
     }
 
-    private Signature getSignature(DigitalObject obj) {
+    // package-private for benchmarking
+    Signature getSignature(DigitalObject obj) {
+        return getSignature(new LatestVersions(obj));
+    }
+
+    private Signature getSignature(LatestVersions latest) {
+        DigitalObject obj = latest.getObject();
         Set<String> dsIDs = new HashSet<String>();
         if (m_aspects.contains(Aspect.DATASTREAM_IDS)) {
-            dsIDs.addAll(getDatastreamIDs(obj));
+            dsIDs.addAll(latest.getDatastreamIDs());
         }
         dsIDs.removeAll(m_ignoreDatastreamIDs);
-        Map<String, Set<String>> assignments = getBindingKeyAssignments(obj);
+        Map<String, Set<BindingKeyAssignment>> assignments =
+                getBindingKeyAssignments(latest);
 
         addBoundDatastreams(assignments, dsIDs);
 
@@ -280,18 +306,18 @@ public class DefaultClassifier
                                              Constants.MODEL.CONTENT_MODEL.uri)
                                      : null,
                              m_aspects.contains(Aspect.BDEF_PIDS)
-                                     ? getBDefPIDs(obj)
+                                     ? getBDefPIDs(latest)
                                      : null,
                              m_aspects.contains(Aspect.BMECH_PIDS)
-                                     ? getBMechPIDs(obj)
+                                     ? getBMechPIDs(latest)
                                      : null,
                              assignments,
                              dsIDs,
                              m_aspects.contains(Aspect.MIME_TYPES)
-                                     ? getMIMETypes(obj, dsIDs)
+                                     ? getMIMETypes(latest, dsIDs)
                                      : null,
                              m_aspects.contains(Aspect.FORMAT_URIS)
-                                     ? getFormatURIs(obj, dsIDs)
+                                     ? getFormatURIs(latest, dsIDs)
                                      : null);
     }
 
@@ -299,15 +325,14 @@ public class DefaultClassifier
     // Static helpers
     //---
 
-    private static void addBoundDatastreams(Map<String,
-                                            Set<String>> assignments,
-                                            Set<String> dsIDs) {
+    private static void addBoundDatastreams(
+            Map<String, Set<BindingKeyAssignment>> assignments,
+            Set<String> dsIDs) {
         // make sure required datastreams include those indicated by
         // binding key assignments
-        for (Set<String> mappings : assignments.values()) {
-            for (String mapping : mappings) {
-                String[] parts = mapping.split("=");
-                dsIDs.add(parts[1]);
+        for (Set<BindingKeyAssignment> mappings : assignments.values()) {
+            for (BindingKeyAssignment mapping : mappings) {
+                dsIDs.add(mapping.getDatastreamID());
             }
         }
     }
@@ -338,112 +363,60 @@ public class DefaultClassifier
     }
 
 
-    @SuppressWarnings("unchecked")
-    private static Set<String> getBDefPIDs(DigitalObject obj) {
+    private static Set<String> getBDefPIDs(LatestVersions latest) {
         Set<String> set = new HashSet<String>();
-        Iterator dissIDs = obj.disseminatorIdIterator();
-        while (dissIDs.hasNext()) {
-            Disseminator diss =
-                    getLatestDissVersion(obj, (String) dissIDs.next());
+        for (Disseminator diss : latest.getDisseminators()) {
             set.add(diss.bDefID);
         }
         return set;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Set<String> getBMechPIDs(DigitalObject obj) {
+    private static Set<String> getBMechPIDs(LatestVersions latest) {
         Set<String> set = new HashSet<String>();
-        Iterator dissIDs = obj.disseminatorIdIterator();
-        while (dissIDs.hasNext()) {
-            Disseminator diss =
-                    getLatestDissVersion(obj, (String) dissIDs.next());
+        for (Disseminator diss : latest.getDisseminators()) {
             set.add(diss.sDepID);
         }
         return set;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Map<String, Set<String>> getBindingKeyAssignments(
-                DigitalObject obj) {
-        Map<String, Set<String>> map = new HashMap<String, Set<String>>();
-        Iterator dissIDs = obj.disseminatorIdIterator();
-        while (dissIDs.hasNext()) {
-            Disseminator diss =
-                    getLatestDissVersion(obj, (String) dissIDs.next());
+    private static Map<String, Set<BindingKeyAssignment>>
+            getBindingKeyAssignments(LatestVersions latest) {
+        Map<String, Set<BindingKeyAssignment>> map =
+                new HashMap<String, Set<BindingKeyAssignment>>();
+        for (Disseminator diss : latest.getDisseminators()) {
             map.put(diss.sDepID, getBindingKeyAssignments(diss));
         }
         return map;
     }
 
-    private static Set<String> getBindingKeyAssignments(Disseminator diss) {
-        Set<String> set = new HashSet<String>();
+    private static Set<BindingKeyAssignment> getBindingKeyAssignments(
+            Disseminator diss) {
+        Set<BindingKeyAssignment> set = new HashSet<BindingKeyAssignment>();
         for (DSBinding binding : diss.dsBindMap.dsBindings) {
-            set.add(binding.bindKeyName + "=" + binding.datastreamID);
-        }
-        return set;
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Set<String> getDatastreamIDs(DigitalObject obj) {
-        Set<String> set = new HashSet<String>();
-        Iterator dsIDs = obj.datastreamIdIterator();
-        while (dsIDs.hasNext()) {
-            set.add((String) dsIDs.next());
+            set.add(BindingKeyAssignment.of(binding.bindKeyName,
+                                            binding.datastreamID));
         }
         return set;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Map<String, String> getMIMETypes(DigitalObject obj,
+    private static Map<String, String> getMIMETypes(LatestVersions latest,
                                                     Set<String> dsIDs) {
         Map<String, String> map = new HashMap<String, String>();
         for (String dsID : dsIDs) {
-            map.put(dsID, getLatestDSVersion(obj, dsID).DSMIME);
+            map.put(dsID, latest.getDatastream(dsID).DSMIME);
         }
         return map;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Map<String, String> getFormatURIs(DigitalObject obj,
+    private static Map<String, String> getFormatURIs(LatestVersions latest,
                                                      Set<String> dsIDs) {
         Map<String, String> map = new HashMap<String, String>();
         for (String dsID : dsIDs) {
-            map.put(dsID, getLatestDSVersion(obj, dsID).DSFormatURI);
+            map.put(dsID, latest.getDatastream(dsID).DSFormatURI);
         }
         return map;
     }
 
-    @SuppressWarnings("unchecked")
-    private static Disseminator getLatestDissVersion(DigitalObject obj,
-                                                     String dissID) {
-        Disseminator latest = null;
-        Iterator disses = obj.disseminators(dissID).iterator();
-        while (disses.hasNext()) {
-            Disseminator diss = (Disseminator) disses.next();
-            if (latest == null
-                    || latest.dissCreateDT.getTime() < diss.dissCreateDT
-                            .getTime()) {
-                latest = diss;
-            }
-        }
-        return latest;
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Datastream getLatestDSVersion(DigitalObject obj,
-                                                 String dsID) {
-        Datastream latest = null;
-        Iterator dses = obj.datastreams(dsID).iterator();
-        while (dses.hasNext()) {
-            Datastream ds = (Datastream) dses.next();
-            if (latest == null
-                    || latest.DSCreateDT.getTime() < ds.DSCreateDT.getTime()) {
-                latest = ds;
-            }
-        }
-        return latest;
-    }
-
     private static void addRelsExt(DigitalObject cModelObj,
                                    Signature signature,
                                    boolean explicitBasicModel) {
@@ -511,7 +484,8 @@ public class DefaultClassifier
         return out.toString();
     }
 
-    private static String getDSCompositeModelContent(Signature signature) {
+    // package-private for benchmarking
+    static String getDSCompositeModelContent(Signature signature) {
         StringBuilder out = new StringBuilder();
         out.append("<dsCompositeModel xmlns=\""
                 + Constants.DS_COMPOSITE_MODEL.uri + "\">" + CR);
@@ -0,0 +1,237 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.cma.analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+import static fedora.utilities.cma.analyzer.Constants.CR;
+
+/**
+ * Tells how to copy a BMech as a new service deployment: the original
+ * BMech, the PID of the copy, and the datastream now assigned to each
+ * binding key.
+ *
+ * <p>Directives are written by the analyzer both as text, for people to
+ * read, and in a compact binary form that the generator loads without
+ * parsing.  The binary form is a 4-byte magic number and version, the
+ * number of directives, and for each, the two PIDs and the number of
+ * assignments followed by their keys and datastream ids, with strings in
+ * modified UTF-8 as written by <code>DataOutput.writeUTF</code>.  It's
+ * written to a temporary file and renamed into place, so it's never seen
+ * half-written.  Immutable.</p>
+ *
+ * @author Chris Wilper
+ */
+public class DeploymentDirective {
+
+    /**
+     * The end of the names of files with directives in binary form;
+     * <code>.deployments.bin</code>.  The text form is in the file of the
+     * same name ending in <code>.deployments.txt</code>.
+     */
+    public static final String BINARY_SUFFIX = ".deployments.bin";
+
+    /** The first four bytes of the binary form; "CMDD". */
+    private static final int MAGIC = 0x434D4444;
+
+    /** The version of the binary form. */
+    private static final int VERSION = 1;
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(DeploymentDirective.class);
+
+    /** The PID of the original BMech. */
+    private final String m_oldBMechPID;
+
+    /** The PID of the new service deployment. */
+    private final String m_newDeploymentPID;
+
+    /** The datastream assigned to each binding key. */
+    private final List<BindingKeyAssignment> m_newParts;
+
+    /**
+     * Creates an instance.
+     *
+     * @param oldBMechPID the PID of the original BMech.
+     * @param newDeploymentPID the PID of the new service deployment.
+     * @param newParts the datastream assigned to each binding key.
+     */
+    public DeploymentDirective(String oldBMechPID,
+                               String newDeploymentPID,
+                               List<BindingKeyAssignment> newParts) {
+        m_oldBMechPID = oldBMechPID;
+        m_newDeploymentPID = newDeploymentPID;
+        m_newParts = Collections.unmodifiableList(
+                new ArrayList<BindingKeyAssignment>(newParts));
+    }
+
+    /**
+     * Gets the PID of the original BMech.
+     *
+     * @return the PID.
+     */
+    public String getOldBMechPID() {
+        return m_oldBMechPID;
+    }
+
+    /**
+     * Gets the PID of the new service deployment.
+     *
+     * @return the PID.
+     */
+    public String getNewDeploymentPID() {
+        return m_newDeploymentPID;
+    }
+
+    /**
+     * Gets the datastream assigned to each binding key.
+     *
+     * @return the assignments.
+     */
+    public List<BindingKeyAssignment> getNewParts() {
+        return m_newParts;
+    }
+
+    /**
+     * Gets the datastream assigned to each binding key, as a map.
+     *
+     * @return the datastream ids, keyed by binding key.
+     */
+    public Map<String, String> getNewPartsMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        for (BindingKeyAssignment part : m_newParts) {
+            map.put(part.getBindingKey(), part.getDatastreamID());
+        }
+        return map;
+    }
+
+    /**
+     * Gets the text form of some directives.
+     *
+     * @param directives the directives.
+     * @return the text, with a blank line after each directive.
+     */
+    public static String toText(List<DeploymentDirective> directives) {
+        StringBuilder out = new StringBuilder();
+        for (DeploymentDirective directive : directives) {
+            out.append("OLD_BMECH " + directive.m_oldBMechPID + CR);
+            out.append("NEW_DEPLOYMENTS " + directive.m_newDeploymentPID
+                    + CR);
+            out.append("NEW_PARTS");
+            for (BindingKeyAssignment part : directive.m_newParts) {
+                out.append(" " + part);
+            }
+            out.append(CR + CR);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the binary form of some directives to a file.
+     *
+     * @param directives the directives.
+     * @param file the file.
+     * @throws FaultException if the file can't be written.
+     */
+    public static void write(List<DeploymentDirective> directives, File file)
+            throws FaultException {
+        File temp = FileUtil.createTempFile(file);
+        boolean committed = false;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(directives.size());
+            for (DeploymentDirective directive : directives) {
+                out.writeUTF(directive.m_oldBMechPID);
+                out.writeUTF(directive.m_newDeploymentPID);
+                out.writeInt(directive.m_newParts.size());
+                for (BindingKeyAssignment part : directive.m_newParts) {
+                    out.writeUTF(part.getBindingKey());
+                    out.writeUTF(part.getDatastreamID());
+                }
+            }
+            out.close();
+            out = null;
+            FileUtil.commitFile(temp, file, false);
+            committed = true;
+        } catch (IOException e) {
+            throw new FaultException("Error writing deployment directives: "
+                    + file.getPath(), e);
+        } finally {
+            FileUtil.close(out);
+            if (!committed && temp.exists() && !temp.delete()) {
+                LOG.warn("Unable to delete " + temp.getPath());
+            }
+        }
+    }
+
+    /**
+     * Reads the binary form of some directives from a file.
+     *
+     * @param file the file.
+     * @return the directives.
+     * @throws FaultException if the file can't be read, or isn't in the
+     *         binary form.
+     */
+    public static List<DeploymentDirective> read(File file)
+            throws FaultException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new FaultException("Not a version " + VERSION
+                        + " deployment directives file: " + file.getPath());
+            }
+            int count = in.readInt();
+            List<DeploymentDirective> directives =
+                    new ArrayList<DeploymentDirective>(count);
+            for (int i = 0; i < count; i++) {
+                String oldBMechPID = in.readUTF();
+                String newDeploymentPID = in.readUTF();
+                int partCount = in.readInt();
+                List<BindingKeyAssignment> parts =
+                        new ArrayList<BindingKeyAssignment>(partCount);
+                for (int j = 0; j < partCount; j++) {
+                    parts.add(BindingKeyAssignment.of(in.readUTF(),
+                                                      in.readUTF()));
+                }
+                directives.add(new DeploymentDirective(oldBMechPID,
+                                                       newDeploymentPID,
+                                                       parts));
+            }
+            return directives;
+        } catch (IOException e) {
+            throw new FaultException("Error reading deployment directives: "
+                    + file.getPath(), e);
+        } finally {
+            FileUtil.close(in);
+        }
+    }
+
+}
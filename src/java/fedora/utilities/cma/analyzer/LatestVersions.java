@@ -0,0 +1,112 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.cma.analyzer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.Disseminator;
+
+/**
+ * The latest version of each datastream and disseminator of an object,
+ * found in a single pass over all versions.
+ *
+ * <p>Classifiers look at the latest versions several times over, once for
+ * each aspect; an object with a long history would otherwise have every
+ * version of every datastream and disseminator scanned each time.</p>
+ *
+ * @author Chris Wilper
+ */
+public class LatestVersions {
+
+    /** The object. */
+    private final DigitalObject m_object;
+
+    /** The latest version of each datastream, keyed by ID. */
+    private final Map<String, Datastream> m_datastreams;
+
+    /** The latest version of each disseminator, keyed by ID. */
+    private final Map<String, Disseminator> m_disseminators;
+
+    /**
+     * Finds the latest versions of the given object's datastreams and
+     * disseminators.
+     *
+     * @param object the object.
+     */
+    public LatestVersions(DigitalObject object) {
+        m_object = object;
+        m_datastreams = new LinkedHashMap<String, Datastream>();
+        Iterator<String> dsIDs = object.datastreamIdIterator();
+        while (dsIDs.hasNext()) {
+            String dsID = dsIDs.next();
+            Datastream latest = null;
+            for (Datastream ds : object.datastreams(dsID)) {
+                if (latest == null || latest.DSCreateDT.getTime()
+                        < ds.DSCreateDT.getTime()) {
+                    latest = ds;
+                }
+            }
+            m_datastreams.put(dsID, latest);
+        }
+        m_disseminators = new LinkedHashMap<String, Disseminator>();
+        Iterator<String> dissIDs = object.disseminatorIdIterator();
+        while (dissIDs.hasNext()) {
+            String dissID = dissIDs.next();
+            Disseminator latest = null;
+            for (Disseminator diss : object.disseminators(dissID)) {
+                if (latest == null || latest.dissCreateDT.getTime()
+                        < diss.dissCreateDT.getTime()) {
+                    latest = diss;
+                }
+            }
+            m_disseminators.put(dissID, latest);
+        }
+    }
+
+    /**
+     * Gets the object.
+     *
+     * @return the object.
+     */
+    public DigitalObject getObject() {
+        return m_object;
+    }
+
+    /**
+     * Gets the IDs of the object's datastreams.
+     *
+     * @return the IDs, in the order the object gives them.
+     */
+    public Set<String> getDatastreamIDs() {
+        return Collections.unmodifiableSet(m_datastreams.keySet());
+    }
+
+    /**
+     * Gets the latest version of a datastream.
+     *
+     * @param dsID the ID of the datastream.
+     * @return the latest version, or null if there's no such datastream.
+     */
+    public Datastream getDatastream(String dsID) {
+        return m_datastreams.get(dsID);
+    }
+
+    /**
+     * Gets the latest version of each of the object's disseminators.
+     *
+     * @return the latest versions, in the order the object gives their IDs.
+     */
+    public Collection<Disseminator> getDisseminators() {
+        return Collections.unmodifiableCollection(m_disseminators.values());
+    }
+
+}
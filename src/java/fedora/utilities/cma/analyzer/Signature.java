@@ -24,7 +24,7 @@ public class Signature {
     private Set<String> m_bMechPIDs;
 
     /** See constructor for description. */
-    private Map<String, Set<String>> m_bindingKeyAssignments;
+    private Map<String, Set<BindingKeyAssignment>> m_bindingKeyAssignments;
 
     /** See constructor for description. */
     private Set<String> m_datastreamIDs;
@@ -74,7 +74,7 @@ public class Signature {
     public Signature(String origContentModelID,
             Set<String> bDefPIDs, 
             Set<String> bMechPIDs, 
-            Map<String, Set<String>> bindingKeyAssignments,
+            Map<String, Set<BindingKeyAssignment>> bindingKeyAssignments,
             Set<String> datastreamIDs,
             Map<String, String> mimeTypes,
             Map<String, String> formatURIs) {
@@ -121,16 +121,16 @@ public class Signature {
      * Gets the constraint on the binding key assignments of an old-style
      * disseminator.
      *
-     * <p>Each binding key assignment has the form: <code>key=id</code>, where
-     * <em>key</em> is the binding key and <em>id</em> is the datastream
-     * id assigned to that binding key.
+     * <p>Each binding key assignment gives a binding key and the datastream
+     * id assigned to it; its text form is <code>key=id</code>.
      *
      * @param bMechPID the bMech of the old-style disseminator whose binding
      *                 key assignment constraints should be returned.
      * @return the binding key assignments of the associated disseminator, or
      *         null if this signature does not constrain this aspect.
      */
-    public Set<String> getBindingKeyAssignments(String bMechPID) {
+    public Set<BindingKeyAssignment> getBindingKeyAssignments(
+            String bMechPID) {
         if (m_bindingKeyAssignments == null) {
             return null;
         }
@@ -236,7 +236,7 @@ public class Signature {
         }
     }
     
-    private static String listStrings(Set<String> set) {
+    private static String listStrings(Set<?> set) {
         if (set == null) {
             return "any";
         }
@@ -245,13 +245,13 @@ public class Signature {
         }
         StringBuffer out = new StringBuffer();
         boolean pastFirst = false;
-        for (String string : set) {
+        for (Object value : set) {
             if (pastFirst) {
                 out.append(", ");
             } else {
                 pastFirst = true;
             }
-            out.append("'" + string + "'");
+            out.append("'" + value + "'");
         }
         return out.toString();
     }
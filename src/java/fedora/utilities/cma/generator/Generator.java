@@ -12,7 +12,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -26,10 +28,13 @@ import org.fcrepo.server.storage.types.DigitalObject;
 import org.fcrepo.server.storage.types.DigitalObjectUtil;
 
 import fedora.utilities.Log4J;
+import fedora.utilities.cma.analyzer.DeploymentDirective;
 import fedora.utilities.config.ConfigUtil;
 import fedora.utilities.digitalobject.ObjectStore;
 import fedora.utilities.digitalobject.RepoUtil;
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
 
 /**
  * Utility to generate transformation rules for instance objects to
@@ -106,6 +111,12 @@ public class Generator {
      *   serializer           - the serializer to use when writing bMechs
      *                          to sourceDir.  Default value is
      *                 "org.fcrepo.server.storage.translation.FOXML1_1DOSerializer"
+     *   metrics              - whether to log per-stage timings and
+     *                          progress.  Default value is false.
+     *   jmx                  - whether to register an MBean with live
+     *                          progress.  Default value is false.
+     *   jfr                  - whether to emit Flight Recorder events.
+     *                          Default value is false.
      * </pre>
      *
      * @param props the properties to get configuration values from.
@@ -127,27 +138,36 @@ public class Generator {
         m_explicitBasicModel = ConfigUtil.getOptionalBoolean(props,
                 "explicitBasicModel",
                 false);
+        Metrics.configure(props);
     }
 
     /**
      * Generates all necessary stylesheets and SDeps.
      */
     public void generateAll() {
-        int count = 0;
+        List<File> cModelFiles = new ArrayList<File>();
         for (File file : m_sourceDir.listFiles()) {
             String[] parts = file.getName().split("\\.");
             if (parts.length == 2 && parts[0].startsWith("cmodel-")) {
-                String key = parts[0].substring(7);
-                generateAll(RepoUtil.readObject(m_cModelDeserializer, file),
-                        key);
-                count++;
+                cModelFiles.add(file);
             }
         }
+        Metrics.begin("Generator", cModelFiles.size());
+        int count = 0;
+        for (File file : cModelFiles) {
+            Metrics.setCurrentBatch(file.getName());
+            String key = file.getName().split("\\.")[0].substring(7);
+            generateAll(RepoUtil.readObject(m_cModelDeserializer, file),
+                    key);
+            count++;
+            Metrics.processed();
+        }
         writeNoCModelStylesheet("nocmodel");
         writeNoCModelStylesheet("sdeps");
         writeNoCModelStylesheet("sdefs");
         LOG.info("Generated stylesheets service deployments for " + count
                 + " data object content models.");
+        Metrics.finish();
     }
 
     //---
@@ -176,10 +196,40 @@ public class Generator {
         FileUtil.writeTextFile(xslt, xsltFile);
         File sDepsFile = new File(m_sourceDir, "cmodel-" + key
                 + ".deployments.txt");
+        File binaryFile = new File(m_sourceDir, "cmodel-" + key
+                + DeploymentDirective.BINARY_SUFFIX);
         if (sDepsFile.exists()) {
             LOG.info("Generating service deployment object(s) for "
                     + "content model " + cModel.getPid());
-            generateSDeps(sDepsFile, key, cModel.getPid());
+            List<DeploymentDirective> directives = null;
+            if (binaryFile.lastModified() >= sDepsFile.lastModified()) {
+                try {
+                    directives = DeploymentDirective.read(binaryFile);
+                } catch (FaultException e) {
+                    LOG.warn("Ignoring binary deployment directives; "
+                            + "reading " + sDepsFile.getPath() + " instead",
+                            e);
+                }
+            }
+            if (directives != null) {
+                generateSDeps(directives, key, cModel.getPid());
+            } else {
+                // no usable binary form, or the text was edited since
+                generateSDeps(sDepsFile, key, cModel.getPid());
+            }
+        }
+    }
+
+    private void generateSDeps(List<DeploymentDirective> directives,
+            String key, String cModelPID) {
+        int i = 0;
+        for (DeploymentDirective directive : directives) {
+            i++;
+            File outFile = new File(m_sourceDir, "cmodel-" + key
+                    + ".deployment" + i + ".xml");
+            generateSDep(directive.getOldBMechPID(),
+                    directive.getNewDeploymentPID(),
+                    directive.getNewPartsMap(), outFile, cModelPID);
         }
     }
 
@@ -242,10 +292,12 @@ public class Generator {
         }
         // Update MIME types and Format URIs before processing
         DigitalObjectUtil.updateLegacyDatastreams(oldBMech);
+        long start = Metrics.start(Stage.TRANSFORM);
         ServiceDeploymentGenerator sDepGen =
                 new ServiceDeploymentGenerator(oldBMech,
                                                m_explicitBasicModel);
         DigitalObject newSDep = sDepGen.generate(newPID, newParts, cModelPID);
+        Metrics.stop(Stage.TRANSFORM, start, newPID);
         RepoUtil.writeObject(m_serializer, newSDep, outFile);
     }
 
@@ -16,9 +16,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -26,10 +27,6 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.w3c.dom.Document;
-
-import org.xml.sax.SAXException;
-
 import org.fcrepo.common.Constants;
 import org.fcrepo.common.FaultException;
 import org.fcrepo.common.Models;
@@ -52,6 +49,20 @@ class ServiceDeploymentGenerator {
     /** Current date/time, for new datastreams. */
     private static final Date NOW = new Date();
 
+    /** Path to the stylesheet for fixing bMech datastreams. */
+    private static final String XML_FIXER_PATH =
+            "fedora/utilities/cma/generator/resources/"
+                    + "fix-bmech-datastream.xslt";
+
+    /**
+     * Shared factory for peeking at datastream content; readers are
+     * created while holding its lock.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /** Compiled stylesheet for fixing bMech datastreams, once loaded. */
+    private static Templates s_xmlFixerTemplates;
+
     /** The source behavior mechanism object. */
     private final DigitalObject m_oldBMech;
 
@@ -91,17 +102,8 @@ class ServiceDeploymentGenerator {
         m_bDefPID = getBDefPID();
 
         // build the transformer we'll use for this instance
-        final String xsltPath =
-                "fedora/utilities/cma/generator/resources/"
-                        + "fix-bmech-datastream.xslt";
-        InputStream in =
-                Generator.class.getClassLoader().getResourceAsStream(xsltPath);
-        if (in == null) {
-            throw new FaultException("Resource not found: " + xsltPath);
-        }
-        TransformerFactory tFactory = TransformerFactory.newInstance();
         try {
-            m_xmlFixer = tFactory.newTransformer(new StreamSource(in));
+            m_xmlFixer = getXMLFixerTemplates().newTransformer();
         } catch (TransformerConfigurationException e) {
             throw new FaultException("Error configuring transformer", e);
         }
@@ -148,18 +150,8 @@ class ServiceDeploymentGenerator {
                 ((DatastreamXMLMetadata) m_oldDatastreams
                         .get("DSINPUTSPEC")).xmlContent;
         try {
-            DocumentBuilderFactory factory =
-                    DocumentBuilderFactory.newInstance();
-            factory.setValidating(false);
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new ByteArrayInputStream(xmlContent));
-            return doc.getDocumentElement().getAttribute("bDefPID");
-        } catch (IOException e) {
-            throw new FaultException("Error reading DSINPUTSPEC", e);
-        } catch (ParserConfigurationException e) {
-            throw new FaultException("Error reading DSINPUTSPEC", e);
-        } catch (SAXException e) {
+            return getRootAttribute(xmlContent, "bDefPID");
+        } catch (XMLStreamException e) {
             throw new FaultException("Error reading DSINPUTSPEC", e);
         }
     }
@@ -244,6 +236,69 @@ class ServiceDeploymentGenerator {
     // Static helpers
     //---
 
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                            Boolean.FALSE);
+        return factory;
+    }
+
+    private static synchronized Templates getXMLFixerTemplates() {
+        if (s_xmlFixerTemplates == null) {
+            InputStream in =
+                    Generator.class.getClassLoader()
+                            .getResourceAsStream(XML_FIXER_PATH);
+            if (in == null) {
+                throw new FaultException("Resource not found: "
+                        + XML_FIXER_PATH);
+            }
+            TransformerFactory tFactory = TransformerFactory.newInstance();
+            try {
+                s_xmlFixerTemplates =
+                        tFactory.newTemplates(new StreamSource(in));
+            } catch (TransformerConfigurationException e) {
+                throw new FaultException("Error configuring transformer", e);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing more can be done
+                }
+            }
+        }
+        return s_xmlFixerTemplates;
+    }
+
+    /**
+     * Gets the value of an unqualified attribute of the root element,
+     * reading no further than its start tag.
+     *
+     * @return the value, or the empty string if the attribute isn't present.
+     */
+    private static String getRootAttribute(byte[] xml, String name)
+            throws XMLStreamException {
+        XMLStreamReader reader;
+        synchronized (INPUT_FACTORY) {
+            reader = INPUT_FACTORY.createXMLStreamReader(
+                    new ByteArrayInputStream(xml));
+        }
+        try {
+            reader.nextTag();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String ns = reader.getAttributeNamespace(i);
+                if ((ns == null || ns.length() == 0)
+                        && reader.getAttributeLocalName(i).equals(name)) {
+                    return reader.getAttributeValue(i);
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
+
     private static String getRelsExtContent(String pid,
                                             String bDefPID,
                                             String cModelPID,
@@ -0,0 +1,212 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.concurrent;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Limits the number of units of work in flight, adjusting the limit to
+ * the point where more concurrency stops paying off.
+ *
+ * <p>The limit is adjusted in the style of TCP Vegas.  The latency of each
+ * unit of work is measured, and after each window of samples, the average
+ * is compared with the lowest seen.  The ratio estimates how many of the
+ * units in flight are queued for a saturated resource (disk, CPU, or
+ * database) rather than being worked on.  While that queue is short, the
+ * limit grows; once it's long, the limit shrinks; in between, it holds.
+ * It therefore settles near the knee of the throughput curve, wherever
+ * that happens to be for the store and the objects at hand.  Units that
+ * signal overload, such as by timing out or being refused by the store,
+ * cut the limit by a quarter, as in AIMD.  Other failures, such as bad
+ * input, say nothing about load, and count only as samples.</p>
+ *
+ * <p>A slot may be held for several units of work done in turn, each
+ * recorded as a sample of its own.</p>
+ *
+ * <p>If the least and greatest limits are the same, the limit is fixed.
+ * Threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class AdaptiveLimiter {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(AdaptiveLimiter.class);
+
+    /** The fewest samples per window. */
+    private static final int MIN_WINDOW = 16;
+
+    /** How fast the lowest latency drifts up, per window, to follow load. */
+    private static final double BASELINE_DRIFT = 1.02;
+
+    /** The fraction of the limit kept after a sign of overload. */
+    private static final double BACKOFF = 0.75;
+
+    /** The least limit. */
+    private final int m_minLimit;
+
+    /** The greatest limit. */
+    private final int m_maxLimit;
+
+    /** The current limit. */
+    private int m_limit;
+
+    /** The number of units in flight. */
+    private int m_inFlight;
+
+    /** The number of samples in the current window. */
+    private int m_samples;
+
+    /** The total latency of the current window, in nanoseconds. */
+    private long m_latencyNanos;
+
+    /** Whether a unit signaled overload in the current window. */
+    private boolean m_overloaded;
+
+    /** The lowest average latency seen, in nanoseconds, or 0 if none. */
+    private double m_baselineNanos;
+
+    /** The greatest limit reached. */
+    private int m_peakLimit;
+
+    /**
+     * Creates an instance.
+     *
+     * @param initialLimit the limit to start with.
+     * @param minLimit the least limit.
+     * @param maxLimit the greatest limit.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must be positive, "
+                    + "and the least must not exceed the greatest");
+        }
+        m_minLimit = minLimit;
+        m_maxLimit = maxLimit;
+        m_limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        m_peakLimit = m_limit;
+    }
+
+    /**
+     * Waits until a slot is free for a unit of work, or several in turn.
+     *
+     * @throws FaultException if interrupted while waiting.
+     */
+    public synchronized void acquire()
+            throws FaultException {
+        while (m_inFlight >= m_limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FaultException("Interrupted while waiting to "
+                        + "start work", e);
+            }
+        }
+        m_inFlight++;
+    }
+
+    /**
+     * Notes that a unit of work has finished, and adjusts the limit if a
+     * window of samples is complete.
+     *
+     * @param latencyNanos how long the unit took.
+     * @param overloaded whether it failed in a way that signals overload.
+     */
+    public synchronized void record(long latencyNanos, boolean overloaded) {
+        if (m_minLimit < m_maxLimit) {
+            m_samples++;
+            m_latencyNanos += latencyNanos;
+            m_overloaded |= overloaded;
+            if (m_samples >= Math.max(MIN_WINDOW, m_limit * 2)) {
+                adjust();
+            }
+        }
+    }
+
+    /**
+     * Frees a slot taken by {@link #acquire()}, once its work is recorded.
+     */
+    public synchronized void release() {
+        m_inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return the limit.
+     */
+    public synchronized int getLimit() {
+        return m_limit;
+    }
+
+    /**
+     * Gets the greatest limit reached.
+     *
+     * @return the limit.
+     */
+    public synchronized int getPeakLimit() {
+        return m_peakLimit;
+    }
+
+    /**
+     * Waits until no units of work are in flight.
+     *
+     * @throws FaultException if interrupted while waiting.
+     */
+    public synchronized void awaitIdle()
+            throws FaultException {
+        while (m_inFlight > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FaultException("Interrupted while waiting for "
+                        + "work to finish", e);
+            }
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // adjusts the limit at the end of a window; call with the lock held
+    private void adjust() {
+        double average = (double) m_latencyNanos / m_samples;
+        if (m_baselineNanos == 0 || average < m_baselineNanos) {
+            m_baselineNanos = average;
+        } else {
+            m_baselineNanos = Math.min(average,
+                                       m_baselineNanos * BASELINE_DRIFT);
+        }
+        int oldLimit = m_limit;
+        double log = Math.max(1, Math.log10(m_limit));
+        double queued = m_limit * (1 - m_baselineNanos / average);
+        if (m_overloaded) {
+            m_limit = (int) (m_limit * BACKOFF);
+        } else if (queued < 3 * log) {
+            m_limit += (int) log;
+        } else if (queued > 6 * log) {
+            m_limit -= (int) log;
+        }
+        m_limit = Math.max(m_minLimit, Math.min(m_maxLimit, m_limit));
+        m_peakLimit = Math.max(m_peakLimit, m_limit);
+        if (m_limit != oldLimit && LOG.isDebugEnabled()) {
+            LOG.debug("Concurrency limit " + oldLimit + " -> " + m_limit
+                    + " (average " + (long) (average / 1000) + "us, "
+                    + "baseline " + (long) (m_baselineNanos / 1000)
+                    + "us, about " + (int) queued + " queued"
+                    + (m_overloaded ? ", after overload" : "") + ")");
+        }
+        m_samples = 0;
+        m_latencyNanos = 0;
+        m_overloaded = false;
+    }
+
+}
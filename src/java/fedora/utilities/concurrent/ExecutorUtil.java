@@ -0,0 +1,125 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Utility methods for creating executors.
+ *
+ * @author Chris Wilper
+ */
+public abstract class ExecutorUtil {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ExecutorUtil.class);
+
+    /**
+     * Thread.ofVirtual(), Thread.Builder.name(String, long),
+     * Thread.Builder.factory() and
+     * Executors.newThreadPerTaskExecutor(ThreadFactory), or null before
+     * Java 21.
+     */
+    private static final Method[] VIRTUAL_EXECUTOR = getVirtualExecutor();
+
+    /**
+     * Tells whether virtual threads are available; they are from Java 21.
+     *
+     * @return whether they are available.
+     */
+    public static boolean hasVirtualThreads() {
+        return VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread.
+     * Blocking I/O on such a thread releases its carrier, so any number of
+     * tasks can wait on the disk or database at once.
+     *
+     * @param name the prefix of the names of the threads.
+     * @return the executor, or null if virtual threads aren't available.
+     * @throws FaultException if the executor can't be created.
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name)
+            throws FaultException {
+        if (VIRTUAL_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            Object builder = VIRTUAL_EXECUTOR[0].invoke(null);
+            builder = VIRTUAL_EXECUTOR[1].invoke(builder, name + "-", 1L);
+            ThreadFactory factory =
+                    (ThreadFactory) VIRTUAL_EXECUTOR[2].invoke(builder);
+            return (ExecutorService) VIRTUAL_EXECUTOR[3].invoke(null,
+                                                                 factory);
+        } catch (IllegalAccessException e) {
+            throw new FaultException("Unable to create virtual threads", e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                // a preview release, without preview features enabled
+                LOG.debug("Virtual threads aren't enabled", e.getCause());
+                return null;
+            }
+            throw new FaultException("Unable to create virtual threads",
+                                     e.getCause());
+        }
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads, so a run that fails doesn't
+     * wait on them to exit.
+     *
+     * @param name the prefix of the names of the threads.
+     * @param threads the number of threads.
+     * @return the executor.
+     */
+    public static ExecutorService newDaemonThreadPool(final String name,
+                                                      int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-"
+                        + m_count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    // looks up the methods needed to create virtual threads, if any
+    private static Method[] getVirtualExecutor() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name",
+                                                 String.class,
+                                                 long.class);
+            Method factory = builderClass.getMethod("factory");
+            Method newExecutor = Executors.class.getMethod(
+                    "newThreadPerTaskExecutor", ThreadFactory.class);
+            return new Method[] {ofVirtual, name, factory, newExecutor};
+        } catch (ClassNotFoundException e) {
+            LOG.debug("Virtual threads aren't available before Java 21");
+        } catch (NoSuchMethodException e) {
+            LOG.debug("Virtual threads aren't available before Java 21");
+        }
+        return null;
+    }
+
+}
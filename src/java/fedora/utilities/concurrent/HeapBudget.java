@@ -0,0 +1,124 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.concurrent;
+
+import java.util.LinkedList;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Admits units of work only while their estimated heap cost fits within a
+ * budget, so that running many at once can't exhaust the heap.
+ *
+ * <p>Units are admitted in the order they ask, so a costly one waiting for
+ * room isn't passed over indefinitely by cheaper ones.  A unit costing
+ * more than the whole budget is admitted once nothing else is; it then
+ * runs alone.  Threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class HeapBudget {
+
+    /** The most bytes to have admitted at once. */
+    private final long m_budget;
+
+    /** Those waiting to be admitted, in order. */
+    private final LinkedList<Object> m_waiting;
+
+    /** The bytes now admitted. */
+    private long m_used;
+
+    /** The most bytes admitted at once. */
+    private long m_peak;
+
+    /**
+     * Creates an instance.
+     *
+     * @param budget the most bytes to have admitted at once.
+     */
+    public HeapBudget(long budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        m_budget = budget;
+        m_waiting = new LinkedList<Object>();
+    }
+
+    /**
+     * Waits until the given cost fits within the budget, and counts it
+     * against the budget.
+     *
+     * @param cost the estimated cost, in bytes.
+     * @throws FaultException if interrupted while waiting.
+     */
+    public synchronized void acquire(long cost)
+            throws FaultException {
+        Object ticket = new Object();
+        m_waiting.add(ticket);
+        try {
+            while (m_waiting.getFirst() != ticket || !fits(cost)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            m_waiting.remove(ticket);
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new FaultException("Interrupted while waiting for heap "
+                    + "budget", e);
+        }
+        m_waiting.removeFirst();
+        m_used += cost;
+        m_peak = Math.max(m_peak, m_used);
+        notifyAll();
+    }
+
+    /**
+     * Gives back a cost counted against the budget.
+     *
+     * @param cost the cost given to {@link #acquire(long)}.
+     */
+    public synchronized void release(long cost) {
+        m_used -= cost;
+        notifyAll();
+    }
+
+    /**
+     * Gets the budget.
+     *
+     * @return the most bytes to have admitted at once.
+     */
+    public long getBudget() {
+        return m_budget;
+    }
+
+    /**
+     * Gets the bytes now admitted.
+     *
+     * @return the bytes.
+     */
+    public synchronized long getUsed() {
+        return m_used;
+    }
+
+    /**
+     * Gets the most bytes admitted at once.
+     *
+     * @return the bytes.
+     */
+    public synchronized long getPeak() {
+        return m_peak;
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // tells whether the given cost can be admitted now; call with the
+    // lock held
+    private boolean fits(long cost) {
+        return m_used == 0 || m_used + cost <= m_budget;
+    }
+
+}
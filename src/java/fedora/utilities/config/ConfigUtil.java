@@ -48,6 +48,24 @@ public abstract class ConfigUtil {
         return value;
     }
 
+    /**
+     * Gets an optional string from properties.  The value will be trimmed.
+     *
+     * @param props properties in which to find the value.
+     * @param name property name.
+     * @param defaultValue the value to return if the property isn't found
+     *        or is empty.
+     * @return the value.
+     */
+    public static String getOptionalString(Properties props, String name,
+            String defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
     /**
      * Gets an optional integer from properties.
      *
@@ -70,6 +88,28 @@ public abstract class ConfigUtil {
         }
     }
 
+    /**
+     * Gets an optional long integer from properties.
+     *
+     * @param props properties in which to find the value.
+     * @param name property name.
+     * @param defaultValue the value to return if the property isn't found.
+     * @return the value.
+     * @throws IllegalArgumentException if the value is not a valid integer.
+     */
+    public static long getOptionalLong(Properties props, String name,
+            long defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + value);
+        }
+    }
+
     /**
      * Gets an optional file from properties.
      *
@@ -0,0 +1,622 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.corpus;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.net.URLEncoder;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.sql.Connection;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import org.fcrepo.server.config.ServerConfiguration;
+import org.fcrepo.server.storage.translation.DOSerializer;
+import org.fcrepo.server.storage.translation.DOTranslationUtility;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+
+import fedora.utilities.Log4J;
+import fedora.utilities.config.ConfigUtil;
+import fedora.utilities.digitalobject.RepoUtil;
+import fedora.utilities.file.FileUtil;
+
+/**
+ * Utility to generate a synthetic Fedora 2.x repository of FOXML 1.0
+ * objects, for load testing the migration utilities.
+ *
+ * <p>Objects are written to the object store with the same serializer
+ * plumbing the utilities read them with, and the <code>objectPaths</code>
+ * (and, for managed content, <code>datastreamPaths</code>) rows pointing to
+ * them are inserted into the database.  Every choice is made with a
+ * <code>Random</code> seeded from the configured seed and the object
+ * number, so a corpus can be regenerated exactly, or extended in separate
+ * runs, without keeping anything in memory between objects.</p>
+ *
+ * @author Chris Wilper
+ */
+public class CorpusGenerator {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(CorpusGenerator.class);
+
+    /**
+     * The serializer that will be used if none is specified;
+     * <code>org.fcrepo.server.storage.translation.FOXML1_0DOSerializer</code>
+     */
+    public static final String DEFAULT_SERIALIZER =
+            "org.fcrepo.server.storage.translation.FOXML1_0DOSerializer";
+
+    /** The datastream mix that will be used if none is specified. */
+    public static final String DEFAULT_DATASTREAMS =
+            "THUMB:M:image/jpeg MEDIUM:M:image/jpeg HIGH:E:image/tiff:0.5 "
+            + "MODS:X:text/xml:0.8 TEXT:M:text/plain:0.3";
+
+    /** The inline size distribution used if none is specified. */
+    public static final String DEFAULT_INLINE_SIZES =
+            "2048:80 16384:18 262144:2";
+
+    /** The managed size distribution used if none is specified. */
+    public static final String DEFAULT_MANAGED_SIZES =
+            "16384:60 262144:35 4194304:5";
+
+    /** Creation date of the first object; 2005-01-01. */
+    private static final long EPOCH = 1104537600000L;
+
+    /** Number of objects between progress messages. */
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    /** Number of collections data objects are members of. */
+    private static final int COLLECTION_COUNT = 100;
+
+    /** Size of the buffer managed content is written from. */
+    private static final int CONTENT_BUFFER_SIZE = 64 * 1024;
+
+    /** The namespace of all generated pids. */
+    private final String m_pidNamespace;
+
+    /** The number of data objects to generate. */
+    private final int m_objectCount;
+
+    /** The number of the first data object. */
+    private final int m_startNumber;
+
+    /** The seed all random choices derive from. */
+    private final long m_seed;
+
+    /** The base directory objects are written to. */
+    private final File m_objectStoreBase;
+
+    /** The base directory managed content is written to, or null. */
+    private final File m_datastreamStoreBase;
+
+    /** The URL, username, and password info for the database. */
+    private final Map<String, String> m_dbInfo;
+
+    /** Whether to delete existing path rows first. */
+    private final boolean m_clearPaths;
+
+    /** Whether files are laid out by hash rather than by timestamp. */
+    private final boolean m_hashLayout;
+
+    /** Number of hash directory levels, each of two hex digits. */
+    private final int m_hashDepth;
+
+    /** The content datastreams objects may have. */
+    private final List<DatastreamSpec> m_datastreams;
+
+    /** The maximum number of versions of each datastream. */
+    private final int m_versions;
+
+    /** Sizes of inline XML datastream versions. */
+    private final SizeDistribution m_inlineSizes;
+
+    /** Sizes of managed content datastream versions. */
+    private final SizeDistribution m_managedSizes;
+
+    /** The number of BDef/BMech pairs. */
+    private final int m_bMechCount;
+
+    /** The maximum number of binding keys of each BMech. */
+    private final int m_bindingKeys;
+
+    /** The maximum number of disseminators on each data object. */
+    private final int m_disseminators;
+
+    /** The serializer to use. */
+    private final DOSerializer m_serializer;
+
+    /** Formats timestamp layout directories. */
+    private final SimpleDateFormat m_timestampFormat;
+
+    /** Filler written as managed content. */
+    private final byte[] m_content;
+
+    /**
+     * Creates an instance from properties.
+     *
+     * <pre>
+     *   objectCount      (required) - the number of data objects to generate.
+     *   pidNamespace     (optional) - the pid namespace; default is synth.
+     *   startNumber      (optional) - the number of the first data object;
+     *                                 default is 1.  BDefs and BMechs are
+     *                                 only generated when this is 1.
+     *   seed             (optional) - the seed for all random choices,
+     *                                 any long; default is 0.
+     *   fedoraHome       (optional) - the Fedora home directory to take the
+     *                                 store directories and database from.
+     *   objectStoreBase  (optional) - the directory to write objects to;
+     *                                 required if fedoraHome isn't given.
+     *   datastreamStoreBase (optional) - the directory to write managed
+     *                                 content to; if neither this nor
+     *                                 fedoraHome is given, managed content
+     *                                 is described but not written.
+     *   jdbcURL          (optional) - the database to insert paths into;
+     *                                 required if fedoraHome isn't given.
+     *   jdbcDriverClass  (optional) - the driver for jdbcURL.
+     *   jdbcJar          (optional) - a jar containing the driver, if it's
+     *                                 not already in the classpath.
+     *   dbUsername       (optional) - the database username.
+     *   dbPassword       (optional) - the database password.
+     *   clearPaths       (optional) - whether to delete existing path rows
+     *                                 first; default is false.
+     *   pathAlgorithm    (optional) - hash or timestamp; default is hash.
+     *   hashDepth        (optional) - directory levels for hash; default 2.
+     *   datastreams      (optional) - space-delimited content datastreams,
+     *                                 each ID:CONTROLGROUP:MIMETYPE[:PROB];
+     *                                 default is DEFAULT_DATASTREAMS.
+     *   versions         (optional) - maximum versions per datastream;
+     *                                 default is 1.
+     *   inlineSizes      (optional) - space-delimited SIZE:WEIGHT buckets
+     *                                 for inline XML content;
+     *                                 default is DEFAULT_INLINE_SIZES.
+     *   managedSizes     (optional) - the same, for managed content;
+     *                                 default is DEFAULT_MANAGED_SIZES.
+     *   bMechCount       (optional) - number of BDef/BMech pairs; default 4.
+     *   bindingKeys      (optional) - maximum binding keys per BMech;
+     *                                 default is 3.
+     *   disseminators    (optional) - maximum disseminators per object;
+     *                                 default is 2.
+     *   serializer       (optional) - the serializer to use;
+     *                                 default is DEFAULT_SERIALIZER.
+     * </pre>
+     *
+     * @param props the properties.
+     * @throws IllegalArgumentException if a required parameter is
+     *         unspecified or a value is malformed.
+     */
+    public CorpusGenerator(Properties props) {
+        m_objectCount = getRequiredInt(props, "objectCount");
+        m_pidNamespace = props.getProperty("pidNamespace", "synth").trim();
+        m_startNumber = ConfigUtil.getOptionalInt(props, "startNumber", 1);
+        m_seed = ConfigUtil.getOptionalLong(props, "seed", 0);
+        m_datastreams = DatastreamSpec.parse(
+                props.getProperty("datastreams", DEFAULT_DATASTREAMS));
+        m_versions = ConfigUtil.getOptionalInt(props, "versions", 1);
+        m_inlineSizes = new SizeDistribution(
+                props.getProperty("inlineSizes", DEFAULT_INLINE_SIZES));
+        m_managedSizes = new SizeDistribution(
+                props.getProperty("managedSizes", DEFAULT_MANAGED_SIZES));
+        m_bMechCount = ConfigUtil.getOptionalInt(props, "bMechCount", 4);
+        m_bindingKeys = ConfigUtil.getOptionalInt(props, "bindingKeys", 3);
+        m_disseminators =
+                ConfigUtil.getOptionalInt(props, "disseminators", 2);
+        m_clearPaths =
+                ConfigUtil.getOptionalBoolean(props, "clearPaths", false);
+        String pathAlgorithm =
+                props.getProperty("pathAlgorithm", "hash").trim();
+        if (!pathAlgorithm.equals("hash")
+                && !pathAlgorithm.equals("timestamp")) {
+            throw new IllegalArgumentException("pathAlgorithm must be hash "
+                    + "or timestamp");
+        }
+        m_hashLayout = pathAlgorithm.equals("hash");
+        m_hashDepth = ConfigUtil.getOptionalInt(props, "hashDepth", 2);
+        if (m_objectCount < 0 || m_startNumber < 1 || m_versions < 1
+                || m_bMechCount < 0 || m_bindingKeys < 1
+                || m_disseminators < 0 || m_hashDepth < 0
+                || m_hashDepth > 16) {
+            throw new IllegalArgumentException("objectCount, bMechCount, "
+                    + "disseminators and hashDepth (at most 16) must not be "
+                    + "negative; startNumber, versions and bindingKeys must "
+                    + "be positive");
+        }
+        m_serializer = (DOSerializer) ConfigUtil.construct(props,
+                "serializer", DEFAULT_SERIALIZER);
+
+        String fedoraHome = props.getProperty("fedoraHome");
+        ServerConfiguration serverConfig = null;
+        File home = null;
+        if (fedoraHome != null && fedoraHome.trim().length() > 0) {
+            home = new File(fedoraHome.trim());
+            serverConfig = RepoUtil.getServerConfig(home);
+        }
+        File objectStoreBase =
+                ConfigUtil.getOptionalFile(props, "objectStoreBase", null);
+        if (objectStoreBase == null) {
+            if (serverConfig == null) {
+                throw new IllegalArgumentException("objectStoreBase must be "
+                        + "given if fedoraHome isn't");
+            }
+            objectStoreBase = RepoUtil.getObjectStoreBase(serverConfig, home);
+        }
+        m_objectStoreBase = objectStoreBase;
+        File datastreamStoreBase = ConfigUtil.getOptionalFile(props,
+                "datastreamStoreBase", null);
+        if (datastreamStoreBase == null && serverConfig != null
+                && hasManagedContent()) {
+            datastreamStoreBase =
+                    RepoUtil.getDatastreamStoreBase(serverConfig, home);
+        }
+        m_datastreamStoreBase = datastreamStoreBase;
+        if (m_datastreamStoreBase == null && hasManagedContent()) {
+            LOG.warn("No datastreamStoreBase; managed content will not be "
+                    + "written");
+        }
+        File jdbcJar = ConfigUtil.getOptionalFile(props, "jdbcJar", null);
+        String jdbcURL = props.getProperty("jdbcURL");
+        if (jdbcURL != null && jdbcURL.trim().length() > 0) {
+            RepoUtil.initJDBC(ConfigUtil.getRequiredString(props,
+                    "jdbcDriverClass"), jdbcJar);
+            m_dbInfo = new HashMap<String, String>();
+            m_dbInfo.put("jdbcURL", jdbcURL.trim());
+            m_dbInfo.put("dbUsername", props.getProperty("dbUsername", ""));
+            m_dbInfo.put("dbPassword", props.getProperty("dbPassword", ""));
+        } else if (serverConfig != null) {
+            m_dbInfo = RepoUtil.getDBInfo(serverConfig, jdbcJar);
+        } else {
+            throw new IllegalArgumentException("jdbcURL must be given if "
+                    + "fedoraHome isn't");
+        }
+
+        m_timestampFormat = new SimpleDateFormat("yyyy/MMdd/HH/mm");
+        m_timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        m_content = new byte[CONTENT_BUFFER_SIZE];
+        new Random(m_seed).nextBytes(m_content);
+    }
+
+    /**
+     * Generates the corpus.
+     *
+     * @throws FaultException if an object, content file, or path row can't
+     *         be written.
+     */
+    public void generate() throws FaultException {
+        LOG.info("Generating " + m_objectCount + " objects in "
+                + m_objectStoreBase.getPath());
+        Connection conn = RepoUtil.getConnection(m_dbInfo);
+        PathTable objectPaths = null;
+        PathTable datastreamPaths = null;
+        try {
+            objectPaths = new PathTable(conn, "objectPaths", m_clearPaths);
+            if (m_datastreamStoreBase != null) {
+                datastreamPaths = new PathTable(conn, "datastreamPaths",
+                                                m_clearPaths);
+            }
+            if (m_startNumber == 1) {
+                generateServiceObjects(objectPaths);
+            }
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < m_objectCount; i++) {
+                generateObject(m_startNumber + i, objectPaths,
+                               datastreamPaths);
+                if ((i + 1) % PROGRESS_INTERVAL == 0) {
+                    long ms = System.currentTimeMillis() - startTime;
+                    LOG.info("Generated " + (i + 1) + " objects ("
+                            + ((i + 1) * 1000L / Math.max(ms, 1))
+                            + "/sec)");
+                }
+            }
+            objectPaths.close();
+            objectPaths = null;
+            if (datastreamPaths != null) {
+                datastreamPaths.close();
+                datastreamPaths = null;
+            }
+            LOG.info("Finished generating " + m_objectCount + " objects.");
+        } finally {
+            if (objectPaths != null) {
+                objectPaths.close();
+            }
+            if (datastreamPaths != null) {
+                datastreamPaths.close();
+            }
+            RepoUtil.close(conn);
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private boolean hasManagedContent() {
+        for (DatastreamSpec spec : m_datastreams) {
+            if (spec.controlGroup.equals("M")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void generateServiceObjects(PathTable objectPaths) {
+        Date created = new Date(EPOCH);
+        for (int n = 1; n <= m_bMechCount; n++) {
+            String bDefPID = getBDefPID(n);
+            writeObject(CorpusObjects.newBDef(bDefPID, created), objectPaths);
+            writeObject(CorpusObjects.newBMech(getBMechPID(n), bDefPID,
+                                               getKeyCount(n), created),
+                        objectPaths);
+        }
+        LOG.info("Generated " + m_bMechCount + " BDef/BMech pairs");
+    }
+
+    private void generateObject(int number,
+                                PathTable objectPaths,
+                                PathTable datastreamPaths) {
+        Random random = new Random(m_seed ^ (number * 0x9E3779B97F4A7C15L));
+        String pid = m_pidNamespace + ":" + number;
+        Date created = new Date(EPOCH + number * 1000L);
+        DigitalObject obj = CorpusObjects.newObject(pid,
+                "Synthetic object " + number, created,
+                new Date(created.getTime() + m_versions), null);
+
+        List<String> dsIDs = new ArrayList<String>();
+        dsIDs.add("DC");
+        CorpusObjects.addInlineDatastream(obj, "DC", "text/xml", 0, created,
+                CorpusObjects.getDC(pid, obj.getLabel(),
+                                    m_inlineSizes.next(random)));
+        CorpusObjects.addInlineDatastream(obj, "RELS-EXT",
+                "application/rdf+xml", 0, created,
+                CorpusObjects.getRelsExt(pid, "rel:isMemberOf",
+                        "info:fedora/" + m_pidNamespace + ":Collection"
+                        + random.nextInt(COLLECTION_COUNT)));
+        for (DatastreamSpec spec : m_datastreams) {
+            if (random.nextDouble() >= spec.probability) {
+                continue;
+            }
+            dsIDs.add(spec.id);
+            int versionCount = 1 + random.nextInt(m_versions);
+            for (int v = 0; v < versionCount; v++) {
+                Date versionCreated = new Date(created.getTime() + v);
+                if (spec.controlGroup.equals("X")) {
+                    CorpusObjects.addInlineDatastream(obj, spec.id,
+                            spec.mimeType, v, versionCreated,
+                            CorpusObjects.getXML(pid, spec.id,
+                                                 m_inlineSizes.next(random)));
+                } else if (spec.controlGroup.equals("M")) {
+                    Datastream ds = CorpusObjects.addManagedDatastream(obj,
+                            spec.id, spec.mimeType, v, versionCreated,
+                            m_managedSizes.next(random));
+                    if (datastreamPaths != null) {
+                        writeContent(ds, datastreamPaths);
+                    }
+                } else {
+                    CorpusObjects.addReferencedDatastream(obj, spec.id,
+                            spec.controlGroup, spec.mimeType, v,
+                            versionCreated);
+                }
+            }
+        }
+
+        if (m_bMechCount > 0) {
+            int dissCount = random.nextInt(m_disseminators + 1);
+            for (int d = 1; d <= dissCount; d++) {
+                int n = 1 + random.nextInt(m_bMechCount);
+                String[] bound = new String[getKeyCount(n)];
+                for (int k = 0; k < bound.length; k++) {
+                    bound[k] = dsIDs.get(random.nextInt(dsIDs.size()));
+                }
+                CorpusObjects.addDisseminator(obj, "DISS" + d,
+                        getBDefPID(n), getBMechPID(n), bound, created);
+            }
+        }
+        writeObject(obj, objectPaths);
+    }
+
+    private void writeObject(DigitalObject obj, PathTable objectPaths) {
+        String pid = obj.getPid();
+        File file;
+        if (m_hashLayout) {
+            file = getHashFile(m_objectStoreBase, "info:fedora/" + pid);
+        } else {
+            file = getTimestampFile(m_objectStoreBase,
+                                    obj.getCreateDate(), pid);
+        }
+        RepoUtil.writeObject(m_serializer, obj, file,
+                DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
+        objectPaths.add(pid, file.getPath());
+    }
+
+    private void writeContent(Datastream ds, PathTable datastreamPaths) {
+        File file;
+        if (m_hashLayout) {
+            file = getHashFile(m_datastreamStoreBase, ds.DSLocation);
+        } else {
+            file = getTimestampFile(m_datastreamStoreBase, ds.DSCreateDT,
+                                    ds.DSLocation);
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            long remaining = ds.DSSize;
+            while (remaining > 0) {
+                int len = (int) Math.min(remaining, m_content.length);
+                out.write(m_content, 0, len);
+                remaining -= len;
+            }
+        } catch (IOException e) {
+            throw new FaultException("Error writing " + file.getPath(), e);
+        } finally {
+            FileUtil.close(out);
+        }
+        datastreamPaths.add(ds.DSLocation, file.getPath());
+    }
+
+    // gets a file in hash bucket directories named by pairs of hex digits
+    // from the md5 of the id, named with the url-encoded id
+    private File getHashFile(File base, String id) {
+        String hex = md5Hex(id);
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < m_hashDepth; i++) {
+            path.append(hex, i * 2, i * 2 + 2);
+            path.append('/');
+        }
+        File dir = new File(base, path.toString());
+        return new File(ensureDir(dir), encode(id));
+    }
+
+    // gets a file in yyyy/MMdd/HH/mm directories, as the Fedora 2.x
+    // timestamp path algorithm lays them out
+    private File getTimestampFile(File base, Date date, String id) {
+        File dir = new File(base, m_timestampFormat.format(date));
+        return new File(ensureDir(dir), id.replace(':', '_'));
+    }
+
+    private String getBDefPID(int n) {
+        return m_pidNamespace + ":BDef" + n;
+    }
+
+    private String getBMechPID(int n) {
+        return m_pidNamespace + ":BMech" + n;
+    }
+
+    // BMechs cycle through 1 to m_bindingKeys binding keys
+    private int getKeyCount(int n) {
+        return (n - 1) % m_bindingKeys + 1;
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static File ensureDir(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new FaultException("Unable to create directory: "
+                    + dir.getPath());
+        }
+        return dir;
+    }
+
+    private static String md5Hex(String id) {
+        try {
+            byte[] hash = MessageDigest.getInstance("MD5").digest(
+                    id.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new FaultException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new FaultException(e);
+        }
+    }
+
+    private static String encode(String id) {
+        try {
+            return URLEncoder.encode(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new FaultException(e);
+        }
+    }
+
+    private static int getRequiredInt(Properties props, String name) {
+        String value = ConfigUtil.getRequiredString(props, name);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an integer: " + value);
+        }
+    }
+
+    //---
+    // Command-line
+    //---
+
+    /**
+     * Command-line entry point for the corpus generator.
+     *
+     * @param args
+     *        command-line arguments.
+     */
+    public static void main(String[] args) {
+        Log4J.force();
+        // HACK: make DOTranslatorUtility happy
+        System.setProperty("fedoraServerHost", "localhost");
+        System.setProperty("fedoraServerPort", "80");
+        Properties props = null;
+        if (args.length == 0) {
+            System.out.println(Messages.CORPUSGENERATOR_USAGE);
+            System.exit(0);
+        } else if (args[0].equals("--help")) {
+            System.out.println(Messages.CORPUSGENERATOR_HELP);
+            System.exit(0);
+        } else if (args[0].equals("--")) {
+            props = System.getProperties();
+        } else {
+            props = getPropertiesFromFile(new File(args[0]));
+        }
+        try {
+            new CorpusGenerator(props).generate();
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+            exitFatally();
+            // CHECKSTYLE:OFF
+        } catch (Throwable th) {
+            // CHECKSTYLE:ON
+            LOG.error("Corpus generation failed due to an unexpected error",
+                      th);
+            exitFatally();
+        }
+    }
+
+    private static Properties getPropertiesFromFile(File configFile) {
+        Properties props = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(configFile);
+            props.load(in);
+        } catch (FileNotFoundException e) {
+            LOG.error("Configuration file not found: " + configFile.getPath());
+            exitFatally();
+        } catch (IOException e) {
+            LOG.error("Error reading configuration file: "
+                    + configFile.getPath());
+            exitFatally();
+        } finally {
+            FileUtil.close(in);
+        }
+        return props;
+    }
+
+    private static void exitFatally() {
+        System.exit(1);
+    }
+
+}
@@ -0,0 +1,473 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.corpus;
+
+import java.io.UnsupportedEncodingException;
+
+import java.util.Date;
+
+import org.jrdf.graph.ObjectNode;
+
+import org.fcrepo.common.FaultException;
+
+import org.fcrepo.server.storage.types.BasicDigitalObject;
+import org.fcrepo.server.storage.types.DSBinding;
+import org.fcrepo.server.storage.types.DSBindingMap;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamManagedContent;
+import org.fcrepo.server.storage.types.DatastreamReferencedContent;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.Disseminator;
+
+/**
+ * Builds the parts of Fedora 2.x style digital objects for the corpus.
+ *
+ * <p>BMech number <i>n</i> implements BDef number <i>n</i> and has
+ * binding keys (wsdl message parts) named <code>KEY0</code>,
+ * <code>KEY1</code>, etc.  Disseminators built here bind datastreams to
+ * those keys, so the analyzer and generator see consistent bindings.</p>
+ *
+ * @author Chris Wilper
+ */
+@SuppressWarnings("deprecation")
+abstract class CorpusObjects {
+
+    /** Number of methods each BDef defines. */
+    static final int METHOD_COUNT = 2;
+
+    /** Content model URI of BDef objects. */
+    private static final String BDEF_MODEL =
+            "info:fedora/fedora-system:ServiceDefinition-3.0";
+
+    /** Content model URI of BMech objects. */
+    private static final String BMECH_MODEL =
+            "info:fedora/fedora-system:ServiceDeployment-3.0";
+
+    /** Content model URI every object has implicitly. */
+    private static final String BASIC_MODEL =
+            "info:fedora/fedora-system:FedoraObject-3.0";
+
+    /** Line of filler text repeated to pad inline XML. */
+    private static final String FILLER =
+            "Lorem ipsum dolor sit amet consectetur adipiscing elit";
+
+    /**
+     * Builds an object with the given properties and no datastreams.
+     *
+     * @param pid the pid.
+     * @param label the label.
+     * @param created the creation date.
+     * @param modified the last modified date.
+     * @param contentModel the URI of the content model the RELS-EXT of
+     *        the object will declare, or null if none.
+     * @return the object.
+     */
+    static DigitalObject newObject(String pid,
+                                   String label,
+                                   Date created,
+                                   Date modified,
+                                   String contentModel) {
+        DigitalObject obj = new CorpusObject(contentModel);
+        obj.setPid(pid);
+        obj.setLabel(label);
+        obj.setState("A");
+        obj.setOwnerId("fedoraAdmin");
+        obj.setCreateDate(created);
+        obj.setLastModDate(modified);
+        return obj;
+    }
+
+    /**
+     * Builds a BDef.
+     *
+     * @param pid the pid of the BDef.
+     * @param created the creation date.
+     * @return the object.
+     */
+    static DigitalObject newBDef(String pid, Date created) {
+        DigitalObject obj = newObject(pid, "Synthetic BDef " + pid,
+                                      created, created, BDEF_MODEL);
+        addInlineDatastream(obj, "DC", "text/xml", 0, created,
+                            getDC(pid, obj.getLabel(), 0));
+        addInlineDatastream(obj, "RELS-EXT", "application/rdf+xml", 0,
+                            created,
+                            getRelsExt(pid, "fedora-model:hasModel",
+                                       BDEF_MODEL));
+        addInlineDatastream(obj, "METHODMAP", "text/xml", 0, created,
+                            getBDefMethodMap());
+        return obj;
+    }
+
+    /**
+     * Builds a BMech with DSINPUTSPEC, METHODMAP and WSDL datastreams
+     * for the given number of binding keys.
+     *
+     * @param pid the pid of the BMech.
+     * @param bDefPID the pid of the BDef it implements.
+     * @param keyCount the number of binding keys.
+     * @param created the creation date.
+     * @return the object.
+     */
+    static DigitalObject newBMech(String pid,
+                                  String bDefPID,
+                                  int keyCount,
+                                  Date created) {
+        DigitalObject obj = newObject(pid, "Synthetic BMech " + pid,
+                                      created, created, BMECH_MODEL);
+        addInlineDatastream(obj, "DC", "text/xml", 0, created,
+                            getDC(pid, obj.getLabel(), 0));
+        addInlineDatastream(obj, "RELS-EXT", "application/rdf+xml", 0,
+                            created,
+                            getRelsExt(pid, "fedora-model:hasModel",
+                                       BMECH_MODEL));
+        addInlineDatastream(obj, "DSINPUTSPEC", "text/xml", 0, created,
+                            getDSInputSpec(bDefPID, keyCount));
+        addInlineDatastream(obj, "METHODMAP", "text/xml", 0, created,
+                            getBMechMethodMap(bDefPID, keyCount));
+        addInlineDatastream(obj, "WSDL", "text/xml", 0, created,
+                            getWSDL(keyCount));
+        return obj;
+    }
+
+    /**
+     * Adds a version of an inline XML datastream.
+     *
+     * @param obj the object.
+     * @param dsID the datastream id.
+     * @param mimeType the MIME type.
+     * @param version the version number, starting at 0.
+     * @param created the creation date of the version.
+     * @param xml the content.
+     */
+    static void addInlineDatastream(DigitalObject obj,
+                                    String dsID,
+                                    String mimeType,
+                                    int version,
+                                    Date created,
+                                    String xml) {
+        DatastreamXMLMetadata ds = new DatastreamXMLMetadata("UTF-8");
+        setCommon(ds, dsID, "X", mimeType, version, created);
+        ds.xmlContent = getBytes(xml);
+        ds.DSSize = ds.xmlContent.length;
+        obj.addDatastreamVersion(ds, true);
+    }
+
+    /**
+     * Adds a version of a managed content datastream.
+     *
+     * <p>The location is the internal id the Fedora 2.x low-level storage
+     * uses as the datastreamPaths token: <code>pid+dsID+versionID</code>.</p>
+     *
+     * @param obj the object.
+     * @param dsID the datastream id.
+     * @param mimeType the MIME type.
+     * @param version the version number, starting at 0.
+     * @param created the creation date of the version.
+     * @param size the size of the content, in bytes.
+     * @return the datastream version.
+     */
+    static Datastream addManagedDatastream(DigitalObject obj,
+                                           String dsID,
+                                           String mimeType,
+                                           int version,
+                                           Date created,
+                                           int size) {
+        Datastream ds = new DatastreamManagedContent();
+        setCommon(ds, dsID, "M", mimeType, version, created);
+        ds.DSLocation = obj.getPid() + "+" + dsID + "+" + ds.DSVersionID;
+        ds.DSLocationType = "INTERNAL_ID";
+        ds.DSSize = size;
+        obj.addDatastreamVersion(ds, true);
+        return ds;
+    }
+
+    /**
+     * Adds a version of an externally referenced or redirected datastream.
+     *
+     * @param obj the object.
+     * @param dsID the datastream id.
+     * @param controlGroup E or R.
+     * @param mimeType the MIME type.
+     * @param version the version number, starting at 0.
+     * @param created the creation date of the version.
+     */
+    static void addReferencedDatastream(DigitalObject obj,
+                                        String dsID,
+                                        String controlGroup,
+                                        String mimeType,
+                                        int version,
+                                        Date created) {
+        Datastream ds = new DatastreamReferencedContent();
+        setCommon(ds, dsID, controlGroup, mimeType, version, created);
+        ds.DSLocation = "http://example.org/content/"
+                + obj.getPid().replace(':', '/') + "/" + ds.DSVersionID;
+        ds.DSLocationType = "URL";
+        obj.addDatastreamVersion(ds, true);
+    }
+
+    /**
+     * Adds a disseminator that binds the given datastreams to the binding
+     * keys of a BMech, in order.
+     *
+     * @param obj the object.
+     * @param dissID the disseminator id.
+     * @param bDefPID the pid of the BDef.
+     * @param bMechPID the pid of the BMech.
+     * @param dsIDs the datastream to bind to each key.
+     * @param created the creation date.
+     */
+    static void addDisseminator(DigitalObject obj,
+                                String dissID,
+                                String bDefPID,
+                                String bMechPID,
+                                String[] dsIDs,
+                                Date created) {
+        Disseminator diss = new Disseminator();
+        diss.parentPID = obj.getPid();
+        diss.dissID = dissID;
+        diss.dissVersionID = dissID + ".0";
+        diss.dissLabel = "Disseminator " + dissID;
+        diss.bDefID = bDefPID;
+        diss.sDepID = bMechPID;
+        diss.dissCreateDT = created;
+        diss.dissState = "A";
+        diss.dissVersionable = true;
+        DSBindingMap map = new DSBindingMap();
+        map.dsBindMapID = diss.dissVersionID + "MAP";
+        map.dsBindMechanismPID = bMechPID;
+        map.state = "A";
+        map.dsBindings = new DSBinding[dsIDs.length];
+        for (int k = 0; k < dsIDs.length; k++) {
+            DSBinding binding = new DSBinding();
+            binding.bindKeyName = "KEY" + k;
+            binding.bindLabel = "Binding for KEY" + k;
+            binding.datastreamID = dsIDs[k];
+            binding.seqNo = "0";
+            map.dsBindings[k] = binding;
+        }
+        diss.dsBindMapID = map.dsBindMapID;
+        diss.dsBindMap = map;
+        obj.disseminators(dissID).add(diss);
+    }
+
+    //---
+    // Content
+    //---
+
+    /**
+     * Gets oai_dc content with the given title, padded with descriptions
+     * to at least the given size.
+     *
+     * @param pid the pid of the object.
+     * @param title the title.
+     * @param size the minimum size, in characters.
+     * @return the content.
+     */
+    static String getDC(String pid, String title, int size) {
+        StringBuilder out = new StringBuilder(size + 256);
+        out.append("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/"
+                + "OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/"
+                + "elements/1.1/\">\n");
+        out.append("  <dc:title>" + title + "</dc:title>\n");
+        out.append("  <dc:identifier>" + pid + "</dc:identifier>\n");
+        while (out.length() < size) {
+            out.append("  <dc:description>" + FILLER
+                    + "</dc:description>\n");
+        }
+        out.append("</oai_dc:dc>");
+        return out.toString();
+    }
+
+    /**
+     * Gets RELS-EXT content with one relationship.
+     *
+     * @param pid the pid of the object.
+     * @param predicate the qualified name of the predicate, using the
+     *        <code>rel</code> or <code>fedora-model</code> prefix.
+     * @param object the URI of the object of the relationship.
+     * @return the content.
+     */
+    static String getRelsExt(String pid, String predicate, String object) {
+        return "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/"
+                + "22-rdf-syntax-ns#\" xmlns:rel=\"info:fedora/"
+                + "fedora-system:def/relations-external#\""
+                + " xmlns:fedora-model=\"info:fedora/"
+                + "fedora-system:def/model#\">\n"
+                + "  <rdf:Description rdf:about=\"info:fedora/" + pid
+                + "\">\n"
+                + "    <" + predicate + " rdf:resource=\"" + object
+                + "\"/>\n"
+                + "  </rdf:Description>\n</rdf:RDF>";
+    }
+
+    /**
+     * Gets generic XML content padded to at least the given size.
+     *
+     * @param pid the pid of the object.
+     * @param dsID the datastream id.
+     * @param size the minimum size, in characters.
+     * @return the content.
+     */
+    static String getXML(String pid, String dsID, int size) {
+        StringBuilder out = new StringBuilder(size + 256);
+        out.append("<content pid=\"" + pid + "\" ds=\"" + dsID + "\">\n");
+        int i = 0;
+        while (out.length() < size) {
+            out.append("  <value n=\"" + i++ + "\">" + FILLER
+                    + "</value>\n");
+        }
+        out.append("</content>");
+        return out.toString();
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static String getBDefMethodMap() {
+        StringBuilder out = new StringBuilder();
+        out.append("<fmm:MethodMap xmlns:fmm=\"http://fedora.comm.nsdlib.org"
+                + "/service/methodmap\" name=\"MethodMap\">\n");
+        for (int m = 0; m < METHOD_COUNT; m++) {
+            out.append("  <fmm:Method operationName=\"method" + m
+                    + "\"/>\n");
+        }
+        out.append("</fmm:MethodMap>");
+        return out.toString();
+    }
+
+    private static String getDSInputSpec(String bDefPID, int keyCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<fbs:DSInputSpec xmlns:fbs=\"http://fedora.comm.nsdlib.org"
+                + "/service/bindspec\" bDefPID=\"" + bDefPID
+                + "\" label=\"Datastream inputs\">\n");
+        for (int k = 0; k < keyCount; k++) {
+            out.append("  <fbs:DSInput DSMax=\"1\" DSMin=\"1\""
+                    + " DSOrdinality=\"false\" wsdlMsgPartName=\"KEY" + k
+                    + "\">\n");
+            out.append("    <fbs:DSInputLabel>Key " + k
+                    + "</fbs:DSInputLabel>\n");
+            out.append("    <fbs:DSMIME>text/xml</fbs:DSMIME>\n");
+            out.append("    <fbs:DSInputInstruction/>\n");
+            out.append("  </fbs:DSInput>\n");
+        }
+        out.append("</fbs:DSInputSpec>");
+        return out.toString();
+    }
+
+    private static String getBMechMethodMap(String bDefPID, int keyCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<fmm:MethodMap xmlns:fmm=\"http://fedora.comm.nsdlib.org"
+                + "/service/methodmap\" bDefPID=\"" + bDefPID
+                + "\" name=\"MethodMap\">\n");
+        for (int m = 0; m < METHOD_COUNT; m++) {
+            out.append("  <fmm:Method operationName=\"method" + m
+                    + "\" wsdlMsgName=\"method" + m
+                    + "Request\" wsdlMsgOutput=\"response\">\n");
+            for (int k = 0; k < keyCount; k++) {
+                out.append("    <fmm:DatastreamInputParm parmName=\"KEY" + k
+                        + "\" passBy=\"URL_REF\" required=\"true\"/>\n");
+            }
+            out.append("    <fmm:MethodReturnType wsdlMsgName=\"response\""
+                    + " wsdlMsgTOMIME=\"text/html\"/>\n");
+            out.append("  </fmm:Method>\n");
+        }
+        out.append("</fmm:MethodMap>");
+        return out.toString();
+    }
+
+    private static String getWSDL(int keyCount) {
+        StringBuilder out = new StringBuilder();
+        out.append("<wsdl:definitions xmlns:wsdl=\"http://schemas.xmlsoap.org"
+                + "/wsdl/\" xmlns:http=\"http://schemas.xmlsoap.org/wsdl/"
+                + "http/\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
+                + " name=\"Service\">\n");
+        for (int m = 0; m < METHOD_COUNT; m++) {
+            out.append("  <wsdl:message name=\"method" + m + "Request\">\n");
+            for (int k = 0; k < keyCount; k++) {
+                out.append("    <wsdl:part name=\"KEY" + k
+                        + "\" type=\"xsd:string\"/>\n");
+            }
+            out.append("  </wsdl:message>\n");
+        }
+        out.append("  <wsdl:binding name=\"binding\" type=\"portType\">\n");
+        out.append("    <http:binding verb=\"GET\"/>\n");
+        for (int m = 0; m < METHOD_COUNT; m++) {
+            out.append("    <wsdl:operation name=\"method" + m + "\">\n");
+            out.append("      <http:operation location=\"render?");
+            for (int k = 0; k < keyCount; k++) {
+                out.append((k == 0 ? "" : "&amp;") + "k" + k + "=(KEY" + k
+                        + ")");
+            }
+            out.append("\"/>\n");
+            out.append("    </wsdl:operation>\n");
+        }
+        out.append("  </wsdl:binding>\n");
+        out.append("</wsdl:definitions>");
+        return out.toString();
+    }
+
+    private static byte[] getBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new FaultException(e);
+        }
+    }
+
+    private static void setCommon(Datastream ds,
+                                  String dsID,
+                                  String controlGroup,
+                                  String mimeType,
+                                  int version,
+                                  Date created) {
+        ds.DatastreamID = dsID;
+        ds.DSVersionID = dsID + "." + version;
+        ds.DSControlGrp = controlGroup;
+        ds.DSState = "A";
+        ds.DSVersionable = true;
+        ds.DSLabel = dsID + " version " + version;
+        ds.DSCreateDT = created;
+        ds.DSMIME = mimeType;
+    }
+
+    /**
+     * An object that knows its content model without parsing RELS-EXT.
+     *
+     * <p>The serializers ask every object whether it has the service
+     * definition or deployment model, which otherwise means parsing
+     * RELS-EXT with a new thread per object; that would dominate the time
+     * it takes to generate a large corpus.  As in a repository, every
+     * object has the basic content model, so data objects are still
+     * typed as such.</p>
+     */
+    private static class CorpusObject
+            extends BasicDigitalObject {
+
+        /** The URI of the content model, or null. */
+        private final String m_contentModel;
+
+        /**
+         * Creates an instance.
+         *
+         * @param contentModel the URI of the content model, or null.
+         */
+        CorpusObject(String contentModel) {
+            m_contentModel = contentModel;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasContentModel(ObjectNode contentModel) {
+            String uri = contentModel.toString();
+            return uri.equals(m_contentModel) || uri.equals(BASIC_MODEL);
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.corpus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a content datastream that generated objects may have.
+ *
+ * @author Chris Wilper
+ */
+class DatastreamSpec {
+
+    /** The datastream id. */
+    final String id;
+
+    /** The control group: X, M, E, or R. */
+    final String controlGroup;
+
+    /** The MIME type. */
+    final String mimeType;
+
+    /** The probability, from 0 to 1, that an object has the datastream. */
+    final double probability;
+
+    /**
+     * Creates an instance.
+     *
+     * @param id the datastream id.
+     * @param controlGroup the control group: X, M, E, or R.
+     * @param mimeType the MIME type.
+     * @param probability the probability, from 0 to 1, that an object has
+     *        the datastream.
+     */
+    DatastreamSpec(String id,
+                   String controlGroup,
+                   String mimeType,
+                   double probability) {
+        this.id = id;
+        this.controlGroup = controlGroup;
+        this.mimeType = mimeType;
+        this.probability = probability;
+    }
+
+    /**
+     * Parses a space-delimited list of datastream specs, each of the form
+     * <code>ID:CONTROLGROUP:MIMETYPE[:PROBABILITY]</code>.
+     *
+     * @param value the list.
+     * @return the specs, in the order given.
+     * @throws IllegalArgumentException if the list is malformed.
+     */
+    static List<DatastreamSpec> parse(String value) {
+        List<DatastreamSpec> specs = new ArrayList<DatastreamSpec>();
+        for (String spec : value.trim().split("\\s+")) {
+            if (spec.length() == 0) {
+                continue;
+            }
+            String[] parts = spec.split(":");
+            if (parts.length < 3 || parts.length > 4) {
+                throw new IllegalArgumentException("Bad datastream spec "
+                        + "(expected ID:CONTROLGROUP:MIMETYPE[:PROBABILITY]): "
+                        + spec);
+            }
+            String controlGroup = parts[1].toUpperCase();
+            if (!"XMER".contains(controlGroup)
+                    || controlGroup.length() != 1) {
+                throw new IllegalArgumentException("Bad control group in "
+                        + "datastream spec (expected X, M, E, or R): "
+                        + spec);
+            }
+            if (parts[0].equals("DC") || parts[0].equals("RELS-EXT")) {
+                throw new IllegalArgumentException("DC and RELS-EXT are "
+                        + "always generated; remove them from: " + value);
+            }
+            double probability = 1.0;
+            if (parts.length == 4) {
+                try {
+                    probability = Double.parseDouble(parts[3]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad probability in "
+                            + "datastream spec: " + spec);
+                }
+            }
+            specs.add(new DatastreamSpec(parts[0],
+                                         controlGroup,
+                                         parts[2],
+                                         probability));
+        }
+        return specs;
+    }
+
+}
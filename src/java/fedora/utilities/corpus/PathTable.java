@@ -0,0 +1,174 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.corpus;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.digitalobject.RepoUtil;
+
+/**
+ * Writes rows to a token-to-path table such as <code>objectPaths</code>
+ * or <code>datastreamPaths</code>, in batches.
+ *
+ * <p>The table is created if it doesn't exist.  Rows are sent to the
+ * database in JDBC batches, each committed as one transaction.</p>
+ *
+ * @author Chris Wilper
+ */
+class PathTable {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(PathTable.class);
+
+    /** Number of inserts to do per transaction, at most. */
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /** The connection to use. */
+    private final Connection m_conn;
+
+    /** The name of the table. */
+    private final String m_table;
+
+    /** The insert statement. */
+    private final PreparedStatement m_st;
+
+    /** Number of rows added since the last commit. */
+    private int m_pending;
+
+    /**
+     * Creates an instance, creating the table if needed.
+     *
+     * @param conn the connection to use; it will be left in manual-commit
+     *        mode until this instance is closed.
+     * @param table the name of the table.
+     * @param clear whether to delete existing rows first.
+     */
+    PathTable(Connection conn, String table, boolean clear) {
+        m_conn = conn;
+        m_table = table;
+        try {
+            if (!exists(conn, table)) {
+                createTable(conn, table);
+            } else if (clear) {
+                clearTable(conn, table);
+            }
+            conn.setAutoCommit(false);
+            m_st = conn.prepareStatement("INSERT INTO " + table
+                    + " (token, path) VALUES (?, ?)");
+        } catch (SQLException e) {
+            throw new FaultException("Error preparing " + table, e);
+        }
+    }
+
+    /**
+     * Adds a row, committing the current batch if it's full.
+     *
+     * @param token the token.
+     * @param path the path.
+     */
+    void add(String token, String path) {
+        try {
+            m_st.setString(1, token);
+            m_st.setString(2, path);
+            m_st.addBatch();
+            if (++m_pending == INSERT_BATCH_SIZE) {
+                commit();
+            }
+        } catch (SQLException e) {
+            throw new FaultException("Error adding " + token + " to "
+                    + m_table, e);
+        }
+    }
+
+    /**
+     * Commits any pending rows and restores auto-commit mode.
+     */
+    void close() {
+        try {
+            commit();
+        } catch (SQLException e) {
+            throw new FaultException("Error committing to " + m_table, e);
+        } finally {
+            RepoUtil.close(m_st);
+            try {
+                m_conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                LOG.warn("Error setting auto-commit to true", e);
+            }
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private void commit() throws SQLException {
+        if (m_pending > 0) {
+            m_st.executeBatch();
+            m_conn.commit();
+            m_pending = 0;
+        }
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static boolean exists(Connection conn, String table)
+            throws SQLException {
+        DatabaseMetaData md = conn.getMetaData();
+        ResultSet results = null;
+        try {
+            // the catalog may keep names in either case
+            results = md.getTables(null, null, "%", null);
+            while (results.next()) {
+                if (table.equalsIgnoreCase(results.getString("TABLE_NAME"))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            RepoUtil.close(results);
+        }
+    }
+
+    private static void createTable(Connection conn, String table)
+            throws SQLException {
+        Statement st = null;
+        try {
+            st = conn.createStatement();
+            st.executeUpdate("CREATE TABLE " + table + " ("
+                    + "token VARCHAR(64) NOT NULL, "
+                    + "path VARCHAR(255) NOT NULL, "
+                    + "PRIMARY KEY (token))");
+            LOG.info("Created " + table + " table");
+        } finally {
+            RepoUtil.close(st);
+        }
+    }
+
+    private static void clearTable(Connection conn, String table)
+            throws SQLException {
+        Statement st = null;
+        try {
+            st = conn.createStatement();
+            int delCount = st.executeUpdate("DELETE FROM " + table);
+            LOG.info("Cleared " + delCount + " rows from " + table
+                    + " table");
+        } finally {
+            RepoUtil.close(st);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.corpus;
+
+import java.util.Random;
+
+/**
+ * A weighted choice among content sizes.
+ *
+ * <p>Each chosen size is drawn uniformly from the upper half of its bucket,
+ * so a bucket of 1024 gives sizes from 512 to 1024 bytes.</p>
+ *
+ * @author Chris Wilper
+ */
+class SizeDistribution {
+
+    /** The upper bound of each bucket, in bytes. */
+    private final int[] m_sizes;
+
+    /** The running total of bucket weights; parallel to m_sizes. */
+    private final int[] m_cumulativeWeights;
+
+    /**
+     * Creates an instance from a space-delimited list of buckets, each of
+     * the form <code>SIZE:WEIGHT</code>, e.g.
+     * <code>1024:90 1048576:10</code>.
+     *
+     * @param value the list.
+     * @throws IllegalArgumentException if the list is malformed.
+     */
+    SizeDistribution(String value) {
+        String[] buckets = value.trim().split("\\s+");
+        m_sizes = new int[buckets.length];
+        m_cumulativeWeights = new int[buckets.length];
+        int total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            String[] parts = buckets[i].split(":");
+            try {
+                m_sizes[i] = Integer.parseInt(parts[0]);
+                int weight = parts.length == 1
+                        ? 1 : Integer.parseInt(parts[1]);
+                if (parts.length > 2 || m_sizes[i] < 1 || weight < 0) {
+                    throw new NumberFormatException();
+                }
+                total += weight;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad size bucket "
+                        + "(expected SIZE:WEIGHT): " + buckets[i]);
+            }
+            m_cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Size buckets must have a "
+                    + "positive total weight: " + value);
+        }
+    }
+
+    /**
+     * Chooses a size.
+     *
+     * @param random the source of the choice.
+     * @return the size, in bytes.
+     */
+    int next(Random random) {
+        int n = random.nextInt(m_cumulativeWeights[
+                m_cumulativeWeights.length - 1]);
+        int i = 0;
+        while (n >= m_cumulativeWeights[i]) {
+            i++;
+        }
+        int half = m_sizes[i] / 2;
+        return m_sizes[i] - random.nextInt(half + 1);
+    }
+
+}
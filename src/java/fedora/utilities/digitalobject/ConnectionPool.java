@@ -0,0 +1,143 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A small, threadsafe pool of database connections.
+ *
+ * <p>Connections are opened as needed and kept for reuse when released,
+ * up to a maximum number of idle connections.  There is no limit on the
+ * number in use at once, since an iterator holds its connection until it
+ * is exhausted; connections released beyond the maximum are closed.</p>
+ *
+ * @author Chris Wilper
+ */
+public class ConnectionPool {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class);
+
+    /** The URL, username, and password info for the database. */
+    private final Map<String, String> m_dbInfo;
+
+    /** The maximum number of idle connections to keep. */
+    private final int m_maxIdle;
+
+    /** The idle connections, most recently released last. */
+    private final LinkedList<Connection> m_idle;
+
+    /** Whether the pool has been closed. */
+    private boolean m_closed;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param dbInfo the jdbcURL, dbUsername, and dbPassword.
+     * @param maxIdle the maximum number of idle connections to keep.
+     */
+    public ConnectionPool(Map<String, String> dbInfo, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must not be "
+                    + "negative");
+        }
+        m_dbInfo = dbInfo;
+        m_maxIdle = maxIdle;
+        m_idle = new LinkedList<Connection>();
+    }
+
+    /**
+     * Gets an idle connection, or a new one if none are idle.  The
+     * connection is in auto-commit mode and must be given back with
+     * {@link #release(Connection)} when finished.
+     *
+     * @return the connection.
+     * @throws IllegalStateException if the pool has been closed.
+     */
+    public Connection getConnection() {
+        while (true) {
+            Connection conn;
+            synchronized (this) {
+                if (m_closed) {
+                    throw new IllegalStateException("Connection pool is "
+                            + "closed");
+                }
+                if (m_idle.isEmpty()) {
+                    break;
+                }
+                conn = m_idle.removeLast();
+            }
+            try {
+                if (!conn.isClosed()) {
+                    return conn;
+                }
+            } catch (SQLException e) {
+                LOG.warn("Discarding unusable connection", e);
+                RepoUtil.close(conn);
+            }
+        }
+        return RepoUtil.getConnection(m_dbInfo);
+    }
+
+    /**
+     * Gives back a connection got from this pool.  Any open transaction is
+     * committed, and the connection is kept for reuse or closed.  Any
+     * statements created from it should be closed first.
+     *
+     * @param conn the connection, or null.
+     */
+    public void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        boolean reusable;
+        try {
+            if (conn.isClosed()) {
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+            reusable = true;
+        } catch (SQLException e) {
+            LOG.warn("Error resetting connection; it will be closed", e);
+            reusable = false;
+        }
+        synchronized (this) {
+            if (reusable && !m_closed && m_idle.size() < m_maxIdle) {
+                m_idle.addLast(conn);
+                return;
+            }
+        }
+        RepoUtil.close(conn);
+    }
+
+    /**
+     * Closes all idle connections.  Connections in use are closed when
+     * released, and no more can be got.
+     */
+    public void close() {
+        List<Connection> idle;
+        synchronized (this) {
+            m_closed = true;
+            idle = new ArrayList<Connection>(m_idle);
+            m_idle.clear();
+        }
+        for (Connection conn : idle) {
+            RepoUtil.close(conn);
+        }
+    }
+
+}
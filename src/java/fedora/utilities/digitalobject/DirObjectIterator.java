@@ -25,9 +25,12 @@ class DirObjectIterator
     /** The deserializer this instance uses. */
     private final DODeserializer m_deserializer;
 
-    /** The next object (null when exhausted). */
+    /** The next object (null when exhausted or unreadable). */
     private DigitalObject m_next;
 
+    /** Why the next object couldn't be read, or null. */
+    private ObjectReadException m_failure;
+
     /** The file associated with the most last object returned by next(). */
     private File m_currentFile;
 
@@ -66,13 +69,23 @@ class DirObjectIterator
      * {@inheritDoc}
      */
     public boolean hasNext() {
-        return m_next != null;
+        return m_next != null || m_failure != null;
     }
 
     /**
      * {@inheritDoc}
+     *
+     * @throws ObjectReadException if the next object can't be read.  The
+     *         iterator moves past it first, so iteration may continue.
      */
     public DigitalObject next() {
+        if (m_failure != null) {
+            ObjectReadException failure = m_failure;
+            m_failure = null;
+            m_currentFile = m_nextFile;
+            m_next = getNext();
+            throw failure;
+        }
         if (m_next == null) {
             throw new NoSuchElementException("Iterator exhausted");
         }
@@ -96,7 +109,12 @@ class DirObjectIterator
     private DigitalObject getNext() {
         while (m_files.hasNext()) {
             m_nextFile = m_files.next();
-            return RepoUtil.readObject(m_deserializer, m_nextFile);
+            try {
+                return RepoUtil.readObject(m_deserializer, m_nextFile);
+            } catch (ObjectReadException e) {
+                m_failure = e;
+                return null;
+            }
         }
         return null;
     }
@@ -0,0 +1,166 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * A list of objects that could not be processed, kept so a run can
+ * continue past them and a later run can retry only them.
+ *
+ * <p>Each line of the list holds the pid of an object, the path of the
+ * file it was read from, and the cause of the failure, separated by tabs.
+ * The path is empty if it isn't known.  Lines starting with
+ * <code>#</code> are comments.  Each entry is flushed as it's added, so
+ * the list survives an aborted run.</p>
+ *
+ * @author Chris Wilper
+ */
+public class FailedObjectList {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(FailedObjectList.class);
+
+    /** The character encoding of the list. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The file being written. */
+    private final File m_file;
+
+    /** The writer for the file. */
+    private final PrintWriter m_writer;
+
+    /** The number of objects added so far. */
+    private int m_count;
+
+    /**
+     * Creates an empty list, replacing any existing file.
+     *
+     * @param file the file to write.
+     * @throws FaultException if the file can't be opened for writing.
+     */
+    public FailedObjectList(File file)
+            throws FaultException {
+        m_file = file;
+        try {
+            m_writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), ENCODING));
+        } catch (IOException e) {
+            throw new FaultException("Error opening " + file.getPath()
+                    + " for writing", e);
+        }
+        m_writer.println("# Objects that could not be processed: "
+                + "pid, path, and cause, separated by tabs");
+        m_writer.flush();
+    }
+
+    /**
+     * Adds an object to the list and logs the failure.
+     *
+     * @param pid the pid of the object, or null if unknown.
+     * @param file the file it was read from, or null if unknown.
+     * @param cause the reason it could not be processed.
+     */
+    public synchronized void add(String pid, File file, Throwable cause) {
+        LOG.error("Skipping " + (pid == null ? "object" : pid)
+                + (file == null ? "" : " at " + file.getPath())
+                + " after failure", cause);
+        m_writer.print(pid == null ? "" : pid);
+        m_writer.print('\t');
+        m_writer.print(file == null ? "" : file.getPath());
+        m_writer.print('\t');
+        m_writer.println(describe(cause));
+        m_writer.flush();
+        m_count++;
+    }
+
+    /**
+     * Gets the number of objects added so far.
+     *
+     * @return the number.
+     */
+    public synchronized int getCount() {
+        return m_count;
+    }
+
+    /**
+     * Gets the file being written.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Closes the list.
+     */
+    public synchronized void close() {
+        m_writer.close();
+        if (m_writer.checkError()) {
+            LOG.warn("Error writing " + m_file.getPath());
+        }
+    }
+
+    /**
+     * Reads the pids of the objects in a list written by an earlier run.
+     * Entries without a pid are left out.
+     *
+     * @param file the list.
+     * @return the pids, in the order they were added.
+     * @throws FaultException if the list can't be read.
+     */
+    public static Set<String> readPids(File file)
+            throws FaultException {
+        Set<String> pids = new LinkedHashSet<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), ENCODING));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                int i = line.indexOf('\t');
+                String pid = (i == -1 ? line : line.substring(0, i)).trim();
+                if (pid.length() > 0) {
+                    pids.add(pid);
+                }
+            }
+            return pids;
+        } catch (IOException e) {
+            throw new FaultException("Error reading " + file.getPath(), e);
+        } finally {
+            FileUtil.close(reader);
+        }
+    }
+
+    // gets the root cause of a failure on a single line
+    private static String describe(Throwable cause) {
+        Throwable root = cause;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.toString().replaceAll("\\s+", " ").trim();
+    }
+
+}
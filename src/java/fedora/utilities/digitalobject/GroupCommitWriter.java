@@ -0,0 +1,372 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * Makes replaced objects durable in groups, on a thread of its own.
+ *
+ * <p>Each replacement is first written to a temporary file beside its
+ * object and submitted here.  The writer's thread takes whatever has been
+ * submitted, up to a maximum, forces those files to disk, renames them into
+ * place, forces their directories, and only then records their pids in the
+ * progress journal, if any.  While one group is being forced, the next
+ * builds up, so writers rarely wait for the disk, yet every pid in the
+ * journal is safely on disk.</p>
+ *
+ * <p>Where directories can't be forced, before Java 7 or on Windows, a
+ * warning is logged once, and the guarantee is weaker: a journaled object
+ * is never half-written, but after a power loss it may hold its old
+ * content.  If a directory can be forced but fails to be, the objects
+ * renamed into it are left out of the journal, and the failure is thrown
+ * as below.</p>
+ *
+ * <p>Until its group is committed, a replaced object still reads as it
+ * was; {@link #await(String)} waits for it.  If a replacement can't be
+ * committed, its temporary file is deleted, its pid is left out of the
+ * journal, and the failure is thrown from the next call to
+ * {@link #submit(String, File, File)}, {@link #flush()} or
+ * {@link #close()}.  Threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class GroupCommitWriter {
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(GroupCommitWriter.class);
+
+    /** The maximum number of replacements to commit at once. */
+    private final int m_maxGroupSize;
+
+    /** Where pids are recorded once durable, or null. */
+    private final ProgressJournal m_journal;
+
+    /** Replacements submitted but not yet taken by the thread. */
+    private final LinkedList<Replacement> m_queue;
+
+    /** Replacements submitted but not yet committed, by pid. */
+    private final Map<String, Replacement> m_pending;
+
+    /** The thread that commits groups. */
+    private final Thread m_thread;
+
+    /** The first failure not yet thrown, or null. */
+    private FaultException m_failure;
+
+    /** Whether no more replacements will be submitted. */
+    private boolean m_closed;
+
+    /** The number of groups committed. */
+    private long m_groups;
+
+    /** The number of replacements committed. */
+    private long m_committed;
+
+    /**
+     * Whether it's been logged that directories can't be forced; used only
+     * by the thread.
+     */
+    private boolean m_warnedNoDirectorySync;
+
+    /**
+     * Creates an instance and starts its thread.
+     *
+     * @param maxGroupSize the maximum number of replacements to commit at
+     *        once.  Up to twice this many may be pending before
+     *        {@link #submit(String, File, File)} waits.
+     * @param journal where to record pids once durable, or null.
+     */
+    public GroupCommitWriter(int maxGroupSize, ProgressJournal journal) {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("Group size must be "
+                    + "positive");
+        }
+        m_maxGroupSize = maxGroupSize;
+        m_journal = journal;
+        m_queue = new LinkedList<Replacement>();
+        m_pending = new HashMap<String, Replacement>();
+        m_thread = new Thread(new Runnable() {
+            public void run() {
+                commitGroups();
+            }
+        }, "GroupCommitWriter");
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Submits a replacement to be committed with the next group.  If the
+     * object already has a replacement pending, this waits for it first.
+     *
+     * @param pid the pid of the object.
+     * @param temp the temporary file holding the new content, in the same
+     *        directory as the object's file.
+     * @param file the object's file.
+     * @throws FaultException if an earlier replacement couldn't be
+     *         committed, or the writer is closed.
+     */
+    public synchronized void submit(String pid, File temp, File file)
+            throws FaultException {
+        throwFailure();
+        if (m_closed) {
+            throw new FaultException("Group commit writer is closed");
+        }
+        while (m_pending.containsKey(pid)
+                || m_pending.size() >= m_maxGroupSize * 2) {
+            waitForCommit();
+        }
+        Replacement replacement = new Replacement(pid, temp, file);
+        m_pending.put(pid, replacement);
+        m_queue.add(replacement);
+        notifyAll();
+    }
+
+    /**
+     * Waits until any pending replacement of the given object has been
+     * committed, or has failed.
+     *
+     * @param pid the pid of the object.
+     */
+    public synchronized void await(String pid) {
+        while (m_pending.containsKey(pid)) {
+            waitForCommit();
+        }
+    }
+
+    /**
+     * Waits until all replacements submitted so far have been committed.
+     *
+     * @throws FaultException if any couldn't be.
+     */
+    public synchronized void flush()
+            throws FaultException {
+        while (!m_pending.isEmpty()) {
+            waitForCommit();
+        }
+        throwFailure();
+    }
+
+    /**
+     * Commits all replacements submitted so far and stops the thread.  The
+     * journal, if any, is left open.
+     *
+     * @throws FaultException if any replacement couldn't be committed.
+     */
+    public void close()
+            throws FaultException {
+        synchronized (this) {
+            while (!m_pending.isEmpty()) {
+                waitForCommit();
+            }
+            m_closed = true;
+            notifyAll();
+        }
+        try {
+            m_thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaultException("Interrupted while closing", e);
+        }
+        LOG.info("Committed " + m_committed + " object(s) in " + m_groups
+                + " group(s)");
+        synchronized (this) {
+            throwFailure();
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // takes and commits groups until closed
+    private void commitGroups() {
+        while (true) {
+            List<Replacement> group = new ArrayList<Replacement>();
+            synchronized (this) {
+                while (m_queue.isEmpty() && !m_closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        LOG.warn("Ignoring interrupt while waiting for work");
+                    }
+                }
+                if (m_queue.isEmpty()) {
+                    return;
+                }
+                while (!m_queue.isEmpty() && group.size() < m_maxGroupSize) {
+                    group.add(m_queue.removeFirst());
+                }
+            }
+            int committed = 0;
+            try {
+                committed = commit(group);
+            } catch (RuntimeException e) {
+                setFailure(new FaultException("Error committing group", e));
+            }
+            synchronized (this) {
+                for (Replacement replacement : group) {
+                    m_pending.remove(replacement.pid);
+                }
+                m_groups++;
+                m_committed += committed;
+                notifyAll();
+            }
+        }
+    }
+
+    // forces, renames, and journals a group; returns the number committed
+    private int commit(List<Replacement> group) {
+        List<Replacement> synced = new ArrayList<Replacement>(group.size());
+        for (Replacement replacement : group) {
+            try {
+                FileUtil.sync(replacement.temp);
+                synced.add(replacement);
+            } catch (IOException e) {
+                fail(replacement, e);
+            }
+        }
+        Map<File, List<String>> dirs = new LinkedHashMap<File, List<String>>();
+        for (Replacement replacement : synced) {
+            try {
+                FileUtil.commitFile(replacement.temp, replacement.file, false);
+                File dir = replacement.file.getAbsoluteFile().getParentFile();
+                List<String> renamed = dirs.get(dir);
+                if (renamed == null) {
+                    renamed = new ArrayList<String>();
+                    dirs.put(dir, renamed);
+                }
+                renamed.add(replacement.pid);
+            } catch (FaultException e) {
+                fail(replacement, e);
+            }
+        }
+        List<String> pids = new ArrayList<String>(synced.size());
+        for (Map.Entry<File, List<String>> entry : dirs.entrySet()) {
+            if (syncDirectory(entry.getKey())) {
+                pids.addAll(entry.getValue());
+            }
+        }
+        if (m_journal != null && !pids.isEmpty()) {
+            try {
+                m_journal.record(pids);
+            } catch (FaultException e) {
+                setFailure(e);
+            }
+        }
+        LOG.debug("Committed a group of " + pids.size() + " object(s) in "
+                + dirs.size() + " directories");
+        return pids.size();
+    }
+
+    // forces a directory to disk; returns whether the objects renamed into
+    // it may be journaled, as they may, with a warning, where that isn't
+    // possible
+    private boolean syncDirectory(File dir) {
+        try {
+            if (!FileUtil.syncDirectory(dir) && !m_warnedNoDirectorySync) {
+                m_warnedNoDirectorySync = true;
+                LOG.warn("Directories can't be forced to disk here; after a "
+                        + "power loss, journaled objects may hold their old "
+                        + "content");
+            }
+            return true;
+        } catch (IOException e) {
+            setFailure(new FaultException("Error forcing directory "
+                    + dir.getPath() + " to disk; the objects renamed into it "
+                    + "were not journaled", e));
+            return false;
+        }
+    }
+
+    // deletes the temporary file of a replacement that couldn't be committed
+    private void fail(Replacement replacement, Exception cause) {
+        if (replacement.temp.exists() && !replacement.temp.delete()) {
+            LOG.warn("Unable to delete " + replacement.temp.getPath());
+        }
+        setFailure(new FaultException("Error committing replacement of "
+                + replacement.pid, cause));
+    }
+
+    // keeps the first failure to be thrown
+    private synchronized void setFailure(FaultException failure) {
+        LOG.error(failure.getMessage(), failure.getCause());
+        if (m_failure == null) {
+            m_failure = failure;
+        }
+    }
+
+    // throws and clears the first failure, if any; call with the lock held
+    private void throwFailure() {
+        if (m_failure != null) {
+            FaultException failure = m_failure;
+            m_failure = null;
+            throw failure;
+        }
+    }
+
+    // waits to be notified of a commit; call with the lock held
+    private void waitForCommit() {
+        if (!m_thread.isAlive()) {
+            throw new FaultException("Group commit thread has stopped");
+        }
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaultException("Interrupted while waiting for commit",
+                    e);
+        }
+    }
+
+    //---
+    // Nested classes
+    //---
+
+    /**
+     * A replacement waiting to be committed.
+     */
+    private static class Replacement {
+
+        /** The pid of the object. */
+        final String pid;
+
+        /** The temporary file holding the new content. */
+        final File temp;
+
+        /** The object's file. */
+        final File file;
+
+        /**
+         * Creates an instance.
+         *
+         * @param pid the pid of the object.
+         * @param temp the temporary file holding the new content.
+         * @param file the object's file.
+         */
+        Replacement(String pid, File temp, File file) {
+            this.pid = pid;
+            this.temp = temp;
+            this.file = file;
+        }
+
+    }
+
+}
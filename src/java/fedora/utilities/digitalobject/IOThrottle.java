@@ -0,0 +1,355 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import fedora.utilities.config.ConfigUtil;
+import fedora.utilities.file.FileUtil;
+
+/**
+ * Limits the rate of reads and writes, so a migration can run against a
+ * live repository without saturating its disks.
+ *
+ * <p>Bytes read and written, and objects read, are each counted against a
+ * token bucket that fills at the given rate and holds up to a second's
+ * worth.  A caller that would overdraw a bucket is held back until it
+ * refills, so large objects are let through and paid for afterwards.  A
+ * rate of 0 means no limit.</p>
+ *
+ * <p>The rates can be changed while running, through JMX or by editing a
+ * watched properties file with <code>maxBytesPerSecond</code> and
+ * <code>maxObjectsPerSecond</code>.  Threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class IOThrottle
+        implements IOThrottleMXBean {
+
+    /** The property giving the most bytes to read and write per second. */
+    public static final String MAX_BYTES_PROPERTY = "maxBytesPerSecond";
+
+    /** The property giving the most objects to read per second. */
+    public static final String MAX_OBJECTS_PROPERTY = "maxObjectsPerSecond";
+
+    /** Milliseconds between checks of a watched file if unspecified; 5000. */
+    public static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(IOThrottle.class);
+
+    /** The prefix of the names under which instances are registered. */
+    private static final String NAME_PREFIX =
+            "fedora.utilities:type=IOThrottle,name=";
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /** The bucket for bytes read and written. */
+    private final Bucket m_bytes;
+
+    /** The bucket for objects read. */
+    private final Bucket m_objects;
+
+    /** The total time callers have been held back, in nanoseconds. */
+    private final AtomicLong m_throttledNanos;
+
+    /** The timer checking the watched file, or null. */
+    private Timer m_timer;
+
+    /** The name this is registered under, or null. */
+    private ObjectName m_name;
+
+    /**
+     * Creates an instance.
+     *
+     * @param maxBytesPerSecond the most bytes to read and write per second,
+     *        or 0 for no limit.
+     * @param maxObjectsPerSecond the most objects to read per second, or 0
+     *        for no limit.
+     */
+    public IOThrottle(long maxBytesPerSecond, long maxObjectsPerSecond) {
+        m_bytes = new Bucket();
+        m_objects = new Bucket();
+        m_throttledNanos = new AtomicLong();
+        setMaxBytesPerSecond(maxBytesPerSecond);
+        setMaxObjectsPerSecond(maxObjectsPerSecond);
+    }
+
+    /**
+     * Counts bytes read or written, waiting first if the limit has been
+     * reached.
+     *
+     * @param count the number of bytes.
+     */
+    public void acquireBytes(long count) {
+        pause(m_bytes.take(count));
+    }
+
+    /**
+     * Counts an object read, waiting first if the limit has been reached.
+     */
+    public void acquireObject() {
+        pause(m_objects.take(1));
+    }
+
+    /**
+     * Counts an object about to be read from the given file, and its
+     * bytes, waiting first if either limit has been reached.
+     *
+     * @param file the file.
+     */
+    public void acquireRead(File file) {
+        acquireObject();
+        acquireBytes(file.length());
+    }
+
+    /**
+     * Sets the rates from the given properties.  A rate that isn't given
+     * is set to 0, for no limit.
+     *
+     * @param props the properties.
+     * @throws IllegalArgumentException if a rate isn't a valid integer.
+     */
+    public void setLimits(Properties props) {
+        long maxBytes =
+                ConfigUtil.getOptionalLong(props, MAX_BYTES_PROPERTY, 0);
+        long maxObjects =
+                ConfigUtil.getOptionalLong(props, MAX_OBJECTS_PROPERTY, 0);
+        setMaxBytesPerSecond(maxBytes);
+        setMaxObjectsPerSecond(maxObjects);
+    }
+
+    /**
+     * Starts watching a properties file, setting the rates from it
+     * whenever it changes.  The file needn't exist yet.
+     *
+     * @param file the file.
+     * @param intervalMillis milliseconds between checks of the file.
+     */
+    public synchronized void watch(final File file, long intervalMillis) {
+        if (m_timer != null) {
+            m_timer.cancel();
+        }
+        m_timer = new Timer("IOThrottle", true);
+        m_timer.schedule(new TimerTask() {
+            private long m_lastModified = -1;
+            public void run() {
+                long lastModified = file.lastModified();
+                if (lastModified != 0 && lastModified != m_lastModified) {
+                    m_lastModified = lastModified;
+                    reload(file);
+                }
+            }
+        }, 0, intervalMillis);
+        LOG.info("Watching " + file.getPath() + " for throttle limits");
+    }
+
+    /**
+     * Registers this instance with the platform MBean server, replacing
+     * any registered earlier under the same name.
+     *
+     * @param name the name to register under, e.g. that of the store.
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(NAME_PREFIX
+                    + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            m_name = objectName;
+            LOG.info("Registered MBean " + objectName);
+        } catch (JMException e) {
+            LOG.warn("Unable to register MBean for " + name, e);
+        }
+    }
+
+    /**
+     * Stops watching any file and unregisters any MBean.
+     */
+    public synchronized void close() {
+        if (m_timer != null) {
+            m_timer.cancel();
+            m_timer = null;
+        }
+        if (m_name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(m_name);
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister MBean " + m_name, e);
+            }
+            m_name = null;
+        }
+        LOG.info("Held back for " + getThrottledMillis() + "ms in all");
+    }
+
+    //---
+    // IOThrottleMXBean implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxBytesPerSecond() {
+        return m_bytes.rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxBytesPerSecond(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative");
+        }
+        m_bytes.rate = rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxObjectsPerSecond() {
+        return m_objects.rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxObjectsPerSecond(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative");
+        }
+        m_objects.rate = rate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getBytes() {
+        return m_bytes.count.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getObjects() {
+        return m_objects.count.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getThrottledMillis() {
+        return m_throttledNanos.get() / 1000000;
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // waits the given time, if any, counting it as time held back
+    private void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+            m_throttledNanos.addAndGet(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // sets the rates from the given file, keeping them if it can't be read
+    private void reload(File file) {
+        Properties props = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+            setLimits(props);
+            LOG.info("Throttle limits are now " + getMaxBytesPerSecond()
+                    + " bytes and " + getMaxObjectsPerSecond()
+                    + " objects per second (0 is unlimited)");
+        } catch (IOException e) {
+            LOG.warn("Unable to read throttle limits from "
+                    + file.getPath(), e);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Ignoring bad throttle limits in " + file.getPath()
+                    + ": " + e.getMessage());
+        } finally {
+            FileUtil.close(in);
+        }
+    }
+
+    //---
+    // Nested classes
+    //---
+
+    /**
+     * A token bucket holding up to a second's worth of tokens.
+     */
+    private static class Bucket {
+
+        /** The tokens added per second, or 0 for no limit. */
+        volatile long rate;
+
+        /** The number of tokens taken so far. */
+        final AtomicLong count = new AtomicLong();
+
+        /** The tokens now in the bucket; negative when overdrawn. */
+        private double tokens;
+
+        /** When tokens were last added. */
+        private long lastNanos = System.nanoTime();
+
+        /**
+         * Takes tokens, overdrawing the bucket if need be.
+         *
+         * @param n the number of tokens.
+         * @return how long the caller should wait, in nanoseconds, until
+         *         the bucket is no longer overdrawn.
+         */
+        synchronized long take(long n) {
+            count.addAndGet(n);
+            long now = System.nanoTime();
+            long r = rate;
+            if (r <= 0) {
+                tokens = 0;
+                lastNanos = now;
+                return 0;
+            }
+            tokens = Math.min(r, tokens
+                    + (now - lastNanos) * r / NANOS_PER_SECOND);
+            lastNanos = now;
+            tokens -= n;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens * NANOS_PER_SECOND / r);
+        }
+
+    }
+
+}
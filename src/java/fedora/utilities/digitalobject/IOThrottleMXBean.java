@@ -0,0 +1,68 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+/**
+ * The limits of an {@link IOThrottle}, as seen and changed through JMX.
+ *
+ * <p>An instance is registered as
+ * <code>fedora.utilities:type=IOThrottle,name=<i>store</i></code>
+ * when a throttled object store is created with JMX enabled.  Changes take
+ * effect immediately.</p>
+ *
+ * @author Chris Wilper
+ */
+public interface IOThrottleMXBean {
+
+    /**
+     * Gets the most bytes to read and write per second.
+     *
+     * @return the rate, or 0 if unlimited.
+     */
+    long getMaxBytesPerSecond();
+
+    /**
+     * Sets the most bytes to read and write per second.
+     *
+     * @param rate the rate, or 0 for no limit.
+     */
+    void setMaxBytesPerSecond(long rate);
+
+    /**
+     * Gets the most objects to read per second.
+     *
+     * @return the rate, or 0 if unlimited.
+     */
+    long getMaxObjectsPerSecond();
+
+    /**
+     * Sets the most objects to read per second.
+     *
+     * @param rate the rate, or 0 for no limit.
+     */
+    void setMaxObjectsPerSecond(long rate);
+
+    /**
+     * Gets the number of bytes counted against the limit so far.
+     *
+     * @return the count.
+     */
+    long getBytes();
+
+    /**
+     * Gets the number of objects counted against the limit so far.
+     *
+     * @return the count.
+     */
+    long getObjects();
+
+    /**
+     * Gets the total time callers have been held back so far.
+     *
+     * @return the time, in milliseconds.
+     */
+    long getThrottledMillis();
+
+}
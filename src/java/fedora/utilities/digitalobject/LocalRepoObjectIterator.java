@@ -2,22 +2,15 @@ package fedora.utilities.digitalobject;
 
 import java.io.File;
 
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-import org.apache.log4j.Logger;
-
-import org.fcrepo.common.FaultException;
-
 import org.fcrepo.server.storage.translation.DODeserializer;
 import org.fcrepo.server.storage.types.DigitalObject;
 
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
 
 /**
  * An object iterator that works against a local Fedora repository.
@@ -27,47 +20,40 @@ import fedora.utilities.file.FileUtil;
 class LocalRepoObjectIterator
         implements Iterator<DigitalObject> {
 
-    /** The query to get all token, path pairs. */
-    private static final String QUERY = "SELECT token, path FROM objectPaths";
-
-    /** The default fetch size to use when running the query. */
-    private static final int DEFAULT_FETCH_SIZE = 1000;
-
-    /** The fetch size to use when running the query, if MySQL is being used. */
-    private static final int MYSQL_FETCH_SIZE = Integer.MIN_VALUE;
-
-    /** Logger for this class. */
-    private static final Logger LOG = Logger.getLogger(
-            LocalRepoObjectIterator.class);
-
     /** The base dir to use when resolving relative paths. */
     private final File m_objectStoreBase;
 
-    /** The database connection to use. */
-    private final Connection m_conn;
+    /** The rows of the objectPaths table to be iterated over. */
+    private final ObjectPathCursor m_paths;
 
     /** The deserializer to use. */
     private final DODeserializer m_deserializer;
 
-    /** The result set to be iterated over. */
-    private final ResultSet m_results;
+    /** The throttle to count reads against, or null. */
+    private final IOThrottle m_throttle;
 
-    /** The next object (null when exhausted). */
+    /** The next object (null when exhausted or unreadable). */
     private DigitalObject m_next;
 
+    /** Why the next object couldn't be read, or null. */
+    private ObjectReadException m_failure;
+
     /**
      * Constructs an instance.
      *
      * @param objectStoreBase the base dir to use when resolving relative paths.
-     * @param conn the database connection to use.
+     * @param paths the rows of the objectPaths table to iterate over.  It's
+     *        closed when the iterator is exhausted.
      * @param deserializer the deserializer to use.
+     * @param throttle the throttle to count reads against, or null.
      */
-    public LocalRepoObjectIterator(File objectStoreBase, Connection conn,
-            DODeserializer deserializer) {
+    public LocalRepoObjectIterator(File objectStoreBase,
+            ObjectPathCursor paths, DODeserializer deserializer,
+            IOThrottle throttle) {
         m_objectStoreBase = objectStoreBase;
-        m_conn = conn;
+        m_paths = paths;
         m_deserializer = deserializer;
-        m_results = executeQuery();
+        m_throttle = throttle;
         m_next = getNext();
     }
 
@@ -79,13 +65,22 @@ class LocalRepoObjectIterator
      * {@inheritDoc}
      */
     public boolean hasNext() {
-        return m_next != null;
+        return m_next != null || m_failure != null;
     }
 
     /**
      * {@inheritDoc}
+     *
+     * @throws ObjectReadException if the next object can't be read.  The
+     *         iterator moves past it first, so iteration may continue.
      */
     public DigitalObject next() {
+        if (m_failure != null) {
+            ObjectReadException failure = m_failure;
+            m_failure = null;
+            m_next = getNext();
+            throw failure;
+        }
         if (m_next == null) {
             throw new NoSuchElementException("Iterator exhausted");
         }
@@ -110,53 +105,29 @@ class LocalRepoObjectIterator
      */
     @Override
     public void finalize() {
-        RepoUtil.close(m_conn);
+        m_paths.close();
     }
 
     //---
     // Instance helpers
     //---
 
-    private ResultSet executeQuery() {
-        try {
-            m_conn.setAutoCommit(false);
-            Statement st = m_conn.createStatement(
-                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-            int fetchSize = DEFAULT_FETCH_SIZE;
-            if (RepoUtil.isMySQL(m_conn)) {
-                fetchSize = MYSQL_FETCH_SIZE;
-            }
-            st.setFetchSize(fetchSize);
-            LOG.info("Executing query (fetchSize=" + fetchSize + "): "
-                    + QUERY);
-            return st.executeQuery(QUERY);
-        } catch (SQLException e) {
-            RepoUtil.close(m_conn);
-            throw new FaultException("Error querying database", e);
-        }
-    }
-
     private DigitalObject getNext() {
-        try {
-            while (m_results.next()) {
-                File file = FileUtil.getFile(m_objectStoreBase,
-                        m_results.getString("path"));
-                DigitalObject obj = null;
-                try {
-                    obj = RepoUtil.readObject(m_deserializer, file);
-                    return obj;
-                } finally {
-                    if (obj == null) {
-                        RepoUtil.close(m_conn);
-                    }
-                }
+        long start = Metrics.start(Stage.LOOKUP);
+        if (m_paths.next()) {
+            String token = m_paths.getToken();
+            File file = FileUtil.getFile(m_objectStoreBase, m_paths.getPath());
+            Metrics.stop(Stage.LOOKUP, start, token);
+            if (m_throttle != null) {
+                m_throttle.acquireRead(file);
+            }
+            try {
+                return RepoUtil.readObject(m_deserializer, file);
+            } catch (ObjectReadException e) {
+                m_failure = new ObjectReadException(token, file,
+                        e.getCause());
             }
-        } catch (SQLException e) {
-            RepoUtil.close(m_conn);
-            throw new FaultException("Error getting next path from "
-                    + "database", e);
         }
-        RepoUtil.close(m_conn);
         return null;
     }
 
@@ -5,7 +5,6 @@
 package fedora.utilities.digitalobject;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -14,9 +13,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
 
 import org.fcrepo.common.FaultException;
 
@@ -27,9 +33,31 @@ import org.fcrepo.server.storage.types.DigitalObject;
 
 import fedora.utilities.config.ConfigUtil;
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
 
 /**
- * Non-threadsafe interface to a local repository.
+ * Threadsafe interface to a local repository.
+ *
+ * <p>Database connections are pooled.  Lookups share a pool of prepared
+ * statements, each with its own connection, no larger than the maximum
+ * number of idle connections; when all are in use, lookups wait.  By
+ * default, each iterator reads the whole <code>objectPaths</code> table with
+ * one query, holding a connection until it's exhausted.  If a scan page
+ * size or range is given, iterators instead read the table in token order
+ * a page at a time, holding nothing between pages; such scans can be
+ * resumed from a given token and split into ranges for parallel
+ * workers.  Iterators can also reorder the rows a window at a time, so
+ * objects are read in the order they're laid out on disk.</p>
+ *
+ * <p>Objects are replaced by writing a temporary file next to each and
+ * renaming it into place, so a failure partway never leaves an object
+ * half-written.  Writes can also be forced to disk before the rename, and
+ * the rename after, so they survive a power loss, either one at a time or
+ * in groups by a {@link GroupCommitWriter}.</p>
+ *
+ * <p>Reads and writes can be limited by an {@link IOThrottle}, so the store
+ * can be used while the repository is live.</p>
  *
  * @author Chris Wilper
  */
@@ -50,9 +78,32 @@ public class LocalRepoObjectStore
     public static final String DEFAULT_SERIALIZER =
             "org.fcrepo.server.storage.translation.FOXML1_1DOSerializer";
 
-    /** The deserializer to use. */
+    /**
+     * The maximum number of idle database connections that will be kept if
+     * none is specified; 8
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+
+    /**
+     * The number of rows that will be read per query when scanning a range
+     * of the objectPaths table, if no scan page size is specified; 1000
+     */
+    public static final int DEFAULT_RANGE_PAGE_SIZE = 1000;
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(LocalRepoObjectStore.class);
+
+    /** The query to get the path of an object. */
+    private static final String LOOKUP_QUERY =
+            "SELECT path FROM objectPaths WHERE token = ?";
+
+    /** The deserializer to copy for each thread. */
     private final DODeserializer m_deserializer;
 
+    /** Each thread's deserializer. */
+    private final ThreadLocal<DODeserializer> m_deserializers;
+
     /** The serializer to use. */
     private final DOSerializer m_serializer;
 
@@ -62,11 +113,48 @@ public class LocalRepoObjectStore
     /** The URL, username, and password info for the Fedora database. */
     private final Map<String, String> m_dbInfo;
 
-    /** The connection this instance uses. */
-    private final Connection m_conn;
+    /** The pool of connections this instance uses. */
+    private final ConnectionPool m_pool;
+
+    /** The rows per query when scanning, or 0 to use a single query. */
+    private int m_scanPageSize;
+
+    /** The token iterators start after, or null to start at the first. */
+    private String m_scanFrom;
+
+    /** The last token iterators return, or null to go to the end. */
+    private String m_scanTo;
 
-    /** The prepared statement this instance uses. */
-    private final PreparedStatement m_st;
+    /** The rows iterators reorder by path at once, or 0 not to. */
+    private int m_localityWindow;
+
+    /** Whether replaced objects are forced to disk before renaming. */
+    private boolean m_syncWrites;
+
+    /** The writer that commits replaced objects in groups, or null. */
+    private volatile GroupCommitWriter m_groupCommitWriter;
+
+    /** The throttle reads and writes are counted against, or null. */
+    private volatile IOThrottle m_throttle;
+
+    /** Whether the throttle was made by, and will be closed with, this. */
+    private boolean m_ownThrottle;
+
+    /**
+     * Prepared statements for lookups not now in use.  These are pooled
+     * rather than kept per thread, so that short-lived threads, such as
+     * virtual threads, don't each hold a connection.
+     */
+    private final Queue<PreparedStatement> m_lookups;
+
+    /**
+     * Permits for lookups in progress, so there are never more lookup
+     * statements, and connections, than the maximum number idle.
+     */
+    private final Semaphore m_lookupPermits;
+
+    /** All prepared statements for lookups. */
+    private final List<PreparedStatement> m_statements;
 
     /**
      * Creates an instance.
@@ -84,29 +172,49 @@ public class LocalRepoObjectStore
     public LocalRepoObjectStore(File fedoraHome, File jdbcJar,
             DODeserializer deserializer, DOSerializer serializer,
             boolean clearObjectPaths) {
+        this(fedoraHome, jdbcJar, deserializer, serializer, clearObjectPaths,
+                DEFAULT_MAX_IDLE_CONNECTIONS);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * The objectPaths table will be automatically rebuilt if it is empty.
+     *
+     * @param fedoraHome the FEDORA_HOME directory.
+     * @param jdbcJar a jar containing the appropriate jdbc driver, or null
+     *                if it's already in the classpath.
+     * @param deserializer the deserializer to use.
+     * @param serializer the serializer to use.
+     * @param clearObjectPaths whether to clear the objectPaths table
+     *                         initially, thus forcing a rebuild.
+     * @param maxIdleConnections the maximum number of idle database
+     *                           connections to keep for reuse, and of
+     *                           lookups run at once.
+     */
+    public LocalRepoObjectStore(File fedoraHome, File jdbcJar,
+            DODeserializer deserializer, DOSerializer serializer,
+            boolean clearObjectPaths, int maxIdleConnections) {
         m_deserializer = deserializer;
+        m_deserializers = new ThreadLocal<DODeserializer>();
         m_serializer = serializer;
         ServerConfiguration serverConfig = RepoUtil.getServerConfig(fedoraHome);
         m_objectStoreBase = RepoUtil.getObjectStoreBase(
                 serverConfig, fedoraHome);
         m_dbInfo = RepoUtil.getDBInfo(serverConfig, jdbcJar);
-        m_conn = RepoUtil.getConnection(m_dbInfo);
-        boolean initialized = false;
+        m_pool = new ConnectionPool(m_dbInfo, maxIdleConnections);
+        m_lookups = new ConcurrentLinkedQueue<PreparedStatement>();
+        m_lookupPermits = new Semaphore(Math.max(1, maxIdleConnections));
+        m_statements = new ArrayList<PreparedStatement>();
+        Connection conn = m_pool.getConnection();
         try {
             if (clearObjectPaths) {
-                RepoUtil.clearObjectPaths(m_conn);
+                RepoUtil.clearObjectPaths(conn);
             }
-            RepoUtil.buildObjectPathsIfNeeded(m_conn, m_objectStoreBase,
+            RepoUtil.buildObjectPathsIfNeeded(conn, m_objectStoreBase,
                     m_deserializer);
-            m_st = m_conn.prepareStatement(
-                    "SELECT path FROM objectPaths WHERE token = ?");
-            initialized = true;
-        } catch (SQLException e) {
-            throw new FaultException("Error preparing statement", e);
         } finally {
-            if (!initialized) {
-                close();
-            }
+            m_pool.release(conn);
         }
     }
 
@@ -125,6 +233,37 @@ public class LocalRepoObjectStore
      *   clearObjectPaths (optional) - whether to clear the objectPaths table
      *                                 initially, thus forcing a rebuild.
      *                                 default is true.
+     *   maxIdleConnections (optional) - the maximum number of idle database
+     *                                 connections to keep for reuse, and
+     *                                 of lookups run at once; default is
+     *                                 DEFAULT_MAX_IDLE_CONNECTIONS.
+     *   scanPageSize     (optional) - the number of objectPaths rows
+     *                                 iterators read per query, or 0 to
+     *                                 read them all with one query unless
+     *                                 a range is given; default is 0.
+     *   scanFrom         (optional) - the pid iterators start after, e.g.
+     *                                 to resume an earlier scan.
+     *   scanTo           (optional) - the last pid iterators return.
+     *   localityWindow   (optional) - the number of objects iterators
+     *                                 buffer and reorder by path before
+     *                                 reading, to cut seeks on spinning
+     *                                 disks, or 0 not to; default is 0.
+     *   syncWrites       (optional) - whether to force each replaced
+     *                                 object to disk before renaming it
+     *                                 into place, and its directory
+     *                                 after; default is false.
+     *   maxBytesPerSecond (optional) - the most bytes to read and write
+     *                                 per second, or 0 for no limit;
+     *                                 default is 0.
+     *   maxObjectsPerSecond (optional) - the most objects to read per
+     *                                 second, or 0 for no limit; default
+     *                                 is 0.
+     *   throttleFile     (optional) - a properties file giving the above
+     *                                 two limits, checked every few
+     *                                 seconds and applied when it changes.
+     *   jmx              (optional) - whether to register an IOThrottle
+     *                                 MBean, to watch and change the
+     *                                 limits; default is false.
      * </pre>
      *
      * @param props the properties.
@@ -138,7 +277,158 @@ public class LocalRepoObjectStore
                 DEFAULT_SERIALIZER),
                 ConfigUtil.getOptionalBoolean(props,
                                               "clearObjectPaths",
-                                              true));
+                                              true),
+                ConfigUtil.getOptionalInt(props,
+                                          "maxIdleConnections",
+                                          DEFAULT_MAX_IDLE_CONNECTIONS));
+        setScanPageSize(ConfigUtil.getOptionalInt(props, "scanPageSize", 0));
+        setScanRange(ConfigUtil.getOptionalString(props, "scanFrom", null),
+                ConfigUtil.getOptionalString(props, "scanTo", null));
+        setLocalityWindow(ConfigUtil.getOptionalInt(props,
+                                                    "localityWindow",
+                                                    0));
+        setSyncWrites(ConfigUtil.getOptionalBoolean(props,
+                                                    "syncWrites",
+                                                    false));
+        IOThrottle throttle = new IOThrottle(
+                ConfigUtil.getOptionalLong(props,
+                                           IOThrottle.MAX_BYTES_PROPERTY,
+                                           0),
+                ConfigUtil.getOptionalLong(props,
+                                           IOThrottle.MAX_OBJECTS_PROPERTY,
+                                           0));
+        File throttleFile =
+                ConfigUtil.getOptionalFile(props, "throttleFile", null);
+        boolean jmx = ConfigUtil.getOptionalBoolean(props, "jmx", false);
+        if (throttleFile != null) {
+            throttle.watch(throttleFile, IOThrottle.DEFAULT_CHECK_INTERVAL);
+        }
+        if (jmx) {
+            throttle.register("LocalRepoObjectStore");
+        }
+        if (throttleFile != null || jmx
+                || throttle.getMaxBytesPerSecond() > 0
+                || throttle.getMaxObjectsPerSecond() > 0) {
+            setThrottle(throttle);
+            m_ownThrottle = true;
+        }
+    }
+
+    //---
+    // Public interface
+    //---
+
+    /**
+     * Sets the number of objectPaths rows iterators read per query.
+     *
+     * @param pageSize the number of rows, or 0 to read them all with one
+     *        query unless a range is set.
+     */
+    public void setScanPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Scan page size must not be "
+                    + "negative");
+        }
+        m_scanPageSize = pageSize;
+    }
+
+    /**
+     * Sets the range of pids iterators return, in token order.
+     *
+     * @param fromToken the pid to start after, or null to start at the
+     *        first.
+     * @param toToken the last pid, or null to go to the end.
+     */
+    public void setScanRange(String fromToken, String toToken) {
+        m_scanFrom = fromToken;
+        m_scanTo = toToken;
+    }
+
+    /**
+     * Sets the number of objects iterators buffer and reorder by path
+     * before reading them.  Paths that share a directory sort together,
+     * so on spinning disks and network filers, larger windows mean fewer
+     * seeks.  Objects are then no longer returned in pid order.
+     *
+     * @param windowSize the number of objects, or 0 not to reorder.
+     */
+    public void setLocalityWindow(int windowSize) {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException("Locality window must not "
+                    + "be negative");
+        }
+        m_localityWindow = windowSize;
+    }
+
+    /**
+     * Sets whether replaced objects are forced to disk before they're
+     * renamed into place, and their directories after, where the platform
+     * allows.  If not, a power loss soon after an object is replaced may
+     * lose the new content, though the rename may survive.
+     *
+     * @param syncWrites whether to force writes.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        m_syncWrites = syncWrites;
+    }
+
+    /**
+     * Sets the writer that will commit replaced objects in groups, rather
+     * than each being renamed into place as it's written.  Objects read
+     * while their replacement is pending wait for it to be committed.
+     * The caller remains responsible for closing the writer.
+     *
+     * @param writer the writer, or null to commit each object as it's
+     *        written.
+     */
+    public void setGroupCommitWriter(GroupCommitWriter writer) {
+        m_groupCommitWriter = writer;
+    }
+
+    /**
+     * Sets the throttle that reads and writes will be counted against.
+     * The caller remains responsible for closing it.
+     *
+     * @param throttle the throttle, or null for no limit.
+     */
+    public void setThrottle(IOThrottle throttle) {
+        m_throttle = throttle;
+        m_ownThrottle = false;
+    }
+
+    /**
+     * Gets an iterator over a range of the objects, in pid order, reading
+     * the objectPaths table a page at a time.  If a locality window is
+     * set, pid order holds only between windows.
+     *
+     * @param fromToken the pid to start after, or null to start at the
+     *        first.
+     * @param toToken the last pid, or null to go to the end.
+     * @return the iterator.
+     */
+    public Iterator<DigitalObject> iterator(String fromToken, String toToken) {
+        int pageSize = m_scanPageSize;
+        if (pageSize == 0) {
+            pageSize = DEFAULT_RANGE_PAGE_SIZE;
+        }
+        return newIterator(new PagedPathCursor(m_pool, pageSize,
+                fromToken, toToken));
+    }
+
+    /**
+     * Finds pids that split the objects into ranges of about equal size,
+     * for use with {@link #iterator(String, String)} by parallel workers.
+     * Range <i>i</i> runs from just after split <i>i - 1</i> through split
+     * <i>i</i>; the first starts at the first pid and the last runs to the
+     * end.
+     *
+     * @param parts the number of ranges wanted.
+     * @return the splits, in order: one fewer than the number of ranges,
+     *         which may be less than the number wanted if there are few
+     *         objects.
+     */
+    public List<String> getSplitTokens(int parts) {
+        return PagedPathCursor.getSplitTokens(m_pool, parts);
     }
 
     //---
@@ -153,7 +443,13 @@ public class LocalRepoObjectStore
         if (file == null) {
             return null;
         }
-        return RepoUtil.readObject(m_deserializer, file);
+        DODeserializer deserializer = m_deserializers.get();
+        if (deserializer == null) {
+            deserializer = m_deserializer.getInstance();
+            m_deserializers.set(deserializer);
+        }
+        throttleRead(file);
+        return RepoUtil.readObject(deserializer, file);
     }
 
     /**
@@ -164,13 +460,21 @@ public class LocalRepoObjectStore
         if (file == null) {
             return null;
         }
+        throttleRead(file);
         try {
-            return new FileInputStream(file);
+            return FileUtil.openFile(file);
         } catch (IOException e) {
             throw new FaultException("Error reading: " + file.getPath(), e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public File getObjectFile(String pid) {
+        return getFile(pid);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -179,7 +483,15 @@ public class LocalRepoObjectStore
         if (file == null) {
             return false;
         }
-        RepoUtil.writeObject(m_serializer, obj, file);
+        File temp = FileUtil.createTempFile(file);
+        try {
+            RepoUtil.writeObject(m_serializer, obj, temp);
+        } catch (FaultException e) {
+            deleteTempFile(temp);
+            throw e;
+        }
+        throttleWrite(temp.length());
+        commit(obj.getPid(), temp, file);
         return true;
     }
 
@@ -191,7 +503,63 @@ public class LocalRepoObjectStore
         if (file == null) {
             return false;
         }
-        FileUtil.writeFile(source, file);
+        long start = Metrics.start(Stage.WRITE);
+        if (m_groupCommitWriter == null && m_throttle == null) {
+            FileUtil.replaceFile(source, file, m_syncWrites);
+        } else {
+            File temp = FileUtil.createTempFile(file);
+            try {
+                FileUtil.writeFile(source, temp);
+            } catch (FaultException e) {
+                deleteTempFile(temp);
+                throw e;
+            }
+            throttleWrite(temp.length());
+            commit(pid, temp, file);
+        }
+        if (Metrics.isEnabled()) {
+            Metrics.stop(Stage.WRITE, start, pid, file.length());
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public File createTempFile(String pid) {
+        File file = getFile(pid);
+        if (file == null) {
+            return null;
+        }
+        return FileUtil.createTempFile(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean replaceObject(String pid, File temp) {
+        File file;
+        try {
+            file = getFile(pid);
+        } catch (FaultException e) {
+            deleteTempFile(temp);
+            throw e;
+        }
+        if (file == null) {
+            deleteTempFile(temp);
+            return false;
+        }
+        long start = Metrics.start(Stage.WRITE);
+        try {
+            throttleWrite(temp.length());
+        } catch (FaultException e) {
+            deleteTempFile(temp);
+            throw e;
+        }
+        commit(pid, temp, file);
+        if (Metrics.isEnabled()) {
+            Metrics.stop(Stage.WRITE, start, pid, file.length());
+        }
         return true;
     }
 
@@ -199,8 +567,20 @@ public class LocalRepoObjectStore
      * {@inheritDoc}
      */
     public void close() {
-        RepoUtil.close(m_st);
-        RepoUtil.close(m_conn);
+        List<PreparedStatement> statements;
+        synchronized (m_statements) {
+            statements = new ArrayList<PreparedStatement>(m_statements);
+            m_statements.clear();
+        }
+        m_lookups.clear();
+        for (PreparedStatement st : statements) {
+            closeLookupStatement(st);
+        }
+        m_pool.close();
+        if (m_ownThrottle) {
+            m_throttle.close();
+            m_ownThrottle = false;
+        }
     }
 
     //---
@@ -211,9 +591,10 @@ public class LocalRepoObjectStore
      * {@inheritDoc}
      */
     public Iterator<DigitalObject> iterator() {
-        return new LocalRepoObjectIterator(m_objectStoreBase,
-                RepoUtil.getConnection(m_dbInfo),
-                m_deserializer.getInstance());
+        if (m_scanPageSize > 0 || m_scanFrom != null || m_scanTo != null) {
+            return iterator(m_scanFrom, m_scanTo);
+        }
+        return newIterator(new StreamingPathCursor(m_pool));
     }
 
     //---
@@ -232,7 +613,57 @@ public class LocalRepoObjectStore
     // Instance helpers
     //---
 
+    private Iterator<DigitalObject> newIterator(ObjectPathCursor paths) {
+        if (m_localityWindow > 1) {
+            paths = new LocalityOrderedCursor(paths, m_localityWindow);
+        }
+        return new LocalRepoObjectIterator(m_objectStoreBase, paths,
+                m_deserializer.getInstance(), m_throttle);
+    }
+
+    // moves a replacement into place, or submits it for group commit
+    private void commit(String pid, File temp, File file) {
+        GroupCommitWriter writer = m_groupCommitWriter;
+        if (writer == null) {
+            FileUtil.commitFile(temp, file, m_syncWrites);
+        } else {
+            try {
+                writer.submit(pid, temp, file);
+            } catch (FaultException e) {
+                deleteTempFile(temp);
+                throw e;
+            }
+        }
+    }
+
+    // counts a read against the throttle, if any
+    private void throttleRead(File file) {
+        IOThrottle throttle = m_throttle;
+        if (throttle != null) {
+            throttle.acquireRead(file);
+        }
+    }
+
+    // counts bytes written against the throttle, if any
+    private void throttleWrite(long bytes) {
+        IOThrottle throttle = m_throttle;
+        if (throttle != null) {
+            throttle.acquireBytes(bytes);
+        }
+    }
+
+    // deletes a temporary file after a failure
+    private static void deleteTempFile(File temp) {
+        if (temp.exists() && !temp.delete()) {
+            LOG.warn("Unable to delete " + temp.getPath());
+        }
+    }
+
     private File getFile(String pid) {
+        GroupCommitWriter writer = m_groupCommitWriter;
+        if (writer != null) {
+            writer.await(pid);
+        }
         String path = getPath(pid);
         if (path == null) {
             return null;
@@ -241,20 +672,71 @@ public class LocalRepoObjectStore
     }
 
     private String getPath(String pid) {
+        PreparedStatement st = null;
         ResultSet results = null;
+        long start = Metrics.start(Stage.LOOKUP);
+        m_lookupPermits.acquireUninterruptibly();
         try {
-            m_st.setString(1, pid);
-            results = m_st.executeQuery();
+            st = getLookupStatement();
+            st.setString(1, pid);
+            results = st.executeQuery();
             if (!results.next()) {
                 return null;
             }
             return results.getString(1);
         } catch (SQLException e) {
+            // the statement or its connection may be broken; don't reuse it
+            RepoUtil.close(results);
+            results = null;
+            if (st != null) {
+                synchronized (m_statements) {
+                    m_statements.remove(st);
+                }
+                closeLookupStatement(st);
+                st = null;
+            }
             throw new FaultException(
                     "Error querying database for object path", e);
         } finally {
             RepoUtil.close(results);
+            if (st != null) {
+                m_lookups.add(st);
+            }
+            m_lookupPermits.release();
+            Metrics.stop(Stage.LOOKUP, start, pid);
+        }
+    }
+
+    // gets an idle lookup statement, preparing one if needed; it must be
+    // given back to m_lookups when done with
+    private PreparedStatement getLookupStatement() throws SQLException {
+        PreparedStatement st = m_lookups.poll();
+        if (st == null) {
+            Connection conn = m_pool.getConnection();
+            try {
+                st = conn.prepareStatement(LOOKUP_QUERY);
+            } finally {
+                if (st == null) {
+                    m_pool.release(conn);
+                }
+            }
+            synchronized (m_statements) {
+                m_statements.add(st);
+            }
+        }
+        return st;
+    }
+
+    // closes a lookup statement and gives back its connection
+    private void closeLookupStatement(PreparedStatement st) {
+        Connection conn = null;
+        try {
+            conn = st.getConnection();
+        } catch (SQLException e) {
+            LOG.warn("Error getting connection of statement", e);
         }
+        RepoUtil.close(st);
+        m_pool.release(conn);
     }
 
 }
\ No newline at end of file
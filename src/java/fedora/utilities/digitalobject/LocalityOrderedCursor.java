@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reorders the rows of another cursor by path, a window at a time, so
+ * objects are read in roughly the order they're laid out on disk.
+ *
+ * <p>Paths that share a directory sort together, so each window is read a
+ * directory at a time, in order, rather than seeking at random.  The rows
+ * of each window are read from the underlying cursor before any are
+ * returned.</p>
+ *
+ * @author Chris Wilper
+ */
+class LocalityOrderedCursor
+        implements ObjectPathCursor {
+
+    /** Orders rows by path. */
+    private static final Comparator<String[]> BY_PATH =
+            new Comparator<String[]>() {
+                public int compare(String[] a, String[] b) {
+                    return a[1].compareTo(b[1]);
+                }
+            };
+
+    /** The cursor whose rows are reordered. */
+    private final ObjectPathCursor m_cursor;
+
+    /** The maximum number of rows to reorder at once. */
+    private final int m_windowSize;
+
+    /** The rows of the current window, each a token and a path. */
+    private final List<String[]> m_window;
+
+    /** The index of the current row in the window, or -1 before the first. */
+    private int m_index;
+
+    /** Whether the underlying cursor has no more rows. */
+    private boolean m_exhausted;
+
+    /**
+     * Creates an instance.
+     *
+     * @param cursor the cursor whose rows are reordered.
+     * @param windowSize the maximum number of rows to reorder at once.
+     */
+    LocalityOrderedCursor(ObjectPathCursor cursor, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be "
+                    + "positive");
+        }
+        m_cursor = cursor;
+        m_windowSize = windowSize;
+        m_window = new ArrayList<String[]>(windowSize);
+        m_index = -1;
+    }
+
+    //---
+    // ObjectPathCursor implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() {
+        if (m_index + 1 >= m_window.size()) {
+            m_window.clear();
+            m_index = -1;
+            while (!m_exhausted && m_window.size() < m_windowSize) {
+                if (m_cursor.next()) {
+                    m_window.add(new String[] {m_cursor.getToken(),
+                                               m_cursor.getPath()});
+                } else {
+                    m_exhausted = true;
+                }
+            }
+            if (m_window.isEmpty()) {
+                return false;
+            }
+            Collections.sort(m_window, BY_PATH);
+        }
+        m_index++;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getToken() {
+        return m_window.get(m_index)[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPath() {
+        return m_window.get(m_index)[1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        m_cursor.close();
+    }
+
+}
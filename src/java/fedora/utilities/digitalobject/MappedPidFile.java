@@ -0,0 +1,334 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * A list of pids given as text, one per line in UTF-8, read through
+ * memory mapping.
+ *
+ * <p>Blank lines and those starting with <code>#</code> are left out, and
+ * pids are trimmed, as when the file is read line by line.  The file can
+ * be split into chunks that start and end at line boundaries, so each may
+ * be read by a different thread.  Each chunk is mapped only when it's
+ * iterated, and its pids are decoded only as they're reached, so no
+ * thread holds more than its own chunk, and a file of any size can be
+ * read, a gigabyte at most to a chunk.</p>
+ *
+ * <p>The file must not change while it's read.  Threadsafe, though each
+ * iterator is for one thread.</p>
+ *
+ * @author Chris Wilper
+ */
+public class MappedPidFile
+        implements Iterable<String> {
+
+    /** The most bytes in a chunk; 1GB, well within what a buffer holds. */
+    private static final long MAX_CHUNK = 1024L * 1024 * 1024;
+
+    /** The bytes to read at once when finding a line boundary. */
+    private static final int SCAN_SIZE = FileUtil.READ_BUFFER_SIZE;
+
+    /** The character encoding of the file. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The file. */
+    private final File m_file;
+
+    /** The length of the file, in bytes. */
+    private final long m_length;
+
+    /**
+     * Creates an instance.
+     *
+     * @param file the file.
+     * @throws FaultException if the file can't be read.
+     */
+    public MappedPidFile(File file)
+            throws FaultException {
+        if (!file.canRead()) {
+            throw new FaultException("Error reading from pid file: "
+                    + file.getPath());
+        }
+        m_file = file;
+        m_length = file.length();
+    }
+
+    /**
+     * Splits the file into about equal chunks, at line boundaries, so
+     * each may be read by a different thread.
+     *
+     * @param parts the number of chunks wanted.
+     * @return the chunks, in order; more than asked for if the file is too
+     *         large for that many, and fewer if it has too few lines.
+     * @throws FaultException if the file can't be read.
+     */
+    public List<Iterable<String>> split(int parts)
+            throws FaultException {
+        int n = (int) Math.max(Math.max(parts, 1),
+                               (m_length + MAX_CHUNK - 1) / MAX_CHUNK);
+        List<Iterable<String>> chunks = new ArrayList<Iterable<String>>(n);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(m_file, "r");
+            long start = 0;
+            for (int i = 1; i <= n; i++) {
+                long end = m_length;
+                if (i < n) {
+                    end = findLineStart(raf, m_length * i / n);
+                }
+                if (end > start) {
+                    chunks.add(new Chunk(start, end));
+                    start = end;
+                }
+            }
+        } catch (IOException e) {
+            throw new FaultException("Error reading from pid file: "
+                    + m_file.getPath(), e);
+        } finally {
+            FileUtil.close(raf);
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts the pids without decoding them.
+     *
+     * @return the number of pids.
+     * @throws FaultException if the file can't be read.
+     */
+    public long count()
+            throws FaultException {
+        long count = 0;
+        for (Iterable<String> chunk : split(1)) {
+            LineCursor lines = ((Chunk) chunk).open();
+            while (lines.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Iterates the pids, in the order given.
+     *
+     * @return the iterator.
+     * @throws FaultException if the file can't be read.
+     */
+    public Iterator<String> iterator()
+            throws FaultException {
+        final Iterator<Iterable<String>> chunks = split(1).iterator();
+        return new Iterator<String>() {
+            private Iterator<String> m_pids;
+            public boolean hasNext() {
+                while ((m_pids == null || !m_pids.hasNext())
+                        && chunks.hasNext()) {
+                    m_pids = chunks.next().iterator();
+                }
+                return m_pids != null && m_pids.hasNext();
+            }
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return m_pids.next();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // gets the offset of the first line starting at or after the given one
+    private long findLineStart(RandomAccessFile raf, long offset)
+            throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        byte[] scan = new byte[SCAN_SIZE];
+        long pos = offset - 1;
+        raf.seek(pos);
+        int n;
+        while ((n = raf.read(scan)) > 0) {
+            for (int i = 0; i < n; i++) {
+                if (scan[i] == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return m_length;
+    }
+
+    //---
+    // Nested classes
+    //---
+
+    /**
+     * A range of whole lines of the file.
+     */
+    private class Chunk
+            implements Iterable<String> {
+
+        /** The offset of the first byte. */
+        private final long m_start;
+
+        /** The offset after the last byte. */
+        private final long m_end;
+
+        /**
+         * Creates an instance.
+         *
+         * @param start the offset of the first byte.
+         * @param end the offset after the last byte.
+         */
+        Chunk(long start, long end) {
+            m_start = start;
+            m_end = end;
+        }
+
+        /**
+         * Maps the range and starts reading its lines.
+         *
+         * @return the cursor.
+         * @throws FaultException if the file can't be read.
+         */
+        LineCursor open()
+                throws FaultException {
+            try {
+                return new LineCursor(FileUtil.readFile(m_file,
+                                                        m_start,
+                                                        m_end - m_start));
+            } catch (IOException e) {
+                throw new FaultException("Error reading from pid file: "
+                        + m_file.getPath(), e);
+            }
+        }
+
+        /**
+         * Iterates the pids in the range, mapping it on first use.
+         *
+         * @return the iterator.
+         */
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private LineCursor m_lines;
+                private boolean m_ready;
+                public boolean hasNext() {
+                    if (m_lines == null) {
+                        m_lines = open();
+                    }
+                    if (!m_ready) {
+                        m_ready = m_lines.next();
+                    }
+                    return m_ready;
+                }
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    m_ready = false;
+                    return m_lines.decode();
+                }
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Finds the pid on each line of a buffer, trimmed, skipping blank
+     * lines and comments.
+     */
+    private static class LineCursor {
+
+        /** The lines. */
+        private final ByteBuffer m_buffer;
+
+        /** Where the next line starts. */
+        private int m_next;
+
+        /** Where the current pid starts. */
+        private int m_start;
+
+        /** Where the current pid ends. */
+        private int m_end;
+
+        /**
+         * Creates an instance.
+         *
+         * @param buffer the lines.
+         */
+        LineCursor(ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        /**
+         * Moves to the next pid.
+         *
+         * @return whether there is one.
+         */
+        boolean next() {
+            int limit = m_buffer.limit();
+            while (m_next < limit) {
+                int eol = m_next;
+                while (eol < limit && m_buffer.get(eol) != '\n') {
+                    eol++;
+                }
+                int start = m_next;
+                int end = eol;
+                m_next = eol + 1;
+                // as String.trim, which drops chars up to space; in UTF-8
+                // those are single bytes, and no byte of another char is
+                while (start < end && (m_buffer.get(start) & 0xFF) <= ' ') {
+                    start++;
+                }
+                while (end > start && (m_buffer.get(end - 1) & 0xFF) <= ' ') {
+                    end--;
+                }
+                if (start < end && m_buffer.get(start) != '#') {
+                    m_start = start;
+                    m_end = end;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Decodes the current pid.
+         *
+         * @return the pid.
+         */
+        String decode() {
+            byte[] bytes = new byte[m_end - m_start];
+            ByteBuffer in = m_buffer.duplicate();
+            in.position(m_start);
+            in.get(bytes);
+            return new String(bytes, UTF8);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * A forward-only cursor over rows of the <code>objectPaths</code> table.
+ *
+ * @author Chris Wilper
+ */
+interface ObjectPathCursor {
+
+    /**
+     * Moves to the next row.  Database resources are released when there
+     * are no more rows.
+     *
+     * @return false if there are no more rows.
+     * @throws FaultException if the database can't be queried.
+     */
+    boolean next()
+            throws FaultException;
+
+    /**
+     * Gets the token (pid) of the current row.
+     *
+     * @return the token.
+     */
+    String getToken();
+
+    /**
+     * Gets the path of the current row.
+     *
+     * @return the path, which may be relative to the object store base.
+     */
+    String getPath();
+
+    /**
+     * Releases any database resources held, if not already released.
+     */
+    void close();
+
+}
@@ -0,0 +1,63 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.File;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Signals that a serialized object could not be read or deserialized.
+ *
+ * <p>Object iterators throw this from <code>next()</code> after moving
+ * past the unreadable object, so iteration can continue if the caller
+ * chooses.</p>
+ *
+ * @author Chris Wilper
+ */
+public class ObjectReadException
+        extends FaultException {
+
+    /** Version of this class; for serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** The pid of the object, or null if unknown. */
+    private final String m_pid;
+
+    /** The file the object was read from. */
+    private final File m_file;
+
+    /**
+     * Creates an instance.
+     *
+     * @param pid the pid of the object, or null if unknown.
+     * @param file the file the object was read from.
+     * @param cause the reason it couldn't be read.
+     */
+    public ObjectReadException(String pid, File file, Throwable cause) {
+        super("Error deserializing from " + file.getPath(), cause);
+        m_pid = pid;
+        m_file = file;
+    }
+
+    /**
+     * Gets the pid of the object.
+     *
+     * @return the pid, or null if unknown.
+     */
+    public String getPid() {
+        return m_pid;
+    }
+
+    /**
+     * Gets the file the object was read from.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+}
@@ -4,6 +4,7 @@
  */
 package fedora.utilities.digitalobject;
 
+import java.io.File;
 import java.io.InputStream;
 
 import org.fcrepo.common.FaultException;
@@ -40,6 +41,18 @@ public interface ObjectStore
     InputStream getObjectStream(String pid)
             throws FaultException;
 
+    /**
+     * Gets the file a digital object in the store is kept in, e.g. to order
+     * reads by their location on disk.
+     *
+     * @param pid the id of the object.
+     * @return the file, or null if the object is not found or isn't kept
+     *         in a local file.
+     * @throws FaultException if the store can't be queried.
+     */
+    File getObjectFile(String pid)
+            throws FaultException;
+
     /**
      * Replaces a digital object in the store.
      *
@@ -65,6 +78,34 @@ public interface ObjectStore
     boolean replaceObject(String pid, InputStream source)
             throws FaultException;
 
+    /**
+     * Creates an empty temporary file that a replacement for a digital
+     * object in the store can be written to, so it can then be committed
+     * with {@link #replaceObject(String, File)} without being copied.
+     *
+     * @param pid the pid of the object to be replaced.
+     * @return the temporary file, or null if the object is not found.
+     * @throws FaultException if the object existed, but the file could
+     *                        not be created for any reason.
+     */
+    File createTempFile(String pid)
+            throws FaultException;
+
+    /**
+     * Replaces a digital object in the store, given a temporary file
+     * obtained from {@link #createTempFile(String)}.
+     *
+     * @param pid the pid of the object to replace.
+     * @param temp the file containing the serialized object.  It will be
+     *             moved into place or deleted when finished, regardless of
+     *             whether this method ultimately succeeds or fails.
+     * @return whether the object existed and was therefore replaced.
+     * @throws FaultException if the object existed, but could not
+     *                        be overwritten for any reason.
+     */
+    boolean replaceObject(String pid, File temp)
+            throws FaultException;
+
     /**
      * Releases any resources allocated by this object.
      */
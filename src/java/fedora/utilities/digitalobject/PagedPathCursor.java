@@ -0,0 +1,263 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Reads a range of the <code>objectPaths</code> table in token order, a
+ * page at a time.
+ *
+ * <p>Each page is read with its own short query, of the form
+ * <code>WHERE token &gt; <i>last</i> ORDER BY token</code>, limited to the
+ * page size, on a connection that's given back to the pool as soon as the
+ * page has been read.  No cursor, transaction or connection is held
+ * between pages, so the scan can run for hours without holding locks, and
+ * can be resumed from the last token seen.</p>
+ *
+ * @author Chris Wilper
+ */
+class PagedPathCursor
+        implements ObjectPathCursor {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(PagedPathCursor.class);
+
+    /** The pool to get connections from. */
+    private final ConnectionPool m_pool;
+
+    /** The maximum number of rows to read per query. */
+    private final int m_pageSize;
+
+    /** The last token of the range, inclusive, or null if unbounded. */
+    private final String m_toToken;
+
+    /** The rows of the current page, each a token and a path. */
+    private final List<String[]> m_page;
+
+    /** The index of the current row in the page, or -1 before the first. */
+    private int m_index;
+
+    /** The last token read, or null if none yet. */
+    private String m_lastToken;
+
+    /** Whether the last page has been read. */
+    private boolean m_lastPage;
+
+    /**
+     * Creates a cursor over a range of tokens.
+     *
+     * @param pool the pool to get connections from.
+     * @param pageSize the maximum number of rows to read per query.
+     * @param fromToken the token to start after, or null to start at the
+     *        first.
+     * @param toToken the last token of the range, inclusive, or null to
+     *        continue to the end of the table.
+     */
+    PagedPathCursor(ConnectionPool pool,
+                    int pageSize,
+                    String fromToken,
+                    String toToken) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        m_pool = pool;
+        m_pageSize = pageSize;
+        m_lastToken = fromToken;
+        m_toToken = toToken;
+        m_page = new ArrayList<String[]>(pageSize);
+        m_index = -1;
+        LOG.info("Reading objectPaths " + pageSize + " rows at a time, "
+                + "after " + (fromToken == null ? "the start" : fromToken)
+                + " through " + (toToken == null ? "the end" : toToken));
+    }
+
+    /**
+     * Gets the last token read, from which a later scan could resume.
+     *
+     * @return the token, or the token the scan started after if none have
+     *         been read yet.
+     */
+    String getLastToken() {
+        return m_lastToken;
+    }
+
+    //---
+    // ObjectPathCursor implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() {
+        if (m_index + 1 >= m_page.size()) {
+            if (m_lastPage) {
+                return false;
+            }
+            readPage();
+            if (m_page.isEmpty()) {
+                return false;
+            }
+        }
+        m_index++;
+        m_lastToken = m_page.get(m_index)[0];
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getToken() {
+        return m_page.get(m_index)[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPath() {
+        return m_page.get(m_index)[1];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        // nothing is held between pages
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private void readPage() {
+        m_page.clear();
+        m_index = -1;
+        Connection conn = m_pool.getConnection();
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            st = conn.prepareStatement(getQuery(m_lastToken, m_toToken));
+            int i = 1;
+            if (m_lastToken != null) {
+                st.setString(i++, m_lastToken);
+            }
+            if (m_toToken != null) {
+                st.setString(i++, m_toToken);
+            }
+            st.setMaxRows(m_pageSize);
+            st.setFetchSize(m_pageSize);
+            results = st.executeQuery();
+            while (results.next()) {
+                m_page.add(new String[] {results.getString(1),
+                                         results.getString(2)});
+            }
+            m_lastPage = m_page.size() < m_pageSize;
+            LOG.debug("Read " + m_page.size() + " rows after " + m_lastToken);
+        } catch (SQLException e) {
+            throw new FaultException("Error getting page of paths from "
+                    + "database after " + m_lastToken, e);
+        } finally {
+            RepoUtil.close(results);
+            RepoUtil.close(st);
+            m_pool.release(conn);
+        }
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    /**
+     * Finds tokens that split the <code>objectPaths</code> table into
+     * ranges of about equal size, e.g. for parallel scans.  Range
+     * <i>i</i> runs from just after split <i>i - 1</i> through split
+     * <i>i</i>; the first starts at the beginning of the table and the last
+     * runs to the end.
+     *
+     * <p>The tokens are read a range at a time, in the same way as pages,
+     * so no long-lived cursor is held.</p>
+     *
+     * @param pool the pool to get connections from.
+     * @param parts the number of ranges wanted.
+     * @return the splits, in order: one fewer than the number of ranges,
+     *         which may be less than the number wanted if the table is
+     *         small.
+     * @throws FaultException if the database can't be queried.
+     */
+    static List<String> getSplitTokens(ConnectionPool pool, int parts)
+            throws FaultException {
+        List<String> splits = new ArrayList<String>();
+        Connection conn = pool.getConnection();
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            int count = RepoUtil.countObjectPaths(conn);
+            if (parts < 2 || count < parts) {
+                return splits;
+            }
+            int step = (count + parts - 1) / parts;
+            String last = null;
+            for (int i = 1; i < parts; i++) {
+                st = conn.prepareStatement("SELECT token FROM objectPaths"
+                        + getRange(last, null) + " ORDER BY token");
+                if (last != null) {
+                    st.setString(1, last);
+                }
+                st.setMaxRows(step);
+                st.setFetchSize(step);
+                results = st.executeQuery();
+                String split = null;
+                while (results.next()) {
+                    split = results.getString(1);
+                }
+                RepoUtil.close(results);
+                RepoUtil.close(st);
+                if (split == null) {
+                    break;
+                }
+                splits.add(split);
+                last = split;
+            }
+            return splits;
+        } catch (SQLException e) {
+            throw new FaultException("Error splitting objectPaths", e);
+        } finally {
+            RepoUtil.close(results);
+            RepoUtil.close(st);
+            pool.release(conn);
+        }
+    }
+
+    // gets the query for a page of token, path pairs in token order; the
+    // limit is set on the statement since its syntax varies by database
+    private static String getQuery(String fromToken, String toToken) {
+        return "SELECT token, path FROM objectPaths"
+                + getRange(fromToken, toToken) + " ORDER BY token";
+    }
+
+    // gets the where clause for the given range, if any
+    private static String getRange(String fromToken, String toToken) {
+        if (fromToken != null && toToken != null) {
+            return " WHERE token > ? AND token <= ?";
+        } else if (fromToken != null) {
+            return " WHERE token > ?";
+        } else if (toToken != null) {
+            return " WHERE token <= ?";
+        } else {
+            return "";
+        }
+    }
+
+}
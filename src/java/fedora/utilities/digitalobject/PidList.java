@@ -0,0 +1,530 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * A sorted list of pids, in a compact binary form that loads without
+ * parsing.
+ *
+ * <p>The analyzer writes lists of pids as text, one per line, for people
+ * to read and edit; for each it also writes this form, in a file of the
+ * same name ending in <code>.bin</code> rather than <code>.txt</code>.
+ * Pids are sorted and deduplicated, then stored in blocks of
+ * {@link #BLOCK_SIZE}, each pid as the length of the prefix it shares with
+ * the one before it in the block, followed by the rest in UTF-8.  An index
+ * of block offsets allows membership to be tested by binary search, and
+ * the list to be split at block boundaries for parallel workers.  The
+ * file ends with a CRC-32 of everything before it, and is written to a
+ * temporary file and renamed into place, so it's never seen
+ * half-written.</p>
+ *
+ * <p>Only a block at a time is decoded, so the list takes little more
+ * heap than the file itself.  Immutable and threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class PidList
+        implements Iterable<String> {
+
+    /** The end of the names of files with pid lists in binary form. */
+    public static final String BINARY_SUFFIX = ".bin";
+
+    /** The number of pids in each block; 64. */
+    public static final int BLOCK_SIZE = 64;
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(PidList.class);
+
+    /** The first four bytes of the binary form; "CMPL". */
+    private static final int MAGIC = 0x434D504C;
+
+    /** The version of the binary form. */
+    private static final int VERSION = 1;
+
+    /** The size of the magic number, version, count and block count. */
+    private static final int HEADER_SIZE = 16;
+
+    /** The size of the checksum at the end. */
+    private static final int TRAILER_SIZE = 4;
+
+    /** The character encoding of pids in both forms. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The content of the file. */
+    private final ByteBuffer m_buffer;
+
+    /** The number of pids. */
+    private final int m_count;
+
+    /** The number of blocks. */
+    private final int m_blockCount;
+
+    /**
+     * Creates an instance over the binary form.
+     *
+     * @param buffer the content of the file.
+     * @param file the file, for error messages.
+     * @throws FaultException if the content isn't in the binary form, or
+     *         fails its checksum.
+     */
+    private PidList(ByteBuffer buffer, File file)
+            throws FaultException {
+        m_buffer = buffer.slice();
+        int size = m_buffer.limit();
+        if (size < HEADER_SIZE + TRAILER_SIZE
+                || m_buffer.getInt(0) != MAGIC
+                || m_buffer.getInt(4) != VERSION) {
+            throw new FaultException("Not a version " + VERSION
+                    + " binary pid list: " + file.getPath());
+        }
+        m_count = m_buffer.getInt(8);
+        m_blockCount = m_buffer.getInt(12);
+        if (m_count < 0 || m_blockCount != blocksFor(m_count)
+                || HEADER_SIZE + m_blockCount * 4L + TRAILER_SIZE > size) {
+            throw new FaultException("Corrupt binary pid list: "
+                    + file.getPath());
+        }
+        if (checksum(m_buffer, size - TRAILER_SIZE)
+                != m_buffer.getInt(size - TRAILER_SIZE)) {
+            throw new FaultException("Checksum mismatch in binary pid list: "
+                    + file.getPath());
+        }
+    }
+
+    /**
+     * Reads a list in binary form.
+     *
+     * @param file the file.
+     * @return the list.
+     * @throws FaultException if the file can't be read, isn't in the binary
+     *         form, or fails its checksum.
+     */
+    public static PidList read(File file)
+            throws FaultException {
+        try {
+            return new PidList(FileUtil.readFile(file), file);
+        } catch (IOException e) {
+            throw new FaultException("Error reading binary pid list: "
+                    + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Reads the binary form of a list given as text, if it's up to date.
+     *
+     * @param textFile the text form.
+     * @return the list, or null if there's no binary form, the text has
+     *         been changed since it was written, or it can't be read or is
+     *         corrupt, which is logged.
+     */
+    public static PidList forText(File textFile) {
+        File file = getBinaryFile(textFile);
+        if (file.exists() && file.lastModified() >= textFile.lastModified()) {
+            try {
+                return read(file);
+            } catch (FaultException e) {
+                LOG.warn("Ignoring binary pid list; reading "
+                        + textFile.getPath() + " instead", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the file for the binary form of a list given as text.
+     *
+     * @param textFile the text form.
+     * @return the file of the same name, with <code>.txt</code> replaced by
+     *         (or if absent, followed by) <code>.bin</code>.
+     */
+    public static File getBinaryFile(File textFile) {
+        String name = textFile.getName();
+        if (name.endsWith(".txt")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(textFile.getParentFile(), name + BINARY_SUFFIX);
+    }
+
+    /**
+     * Reads the pids from a list given as text.  Blank lines and those
+     * starting with <code>#</code> are left out.
+     *
+     * @param textFile the text form, in UTF-8.
+     * @return the pids, in the order given.
+     * @throws FaultException if the file can't be read.
+     */
+    public static List<String> readText(File textFile)
+            throws FaultException {
+        List<String> pids = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(textFile), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    pids.add(line);
+                }
+            }
+            return pids;
+        } catch (IOException e) {
+            throw new FaultException("Error reading from pid file: "
+                    + textFile.getPath(), e);
+        } finally {
+            FileUtil.close(reader);
+        }
+    }
+
+    /**
+     * Writes the binary form of a list given as text, next to it.
+     *
+     * @param textFile the text form, in UTF-8.
+     * @throws FaultException if either file can't be read or written.
+     */
+    public static void writeBinary(File textFile)
+            throws FaultException {
+        write(readText(textFile), getBinaryFile(textFile));
+    }
+
+    /**
+     * Writes pids in binary form.
+     *
+     * @param pids the pids, in any order, possibly with duplicates.
+     * @param file the file to write.
+     * @throws FaultException if the file can't be written.
+     */
+    public static void write(Collection<String> pids, File file)
+            throws FaultException {
+        List<String> sorted = new ArrayList<String>(pids);
+        Collections.sort(sorted);
+        File temp = FileUtil.createTempFile(file);
+        boolean committed = false;
+        DataOutputStream out = null;
+        try {
+            // blocks are encoded first, so the index can precede them
+            ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+            List<Integer> offsets = new ArrayList<Integer>();
+            String prev = null;
+            int inBlock = BLOCK_SIZE;
+            for (String pid : sorted) {
+                if (pid.equals(prev)) {
+                    continue;
+                }
+                int shared = 0;
+                if (inBlock == BLOCK_SIZE) {
+                    offsets.add(new Integer(blocks.size()));
+                    inBlock = 0;
+                } else {
+                    shared = sharedPrefix(prev, pid);
+                }
+                byte[] rest = pid.substring(shared).getBytes(UTF8);
+                writeVarInt(blocks, shared);
+                writeVarInt(blocks, rest.length);
+                blocks.write(rest);
+                inBlock++;
+                prev = pid;
+            }
+            int count = (offsets.size() - 1) * BLOCK_SIZE + inBlock;
+            if (offsets.isEmpty()) {
+                count = 0;
+            }
+            CRC32 crc = new CRC32();
+            out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)),
+                    crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(offsets.size());
+            int dataStart = HEADER_SIZE + offsets.size() * 4;
+            for (Integer offset : offsets) {
+                out.writeInt(dataStart + offset.intValue());
+            }
+            blocks.writeTo(out);
+            out.writeInt((int) crc.getValue());
+            out.close();
+            out = null;
+            FileUtil.commitFile(temp, file, false);
+            committed = true;
+        } catch (IOException e) {
+            throw new FaultException("Error writing binary pid list: "
+                    + file.getPath(), e);
+        } finally {
+            FileUtil.close(out);
+            if (!committed && temp.exists() && !temp.delete()) {
+                LOG.warn("Unable to delete " + temp.getPath());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of pids.
+     *
+     * @return the number.
+     */
+    public int size() {
+        return m_count;
+    }
+
+    /**
+     * Tells whether a pid is in the list.
+     *
+     * @param pid the pid.
+     * @return whether it is.
+     */
+    public boolean contains(String pid) {
+        int block = findBlock(pid);
+        if (block < 0) {
+            return false;
+        }
+        for (String member : decodeBlock(block)) {
+            int c = member.compareTo(pid);
+            if (c == 0) {
+                return true;
+            } else if (c > 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets those of the given pids that are in the list.
+     *
+     * @param pids the pids.
+     * @return those in the list, sorted.
+     */
+    public List<String> retain(Collection<String> pids) {
+        List<String> members = new ArrayList<String>();
+        for (String pid : pids) {
+            if (contains(pid)) {
+                members.add(pid);
+            }
+        }
+        Collections.sort(members);
+        return members;
+    }
+
+    /**
+     * Splits the list into about equal parts, at block boundaries, so
+     * each may be iterated by a different thread.
+     *
+     * @param parts the most parts wanted.
+     * @return the parts, in order; fewer than asked for if there are fewer
+     *         blocks, and one if the list is empty.
+     */
+    public List<Iterable<String>> split(int parts) {
+        int n = Math.max(1, Math.min(parts, m_blockCount));
+        List<Iterable<String>> ranges = new ArrayList<Iterable<String>>(n);
+        for (int i = 0; i < n; i++) {
+            ranges.add(new BlockRange((int) ((long) m_blockCount * i / n),
+                    (int) ((long) m_blockCount * (i + 1) / n)));
+        }
+        return ranges;
+    }
+
+    /**
+     * Iterates the pids, in sorted order.
+     *
+     * @return the iterator.
+     */
+    public Iterator<String> iterator() {
+        return new BlockRange(0, m_blockCount).iterator();
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // gets the last block whose first pid is no greater than the given
+    // one, or -1 if there's none
+    private int findBlock(String pid) {
+        int low = 0;
+        int high = m_blockCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ByteBuffer in = m_buffer.duplicate();
+            in.position(m_buffer.getInt(HEADER_SIZE + mid * 4));
+            if (decodeNext(in, "").compareTo(pid) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // decodes all pids in the given block
+    private String[] decodeBlock(int block) {
+        String[] pids = new String[Math.min(BLOCK_SIZE,
+                                            m_count - block * BLOCK_SIZE)];
+        ByteBuffer in = m_buffer.duplicate();
+        in.position(m_buffer.getInt(HEADER_SIZE + block * 4));
+        String prev = "";
+        for (int i = 0; i < pids.length; i++) {
+            prev = decodeNext(in, prev);
+            pids[i] = prev;
+        }
+        return pids;
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    // decodes the pid at the buffer's position, advancing past it
+    private static String decodeNext(ByteBuffer in, String prev) {
+        int shared = readVarInt(in);
+        byte[] rest = new byte[readVarInt(in)];
+        in.get(rest);
+        return prev.substring(0, shared) + new String(rest, UTF8);
+    }
+
+    // gets the number of leading chars two strings share, short of
+    // splitting a surrogate pair
+    private static int sharedPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i > 0 && Character.isHighSurrogate(b.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    // gets the number of blocks needed for the given number of pids
+    private static int blocksFor(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // writes an unsigned int in 7-bit groups, low group first
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // reads an unsigned int written by writeVarInt
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // gets the CRC-32 of the first length bytes of the buffer
+    private static int checksum(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer in = buffer.duplicate();
+        in.position(0);
+        byte[] chunk = new byte[FileUtil.TRANSFER_BUFFER_SIZE];
+        int remaining = length;
+        while (remaining > 0) {
+            int n = Math.min(chunk.length, remaining);
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return (int) crc.getValue();
+    }
+
+    //---
+    // Nested classes
+    //---
+
+    /**
+     * The pids in a range of blocks.
+     */
+    private class BlockRange
+            implements Iterable<String> {
+
+        /** The first block. */
+        private final int m_from;
+
+        /** The block after the last. */
+        private final int m_to;
+
+        /**
+         * Creates an instance.
+         *
+         * @param from the first block.
+         * @param to the block after the last.
+         */
+        BlockRange(int from, int to) {
+            m_from = from;
+            m_to = to;
+        }
+
+        /**
+         * Iterates the pids in the range, decoding a block at a time.
+         *
+         * @return the iterator.
+         */
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int m_block = m_from;
+                private String[] m_pids = new String[0];
+                private int m_next;
+                public boolean hasNext() {
+                    while (m_next == m_pids.length && m_block < m_to) {
+                        m_pids = decodeBlock(m_block++);
+                        m_next = 0;
+                    }
+                    return m_next < m_pids.length;
+                }
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return m_pids[m_next++];
+                }
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * A durable record of the objects whose replacements are safely on disk,
+ * kept so an interrupted run can be resumed without redoing them.
+ *
+ * <p>Each line holds the pid of one object.  Lines starting with
+ * <code>#</code> are comments.  Entries are forced to disk as they're
+ * recorded, and only after the objects themselves are, so every pid in the
+ * journal survives a crash along with its object.</p>
+ *
+ * @author Chris Wilper
+ */
+public class ProgressJournal {
+
+    /** The character encoding of the journal. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The file being written. */
+    private final File m_file;
+
+    /** The stream for the file, to force it to disk. */
+    private final FileOutputStream m_out;
+
+    /** The writer for the file. */
+    private final PrintWriter m_writer;
+
+    /** The number of pids recorded so far. */
+    private int m_count;
+
+    /**
+     * Opens a journal for writing.
+     *
+     * @param file the file to write.
+     * @param append whether to add to the file, e.g. when resuming, rather
+     *        than replacing it.
+     * @throws FaultException if the file can't be opened for writing.
+     */
+    public ProgressJournal(File file, boolean append)
+            throws FaultException {
+        m_file = file;
+        if (append) {
+            dropPartialLine(file);
+        }
+        try {
+            m_out = new FileOutputStream(file, append);
+            m_writer = new PrintWriter(new OutputStreamWriter(m_out,
+                                                              ENCODING));
+        } catch (IOException e) {
+            throw new FaultException("Error opening " + file.getPath()
+                    + " for writing", e);
+        }
+        if (!append || file.length() == 0) {
+            m_writer.println("# Objects durably replaced, one pid per line");
+            m_writer.flush();
+        }
+    }
+
+    /**
+     * Records the given pids and forces them to disk.
+     *
+     * @param pids the pids of objects whose replacements are on disk.
+     * @throws FaultException if the journal can't be written.
+     */
+    public synchronized void record(List<String> pids)
+            throws FaultException {
+        for (String pid : pids) {
+            m_writer.println(pid);
+        }
+        m_writer.flush();
+        if (m_writer.checkError()) {
+            throw new FaultException("Error writing " + m_file.getPath());
+        }
+        try {
+            m_out.getFD().sync();
+        } catch (IOException e) {
+            throw new FaultException("Error syncing " + m_file.getPath(), e);
+        }
+        m_count += pids.size();
+    }
+
+    /**
+     * Gets the number of pids recorded so far.
+     *
+     * @return the number.
+     */
+    public synchronized int getCount() {
+        return m_count;
+    }
+
+    /**
+     * Gets the file being written.
+     *
+     * @return the file.
+     */
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Closes the journal.
+     */
+    public synchronized void close() {
+        m_writer.close();
+    }
+
+    /**
+     * Reads the pids recorded in a journal by an earlier run.  A last line
+     * without a line terminator, left by a crash partway through a write,
+     * is ignored.
+     *
+     * @param file the journal.
+     * @return the pids, in the order they were recorded, or an empty set if
+     *         the journal doesn't exist.
+     * @throws FaultException if the journal can't be read.
+     */
+    public static Set<String> readPids(File file)
+            throws FaultException {
+        Set<String> pids = new LinkedHashSet<String>();
+        if (!file.exists()) {
+            return pids;
+        }
+        Reader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), ENCODING));
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    String pid = line.toString().trim();
+                    if (pid.length() > 0 && !pid.startsWith("#")) {
+                        pids.add(pid);
+                    }
+                    line.setLength(0);
+                } else {
+                    line.append((char) c);
+                }
+            }
+            return pids;
+        } catch (IOException e) {
+            throw new FaultException("Error reading " + file.getPath(), e);
+        } finally {
+            FileUtil.close(reader);
+        }
+    }
+
+    // truncates an unterminated last line, left by a crash partway
+    // through a write, so entries appended later aren't joined to it
+    private static void dropPartialLine(File file)
+            throws FaultException {
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < raf.length()) {
+                raf.setLength(end);
+            }
+        } catch (IOException e) {
+            throw new FaultException("Error repairing " + file.getPath(), e);
+        } finally {
+            FileUtil.close(raf);
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -40,6 +41,9 @@ import org.fcrepo.server.storage.types.DigitalObject;
 
 import fedora.utilities.file.DriverShim;
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
+import fedora.utilities.metrics.TimedInputStream;
 
 /**
  * Utility methods for working with a local Fedora repository.
@@ -55,31 +59,43 @@ public abstract class RepoUtil {
     private static final int INSERT_BATCH_SIZE = 1000;
 
     /**
-     * Deserializes a digital object from a file.
+     * Deserializes a digital object from a file.  The file is read into
+     * memory or mapped, and closed, before deserialization starts.
      *
      * @param deserializer the deserializer to use.
      * @param file the serialized object.
      * @return the object.
-     * @throws FaultException if the file can't be read or deserialized.
+     * @throws ObjectReadException if the file can't be read or deserialized.
      */
     public static DigitalObject readObject(DODeserializer deserializer,
             File file)
-            throws FaultException {
+            throws ObjectReadException {
         DigitalObject obj = null;
         Exception error = null;
+        InputStream in = null;
+        long start = Metrics.start(Stage.DESERIALIZE);
         try {
+            in = FileUtil.openFile(file);
+            TimedInputStream timed = null;
+            if (Metrics.isEnabled()) {
+                timed = new TimedInputStream(in);
+                in = timed;
+            }
             obj = new BasicDigitalObject();
             deserializer.deserialize(
-                    new FileInputStream(file), obj, "UTF-8",
+                    in, obj, "UTF-8",
                     DOTranslationUtility.DESERIALIZE_INSTANCE);
+            if (timed != null) {
+                timed.stop(Stage.DESERIALIZE, start, obj.getPid());
+            }
         } catch (IOException e) {
             error = e;
         } catch (ServerException e) {
             error = e;
         } finally {
+            FileUtil.close(in);
             if (error != null) {
-                throw new FaultException("Error deserializing from "
-                        + file.getPath(), error);
+                throw new ObjectReadException(null, file, error);
             }
         }
         return obj;
@@ -96,13 +112,35 @@ public abstract class RepoUtil {
     public static void writeObject(DOSerializer serializer, DigitalObject obj,
             File file)
             throws FaultException {
+        writeObject(serializer, obj, file,
+                DOTranslationUtility.SERIALIZE_EXPORT_MIGRATE);
+    }
+
+    /**
+     * Serializes a digital object to a file in the given translation
+     * context.
+     *
+     * @param serializer the serializer to use.
+     * @param obj the object to serialize.
+     * @param file the file to write to.
+     * @param transContext the <code>DOTranslationUtility</code> serialization
+     *        context, e.g. <code>SERIALIZE_STORAGE_INTERNAL</code> to write
+     *        the object as it's kept in the object store.
+     * @throws FaultException if the file can't be written or serialized.
+     */
+    public static void writeObject(DOSerializer serializer, DigitalObject obj,
+            File file, int transContext)
+            throws FaultException {
         FileOutputStream out = null;
         Exception error = null;
+        long start = Metrics.start(Stage.WRITE);
         try {
             out = new FileOutputStream(file);
             serializer.getInstance().serialize(
-                    obj, out, "UTF-8",
-                    DOTranslationUtility.SERIALIZE_EXPORT_MIGRATE);
+                    obj, out, "UTF-8", transContext);
+            if (Metrics.isEnabled()) {
+                Metrics.stop(Stage.WRITE, start, obj.getPid(), file.length());
+            }
         } catch (ServerException e) {
             error = e;
         } catch (IOException e) {
@@ -231,6 +269,25 @@ public abstract class RepoUtil {
         return getRequiredFileParam(llConfig, "object_store_base", fedoraHome);
     }
 
+    /**
+     * Gets the datastream store base directory from the server
+     * configuration.
+     *
+     * @param serverConfig the server configuration.
+     * @param fedoraHome the directory to use to make the path absolute
+     *        if it's specified as relative to FEDORA_HOME.
+     * @return the directory.
+     */
+    public static File getDatastreamStoreBase(
+            ServerConfiguration serverConfig, File fedoraHome) {
+        ModuleConfiguration llConfig =
+                getRequiredModuleConfig(serverConfig,
+                "org.fcrepo.server.storage.lowlevel.ILowlevelStorage",
+                "org.fcrepo.server.storage.lowlevel.DefaultLowlevelStorageModule");
+        return getRequiredFileParam(llConfig, "datastream_store_base",
+                fedoraHome);
+    }
+
     /**
      * Reads the server configuration at
      * <code>FEDORA_HOME/server/config/fedora.fcfg</code>.
@@ -378,7 +435,13 @@ public abstract class RepoUtil {
         }
     }
 
-    private static int countObjectPaths(Connection conn) {
+    /**
+     * Counts the rows of the <code>objectPaths</code> table.
+     *
+     * @param conn the connection to use.
+     * @return the number of rows.
+     */
+    public static int countObjectPaths(Connection conn) {
         Statement st = null;
         try {
             st = conn.createStatement();
@@ -393,7 +456,16 @@ public abstract class RepoUtil {
         }
     }
 
-    private static void initJDBC(String jdbcDriverClass, File jdbcJar) {
+    /**
+     * Ensures the given JDBC driver is registered with the
+     * <code>DriverManager</code>.
+     *
+     * @param jdbcDriverClass the driver class name.
+     * @param jdbcJar the JDBC jar file containing the driver to register,
+     *        or null if the jar is already expected to be in the classpath.
+     * @throws FaultException if the driver can't be found.
+     */
+    public static void initJDBC(String jdbcDriverClass, File jdbcJar) {
         if (jdbcJar == null) {
             try {
                 Class.forName(jdbcDriverClass);
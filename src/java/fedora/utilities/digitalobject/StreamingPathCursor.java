@@ -0,0 +1,151 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.digitalobject;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+/**
+ * Reads all of the <code>objectPaths</code> table with a single query,
+ * streaming the results where the database supports it.
+ *
+ * <p>A connection and transaction are held until the last row has been
+ * read.</p>
+ *
+ * @author Chris Wilper
+ */
+class StreamingPathCursor
+        implements ObjectPathCursor {
+
+    /** The query to get all token, path pairs. */
+    private static final String QUERY = "SELECT token, path FROM objectPaths";
+
+    /** The default fetch size to use when running the query. */
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /** The fetch size to use when running the query, if MySQL is being used. */
+    private static final int MYSQL_FETCH_SIZE = Integer.MIN_VALUE;
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(
+            StreamingPathCursor.class);
+
+    /** The pool the connection was got from. */
+    private final ConnectionPool m_pool;
+
+    /** The database connection to use. */
+    private final Connection m_conn;
+
+    /** The statement the query was run with. */
+    private Statement m_st;
+
+    /** The result set to be iterated over. */
+    private final ResultSet m_results;
+
+    /** Whether the connection has been given back to the pool. */
+    private boolean m_released;
+
+    /**
+     * Runs the query.
+     *
+     * @param pool the pool to get a connection from.  It's given back when
+     *        the last row has been read.
+     * @throws FaultException if the query fails.
+     */
+    StreamingPathCursor(ConnectionPool pool)
+            throws FaultException {
+        m_pool = pool;
+        m_conn = pool.getConnection();
+        m_results = executeQuery();
+    }
+
+    //---
+    // ObjectPathCursor implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() {
+        if (m_released) {
+            return false;
+        }
+        try {
+            if (m_results.next()) {
+                return true;
+            }
+        } catch (SQLException e) {
+            close();
+            throw new FaultException("Error getting next path from "
+                    + "database", e);
+        }
+        close();
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getToken() {
+        try {
+            return m_results.getString("token");
+        } catch (SQLException e) {
+            throw new FaultException("Error getting token from result set", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getPath() {
+        try {
+            return m_results.getString("path");
+        } catch (SQLException e) {
+            throw new FaultException("Error getting path from result set", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() {
+        if (!m_released) {
+            m_released = true;
+            RepoUtil.close(m_results);
+            RepoUtil.close(m_st);
+            m_pool.release(m_conn);
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private ResultSet executeQuery() {
+        try {
+            m_conn.setAutoCommit(false);
+            m_st = m_conn.createStatement(
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            int fetchSize = DEFAULT_FETCH_SIZE;
+            if (RepoUtil.isMySQL(m_conn)) {
+                fetchSize = MYSQL_FETCH_SIZE;
+            }
+            m_st.setFetchSize(fetchSize);
+            LOG.info("Executing query (fetchSize=" + fetchSize + "): "
+                    + QUERY);
+            return m_st.executeQuery(QUERY);
+        } catch (SQLException e) {
+            close();
+            throw new FaultException("Error querying database", e);
+        }
+    }
+
+}
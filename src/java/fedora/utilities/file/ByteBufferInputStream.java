@@ -0,0 +1,143 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An input stream that reads the remaining bytes of a buffer, such as a
+ * file that's been read into memory or mapped.
+ *
+ * <p>No system calls are made to read from the stream, and closing it
+ * only drops the reference to the buffer.  Not threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+public class ByteBufferInputStream
+        extends InputStream {
+
+    /** The buffer being read, or null once closed. */
+    private ByteBuffer m_buffer;
+
+    /**
+     * Creates an instance that reads from the current position of the
+     * given buffer to its limit.
+     *
+     * @param buffer the buffer.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        m_buffer = buffer;
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer to a channel, without
+     * copying them through an array.
+     *
+     * @param channel the channel to write to.
+     * @return the number of bytes written.
+     * @throws IOException if the channel can't be written.
+     */
+    public long writeTo(WritableByteChannel channel)
+            throws IOException {
+        if (m_buffer == null) {
+            return 0;
+        }
+        long count = 0;
+        while (m_buffer.hasRemaining()) {
+            count += channel.write(m_buffer);
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() {
+        if (m_buffer == null || !m_buffer.hasRemaining()) {
+            return -1;
+        }
+        return m_buffer.get() & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (m_buffer == null || !m_buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, m_buffer.remaining());
+        m_buffer.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) {
+        if (m_buffer == null || n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, m_buffer.remaining());
+        m_buffer.position(m_buffer.position() + skipped);
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int available() {
+        return m_buffer == null ? 0 : m_buffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void mark(int readLimit) {
+        if (m_buffer != null) {
+            m_buffer.mark();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void reset() {
+        if (m_buffer != null) {
+            m_buffer.reset();
+        }
+    }
+
+    /**
+     * Drops the reference to the buffer, so it can be reclaimed even if
+     * the stream can't yet.
+     */
+    @Override
+    public void close() {
+        m_buffer = null;
+    }
+
+}
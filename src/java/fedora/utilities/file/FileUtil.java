@@ -4,9 +4,11 @@
  */
 package fedora.utilities.file;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,6 +16,15 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.log4j.Logger;
 
@@ -29,12 +40,41 @@ public abstract class FileUtil {
     /** Buffer size, in bytes, for reads/writes; 4096. */
     public static final int READ_BUFFER_SIZE = 4096;
 
+    /**
+     * Size, in bytes, above which {@link #openFile(File)} maps a file
+     * rather than reading it into memory; 1MB.
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Buffer size, in bytes, for copying from streams that aren't backed by
+     * a file or buffer into a channel; 65536.
+     */
+    public static final int TRANSFER_BUFFER_SIZE = 65536;
+
     /** Logger for this class. */
     private static final Logger LOG = Logger.getLogger(FileUtil.class);
 
     /** System-dependent line separator. */
     private static final String CR = System.getProperty("line.separator");
 
+    /**
+     * Whether files may be mapped; not on Windows, where a mapped file
+     * can't be replaced until the mapping is garbage collected.
+     */
+    private static final boolean CAN_MAP =
+            !System.getProperty("os.name", "").startsWith("Windows");
+
+    /**
+     * File.toPath, FileChannel.open(Path, OpenOption...) and the options to
+     * open a directory with, or null before Java 7 or on Windows, where
+     * directories can't be opened.
+     */
+    private static final Object[] DIRECTORY_OPENER = getDirectoryOpener();
+
+    /** Whether it's been logged that renames can't be forced to disk. */
+    private static volatile boolean s_warnedNoDirectorySync;
+
     /**
      * Removes all files (and optionally, directories) within the given
      * directory.
@@ -73,12 +113,12 @@ public abstract class FileUtil {
      * @throws FaultException if the operation failed due to an I/O error.
      */
     public static void writeFile(InputStream source, File file) {
-        OutputStream sink = null;
+        FileOutputStream sink = null;
         try {
             sink = new FileOutputStream(file);
-            sendBytes(source, sink);
+            transfer(source, sink.getChannel());
         } catch (IOException e) {
-            throw new FaultException("Error opening file for writing: "
+            throw new FaultException("Error writing file: "
                     + file.getPath(), e);
         } finally {
             close(source);
@@ -86,6 +126,215 @@ public abstract class FileUtil {
         }
     }
 
+    /**
+     * Replaces the given file with the content of the given stream, such
+     * that the file holds either its old or its new content, even if the
+     * process or system stops partway.
+     *
+     * <p>The content is written to a temporary file in the same directory,
+     * which is then renamed over the file.  See
+     * {@link #commitFile(File, File, boolean)}.  The stream is closed
+     * when this method returns, whether it was successful or not.</p>
+     *
+     * @param source the stream to read from.
+     * @param file the file to replace or create.
+     * @param sync whether to force the content to disk before renaming,
+     *        and the rename after.
+     * @throws FaultException if the operation failed due to an I/O error.
+     */
+    public static void replaceFile(InputStream source, File file, boolean sync)
+            throws FaultException {
+        File temp = createTempFile(file);
+        boolean handedOff = false;
+        try {
+            FileOutputStream sink = new FileOutputStream(temp);
+            try {
+                transfer(source, sink.getChannel());
+                if (sync) {
+                    sink.getChannel().force(true);
+                }
+            } finally {
+                close(sink);
+            }
+            // from here on, commitFile decides whether the temp file goes
+            handedOff = true;
+            commitFile(temp, file, false);
+            if (sync) {
+                syncParent(file);
+            }
+        } catch (IOException e) {
+            throw new FaultException("Error replacing file: "
+                    + file.getPath(), e);
+        } finally {
+            close(source);
+            if (!handedOff) {
+                deleteTempFile(temp);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in the same directory as the given
+     * one, to be written and then moved into its place with
+     * {@link #commitFile(File, File, boolean)}.
+     *
+     * @param file the file that will be replaced or created.
+     * @return the temporary file.
+     * @throws FaultException if the file can't be created.
+     */
+    public static File createTempFile(File file)
+            throws FaultException {
+        try {
+            return File.createTempFile("." + file.getName() + ".", ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+        } catch (IOException e) {
+            throw new FaultException("Error creating temporary file for: "
+                    + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Moves a temporary file into the place of another, replacing it.
+     *
+     * <p>Where the platform allows (not on Windows), the file is renamed
+     * over its target in one step, so readers see either the old or the new
+     * content.  Otherwise the target is first renamed aside, and deleted
+     * once the temporary file is in its place, or renamed back if that
+     * fails.  To survive a crash, the temporary file's content should be on
+     * disk before it's renamed, and the directory after; pass
+     * <code>sync</code> for both.  Where directories can't be forced (see
+     * {@link #syncDirectory(File)}), a warning is logged once, and the
+     * rename may be lost.  The temporary file is deleted if it can't be
+     * moved, unless the target can't be put back either; then both are
+     * kept, and the exception names them.</p>
+     *
+     * @param temp the temporary file, in the same directory as the target.
+     * @param file the file to replace or create.
+     * @param sync whether to force the temporary file's content to disk
+     *        first, and the rename after.
+     * @throws FaultException if the file can't be moved, or with
+     *         <code>sync</code>, forced.
+     */
+    public static void commitFile(File temp, File file, boolean sync)
+            throws FaultException {
+        try {
+            if (sync) {
+                sync(temp);
+            }
+            if (!temp.renameTo(file)) {
+                replaceInSteps(temp, file);
+            }
+            if (sync) {
+                syncParent(file);
+            }
+        } catch (IOException e) {
+            deleteTempFile(temp);
+            throw new FaultException("Error replacing file: "
+                    + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Forces the content of a file to disk.
+     *
+     * @param file the file.
+     * @throws IOException if the file can't be opened or forced.
+     */
+    public static void sync(File file)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().force(true);
+        } finally {
+            close(raf);
+        }
+    }
+
+    /**
+     * Forces a directory's entries, such as the names of files just renamed
+     * into it, to disk.  This needs Java 7 or later, and isn't possible on
+     * some platforms, such as Windows; there it does nothing, and the
+     * caller can't count on renames surviving a power loss.
+     *
+     * @param dir the directory.
+     * @return whether the directory was forced; false if that isn't
+     *         possible here.
+     * @throws IOException if it's possible, but the directory can't be
+     *         opened or forced.
+     */
+    public static boolean syncDirectory(File dir)
+            throws IOException {
+        if (DIRECTORY_OPENER == null) {
+            return false;
+        }
+        FileChannel channel = null;
+        try {
+            Object path = ((Method) DIRECTORY_OPENER[0]).invoke(dir);
+            channel = (FileChannel) ((Method) DIRECTORY_OPENER[1]).invoke(
+                    null, path, DIRECTORY_OPENER[2]);
+            channel.force(true);
+            return true;
+        } catch (IllegalAccessException e) {
+            LOG.debug("Unable to sync directory " + dir.getPath(), e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            LOG.debug("Unable to sync directory " + dir.getPath(),
+                    e.getCause());
+        } finally {
+            close(channel);
+        }
+        return false;
+    }
+
+    /**
+     * Writes all bytes of a stream to a channel, in as few copies as the
+     * stream allows.  Bytes of a file stream are transferred by the
+     * operating system, and those of a buffer stream are written directly;
+     * others are copied through a large buffer.  The stream is not closed.
+     *
+     * @param source the stream to read from.
+     * @param sink the channel to write to.
+     * @return the number of bytes written.
+     * @throws IOException if the operation failed due to an I/O error.
+     */
+    public static long transfer(InputStream source, WritableByteChannel sink)
+            throws IOException {
+        if (source instanceof ByteBufferInputStream) {
+            return ((ByteBufferInputStream) source).writeTo(sink);
+        }
+        if (source instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) source).getChannel();
+            long position = channel.position();
+            long size = channel.size();
+            long count = 0;
+            while (position + count < size) {
+                long n = channel.transferTo(position + count,
+                        size - position - count, sink);
+                if (n <= 0) {
+                    throw new IOException("Transfer stopped after " + count
+                            + " of " + (size - position) + " bytes");
+                }
+                count += n;
+            }
+            channel.position(position + count);
+            return count;
+        }
+        byte[] buf = new byte[TRANSFER_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long count = 0;
+        int len;
+        while ((len = source.read(buf)) > 0) {
+            buffer.clear().limit(len);
+            while (buffer.hasRemaining()) {
+                sink.write(buffer);
+            }
+            count += len;
+        }
+        return count;
+    }
+
     /**
      * Writes (or overwrites) the given file (using UTF-8 encoding) with the
      * content of the given string.
@@ -108,6 +357,86 @@ public abstract class FileUtil {
         }
     }
 
+    /**
+     * Opens a file for reading as a stream over its content in memory.
+     *
+     * <p>Small files are read whole, in as few system calls as possible;
+     * larger ones are mapped, where supported.  Either way the file itself
+     * is closed before this method returns, so no file descriptor is held
+     * by the stream, and reading from it makes no further system calls.
+     * A file larger than one buffer can hold (2GB) is instead streamed
+     * from disk, holding the file open until the stream is closed.</p>
+     *
+     * @param file the file to read.
+     * @return the stream, which the caller must close.
+     * @throws IOException if the file can't be read.
+     */
+    public static InputStream openFile(File file)
+            throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            return new BufferedInputStream(new FileInputStream(file),
+                                           TRANSFER_BUFFER_SIZE);
+        }
+        return new ByteBufferInputStream(readFile(file));
+    }
+
+    /**
+     * Gets the content of a file in memory, as {@link #openFile(File)}
+     * does, but as a buffer for random access.
+     *
+     * @param file the file to read.
+     * @return the buffer, positioned at the start of the content.
+     * @throws IOException if the file can't be read.
+     */
+    public static ByteBuffer readFile(File file)
+            throws IOException {
+        return readFile(file, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets part of the content of a file in memory, as
+     * {@link #readFile(File)} does for the whole.
+     *
+     * @param file the file to read.
+     * @param position where the part starts.
+     * @param length the most bytes to read; fewer are read if the file
+     *        ends first.
+     * @return the buffer, positioned at the start of the part.
+     * @throws IOException if the file can't be read, or the part is larger
+     *         than a buffer can be.
+     */
+    public static ByteBuffer readFile(File file, long position, long length)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = Math.max(0,
+                    Math.min(length, channel.size() - position));
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to read: "
+                        + file.getPath());
+            }
+            ByteBuffer buffer;
+            if (size > MAP_THRESHOLD && CAN_MAP) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                     position,
+                                     size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                channel.position(position);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+            }
+            return buffer;
+        } finally {
+            close(raf);
+        }
+    }
+
     /**
      * Sends all bytes from one stream to another.
      *
@@ -170,6 +499,9 @@ public abstract class FileUtil {
      * @param stream the stream to close.
      */
     public static void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
         try {
             stream.close();
         } catch (IOException e) {
@@ -177,6 +509,83 @@ public abstract class FileUtil {
         }
     }
 
+    // looks up the Java 7 methods needed to open a directory for syncing
+    private static Object[] getDirectoryOpener() {
+        if (System.getProperty("os.name", "").startsWith("Windows")) {
+            LOG.debug("Directories can't be synced on Windows");
+            return null;
+        }
+        try {
+            Method toPath = File.class.getMethod("toPath");
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class.forName(
+                    "java.nio.file.StandardOpenOption")
+                    .getField("READ").get(null));
+            Method open = FileChannel.class.getMethod("open",
+                    toPath.getReturnType(), options.getClass());
+            return new Object[] {toPath, open, options};
+        } catch (ClassNotFoundException e) {
+            LOG.debug("Directories can't be synced before Java 7");
+        } catch (NoSuchMethodException e) {
+            LOG.debug("Directories can't be synced before Java 7");
+        } catch (NoSuchFieldException e) {
+            LOG.debug("Directories can't be synced before Java 7");
+        } catch (IllegalAccessException e) {
+            LOG.debug("Directories can't be synced before Java 7");
+        }
+        return null;
+    }
+
+    // replaces a file that can't be renamed over by renaming it aside,
+    // renaming the temporary file into its place, then deleting the old
+    // one.  If the temporary file can't be moved in, the old one is moved
+    // back; if that fails too, neither is deleted
+    private static void replaceInSteps(File temp, File file)
+            throws IOException {
+        if (!file.exists()) {
+            throw new IOException("Unable to rename " + temp.getPath());
+        }
+        File aside = new File(file.getAbsoluteFile().getParentFile(),
+                "." + file.getName() + "." + System.nanoTime() + ".old");
+        if (!file.renameTo(aside)) {
+            throw new IOException("Unable to rename " + file.getPath()
+                    + " aside");
+        }
+        if (!temp.renameTo(file)) {
+            if (aside.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp.getPath());
+            }
+            throw new FaultException("Error replacing file: "
+                    + file.getPath() + "; its old content is in "
+                    + aside.getPath() + " and its new content in "
+                    + temp.getPath());
+        }
+        if (!aside.delete()) {
+            LOG.warn("Unable to delete " + aside.getPath());
+        }
+        LOG.debug("Replaced " + file.getPath() + " in steps");
+    }
+
+    // forces the directory a file was just renamed into, warning once
+    // where that isn't possible
+    private static void syncParent(File file)
+            throws IOException {
+        if (!syncDirectory(file.getAbsoluteFile().getParentFile())
+                && !s_warnedNoDirectorySync) {
+            s_warnedNoDirectorySync = true;
+            LOG.warn("Directories can't be forced to disk here; after a "
+                    + "power loss, replaced files may hold their old content");
+        }
+    }
+
+    // deletes a temporary file, if it still exists, after a failure
+    private static void deleteTempFile(File temp) {
+        if (temp.exists() && !temp.delete()) {
+            LOG.warn("Unable to delete " + temp.getPath());
+        }
+    }
+
     private static boolean clearDirectories(File[] files, boolean recursive) {
         for (File file : files) {
             if (file.isDirectory() && recursive) {
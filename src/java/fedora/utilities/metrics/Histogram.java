@@ -0,0 +1,169 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+/**
+ * A fixed-size histogram of non-negative long values, such as latencies
+ * in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split
+ * into 16 equal sub-buckets, so any reported percentile is within about
+ * 6% of the true value, whatever its magnitude.  Recording a value never
+ * allocates, and the whole histogram is under 8KB.</p>
+ *
+ * @author Chris Wilper
+ */
+public class Histogram {
+
+    /** Bits of precision kept below the highest set bit of a value. */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Number of sub-buckets per power of two; 16. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Number of counts per bucket index. */
+    private final long[] m_counts =
+            new long[(64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+
+    /** Number of values recorded. */
+    private long m_count;
+
+    /** Sum of values recorded. */
+    private long m_total;
+
+    /** Smallest value recorded. */
+    private long m_min = Long.MAX_VALUE;
+
+    /** Largest value recorded. */
+    private long m_max;
+
+    /**
+     * Records a value.  Negative values are recorded as zero.
+     *
+     * @param value the value.
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        m_counts[indexOf(value)]++;
+        m_count++;
+        m_total += value;
+        if (value < m_min) {
+            m_min = value;
+        }
+        if (value > m_max) {
+            m_max = value;
+        }
+    }
+
+    /**
+     * Gets the number of values recorded.
+     *
+     * @return the count.
+     */
+    public synchronized long getCount() {
+        return m_count;
+    }
+
+    /**
+     * Gets the sum of all values recorded.
+     *
+     * @return the total.
+     */
+    public synchronized long getTotal() {
+        return m_total;
+    }
+
+    /**
+     * Gets the smallest value recorded.
+     *
+     * @return the minimum, or 0 if nothing has been recorded.
+     */
+    public synchronized long getMin() {
+        return m_count == 0 ? 0 : m_min;
+    }
+
+    /**
+     * Gets the largest value recorded.
+     *
+     * @return the maximum, or 0 if nothing has been recorded.
+     */
+    public synchronized long getMax() {
+        return m_max;
+    }
+
+    /**
+     * Gets the mean of all values recorded.
+     *
+     * @return the mean, or 0 if nothing has been recorded.
+     */
+    public synchronized double getMean() {
+        return m_count == 0 ? 0 : (double) m_total / m_count;
+    }
+
+    /**
+     * Gets the value at the given percentile.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     * @return the upper bound of the bucket holding that percentile, but
+     *         never more than the largest value recorded; 0 if nothing has
+     *         been recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (m_count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(percentile / 100.0 * m_count);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < m_counts.length; i++) {
+            seen += m_counts[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), m_max);
+            }
+        }
+        return m_max;
+    }
+
+    /**
+     * Discards all recorded values.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < m_counts.length; i++) {
+            m_counts[i] = 0;
+        }
+        m_count = 0;
+        m_total = 0;
+        m_min = Long.MAX_VALUE;
+        m_max = 0;
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        long bound = ((SUB_BUCKETS + sub + 1L) << shift) - 1;
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+
+}
@@ -0,0 +1,840 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import fedora.utilities.config.ConfigUtil;
+
+/**
+ * Per-stage timing and throughput metrics for a run of one of the
+ * utilities.
+ *
+ * <p>Code that does a unit of work for a {@link Stage} brackets it like
+ * so:</p>
+ * <pre>
+ *   long start = Metrics.start(Stage.CLASSIFY);
+ *   ...
+ *   Metrics.stop(Stage.CLASSIFY, start, pid);
+ * </pre>
+ * <p>and the main loop of the utility calls {@link #begin(String, long)}
+ * once, {@link #processed()} after each object, and {@link #finish()} at
+ * the end.  While running, a progress line with throughput (and an ETA if
+ * the total is known) is logged at a fixed interval.  At the end, a
+ * breakdown of time spent in each stage is logged.</p>
+ *
+ * <p>The same figures, along with the current batch, failures, pipeline
+ * queue depths and the number of content models found, can be watched
+ * live through a {@link MigrationStatusMXBean} registered with the
+ * platform MBean server.  Each unit of work can also be sent, with its
+ * PID, to a {@link StageEvents} recorder such as Java Flight
+ * Recorder.</p>
+ *
+ * <p>If asked to, the slowest and largest objects of a run are kept, with
+ * the time each spent in each stage, and can be written to a report with
+ * {@link #writeTopObjects(File)}.  An object's time runs from the end of
+ * the previous object processed on the same thread, so it includes the
+ * time spent fetching it from an iterator.</p>
+ *
+ * <p>Metrics are disabled by default.  When disabled, each call above
+ * costs a read of one volatile field, and no clock is consulted.</p>
+ *
+ * @author Chris Wilper
+ */
+public abstract class Metrics {
+
+    /**
+     * The property indicating whether to collect metrics;
+     * <code>metrics</code>
+     */
+    public static final String METRICS_PROPERTY = "metrics";
+
+    /**
+     * The property giving the number of seconds between progress lines;
+     * <code>metricsInterval</code>
+     */
+    public static final String METRICS_INTERVAL_PROPERTY = "metricsInterval";
+
+    /**
+     * The property indicating whether to register a JMX MBean with live
+     * progress; <code>jmx</code>
+     */
+    public static final String JMX_PROPERTY = "jmx";
+
+    /**
+     * The property indicating whether to emit Java Flight Recorder events;
+     * <code>jfr</code>
+     */
+    public static final String JFR_PROPERTY = "jfr";
+
+    /**
+     * The property giving the number of slowest and largest objects to
+     * report; <code>topObjects</code>
+     */
+    public static final String TOP_OBJECTS_PROPERTY = "topObjects";
+
+    /** The number of seconds between progress lines if unspecified; 30. */
+    public static final int DEFAULT_METRICS_INTERVAL = 30;
+
+    /** The JFR implementation of StageEvents, if it's on the classpath. */
+    private static final String JFR_STAGE_EVENTS =
+            "fedora.utilities.metrics.jfr.JFRStageEvents";
+
+    /** Returned by {@link #start(Stage)} when metrics are disabled. */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(Metrics.class);
+
+    /** Latencies, in nanoseconds, indexed by stage ordinal. */
+    private static final Histogram[] LATENCIES =
+            new Histogram[Stage.values().length];
+
+    /** Bytes handled, indexed by stage ordinal. */
+    private static final AtomicLongArray BYTES =
+            new AtomicLongArray(Stage.values().length);
+
+    /** Objects processed in the current run. */
+    private static final AtomicLong PROCESSED = new AtomicLong();
+
+    /** Objects that failed in the current run. */
+    private static final AtomicLong FAILED = new AtomicLong();
+
+    /** Queues whose depths are reported, by name. */
+    private static final Map<String, Queue<?>> QUEUES =
+            new ConcurrentHashMap<String, Queue<?>>();
+
+    /** The slowest objects of the current run. */
+    private static final TopObjects SLOWEST =
+            new TopObjects(TopObjects.BY_TIME);
+
+    /** The largest objects of the current run. */
+    private static final TopObjects LARGEST =
+            new TopObjects(TopObjects.BY_SIZE);
+
+    /** Each thread's tally of the object it's working on. */
+    private static final ThreadLocal<Tally> TALLIES =
+            new ThreadLocal<Tally>() {
+                @Override
+                protected Tally initialValue() {
+                    return new Tally();
+                }
+            };
+
+    /** Each thread's open event for each stage, indexed by ordinal. */
+    private static final ThreadLocal<Object[]> OPEN_EVENTS =
+            new ThreadLocal<Object[]>() {
+                @Override
+                protected Object[] initialValue() {
+                    return new Object[Stage.values().length];
+                }
+            };
+
+    /** Whether metrics are being collected. */
+    private static volatile boolean s_enabled;
+
+    /** Whether progress and the final breakdown are logged. */
+    private static volatile boolean s_logging;
+
+    /** Whether an MBean is registered for each run. */
+    private static volatile boolean s_jmx;
+
+    /** Where stage events are sent, or null. */
+    private static volatile StageEvents s_events;
+
+    /** The number of slowest and largest objects to keep, or 0. */
+    private static volatile int s_topObjects;
+
+    /** Nanoseconds between progress lines. */
+    private static long s_intervalNanos =
+            DEFAULT_METRICS_INTERVAL * (long) NANOS_PER_SECOND;
+
+    /** The name of the current run, used as a prefix in log output. */
+    private static String s_runName = "Run";
+
+    /** The number of objects expected in the current run, or -1. */
+    private static volatile long s_expected = -1;
+
+    /** When the current run began. */
+    private static volatile long s_startNanos = System.nanoTime();
+
+    /** When the next progress line is due. */
+    private static volatile long s_nextReportNanos = Long.MAX_VALUE;
+
+    /** The batch currently being processed, or null. */
+    private static volatile String s_currentBatch;
+
+    /** The number of content models found so far in the current run. */
+    private static volatile int s_contentModels;
+
+    /** When the last progress line was logged. */
+    private static long s_lastReportNanos;
+
+    /** The number of objects processed as of the last progress line. */
+    private static long s_lastReportCount;
+
+    static {
+        for (int i = 0; i < LATENCIES.length; i++) {
+            LATENCIES[i] = new Histogram();
+        }
+    }
+
+    //---
+    // Configuration
+    //---
+
+    /**
+     * Enables or disables metrics according to the given properties.
+     *
+     * <pre>
+     *   metrics         (optional) - whether to collect metrics;
+     *                                default is false.
+     *   metricsInterval (optional) - seconds between progress lines;
+     *                                default is 30.
+     *   jmx             (optional) - whether to register an MBean with
+     *                                live progress; default is false.
+     *   jfr             (optional) - whether to emit a Java Flight
+     *                                Recorder event for each unit of
+     *                                work; default is false.
+     *   topObjects      (optional) - the number of slowest and largest
+     *                                objects to report; default is 0.
+     * </pre>
+     *
+     * @param props the properties.
+     */
+    public static void configure(Properties props) {
+        setEnabled(ConfigUtil.getOptionalBoolean(props,
+                                                 METRICS_PROPERTY,
+                                                 false),
+                   ConfigUtil.getOptionalInt(props,
+                                             METRICS_INTERVAL_PROPERTY,
+                                             DEFAULT_METRICS_INTERVAL));
+        setJMXEnabled(ConfigUtil.getOptionalBoolean(props,
+                                                    JMX_PROPERTY,
+                                                    false));
+        if (ConfigUtil.getOptionalBoolean(props, JFR_PROPERTY, false)) {
+            setStageEvents(loadJFRStageEvents());
+        } else {
+            setStageEvents(null);
+        }
+        setTopObjects(ConfigUtil.getOptionalInt(props,
+                                                TOP_OBJECTS_PROPERTY,
+                                                0));
+    }
+
+    /**
+     * Enables or disables metrics logging.
+     *
+     * @param enabled whether to collect metrics and log progress and the
+     *        final breakdown.
+     * @param intervalSeconds seconds between progress lines.
+     */
+    public static synchronized void setEnabled(boolean enabled,
+                                               int intervalSeconds) {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException(METRICS_INTERVAL_PROPERTY
+                    + " must be a positive number of seconds");
+        }
+        s_intervalNanos = intervalSeconds * (long) NANOS_PER_SECOND;
+        s_logging = enabled;
+        updateEnabled();
+    }
+
+    /**
+     * Enables or disables registration of a {@link MigrationStatusMXBean}
+     * when each run begins.  Metrics are collected while this is enabled,
+     * whether or not they are logged.
+     *
+     * @param enabled whether to register the MBean.
+     */
+    public static synchronized void setJMXEnabled(boolean enabled) {
+        s_jmx = enabled;
+        updateEnabled();
+    }
+
+    /**
+     * Sets where an event for each unit of work is sent.  Metrics are
+     * collected while this is non-null, whether or not they are logged.
+     *
+     * @param events the recorder, or null for none.
+     */
+    public static synchronized void setStageEvents(StageEvents events) {
+        s_events = events;
+        updateEnabled();
+    }
+
+    /**
+     * Sets the number of slowest and largest objects kept in each run.
+     * Metrics are collected while this is positive, whether or not they
+     * are logged.  The change applies from the next run.
+     *
+     * @param count the number of objects, or 0 to keep none.
+     */
+    public static synchronized void setTopObjects(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException(TOP_OBJECTS_PROPERTY
+                    + " must not be negative");
+        }
+        s_topObjects = count;
+        updateEnabled();
+    }
+
+    /**
+     * Tells whether metrics are being collected.
+     *
+     * @return true if enabled.
+     */
+    public static boolean isEnabled() {
+        return s_enabled;
+    }
+
+    //---
+    // Timing
+    //---
+
+    /**
+     * Marks the start of a unit of work.
+     *
+     * @param stage the stage the work belongs to.
+     * @return a value to pass to {@link #stop(Stage, long, String)}.
+     */
+    public static long start(Stage stage) {
+        if (!s_enabled) {
+            return NOT_TIMED;
+        }
+        StageEvents events = s_events;
+        if (events != null) {
+            OPEN_EVENTS.get()[stage.ordinal()] = events.begin(stage);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a unit of work.
+     *
+     * @param stage the stage the work belongs to.
+     * @param start the value returned by {@link #start(Stage)}.
+     * @param pid the pid of the object worked on, or null if unknown.
+     */
+    public static void stop(Stage stage, long start, String pid) {
+        stop(stage, start, pid, 0);
+    }
+
+    /**
+     * Marks the end of a unit of work that handled some number of bytes.
+     *
+     * @param stage the stage the work belongs to.
+     * @param start the value returned by {@link #start(Stage)}.
+     * @param pid the pid of the object worked on, or null if unknown.
+     * @param bytes the number of bytes read or written.
+     */
+    public static void stop(Stage stage, long start, String pid,
+                            long bytes) {
+        if (start != NOT_TIMED) {
+            record(stage, System.nanoTime() - start, bytes);
+            commitEvent(stage, pid, bytes);
+        }
+    }
+
+    /**
+     * Records a unit of work that was timed by the caller.
+     *
+     * @param stage the stage the work belongs to.
+     * @param nanos how long it took, in nanoseconds.
+     * @param bytes the number of bytes read or written.
+     */
+    public static void record(Stage stage, long nanos, long bytes) {
+        if (s_enabled) {
+            LATENCIES[stage.ordinal()].record(nanos);
+            if (bytes > 0) {
+                BYTES.addAndGet(stage.ordinal(), bytes);
+            }
+            if (s_topObjects > 0) {
+                Tally tally = TALLIES.get();
+                tally.stageNanos[stage.ordinal()] += nanos;
+                if (stage == Stage.READ) {
+                    tally.bytes += bytes;
+                }
+            }
+        }
+    }
+
+    //---
+    // Progress
+    //---
+
+    /**
+     * Clears all metrics and marks the start of a run.  If JMX is
+     * enabled, an MBean for the run is registered, replacing any
+     * registered earlier under the same name.
+     *
+     * @param runName the name to use as a prefix in log output, and as
+     *        the name of the MBean.
+     * @param expected the number of objects expected, or -1 if unknown.
+     */
+    public static synchronized void begin(String runName, long expected) {
+        for (int i = 0; i < LATENCIES.length; i++) {
+            LATENCIES[i].reset();
+            BYTES.set(i, 0);
+        }
+        PROCESSED.set(0);
+        FAILED.set(0);
+        QUEUES.clear();
+        SLOWEST.reset(s_topObjects);
+        LARGEST.reset(s_topObjects);
+        TALLIES.get().reset();
+        s_currentBatch = null;
+        s_contentModels = 0;
+        s_runName = runName;
+        s_expected = expected;
+        s_startNanos = System.nanoTime();
+        s_lastReportNanos = s_startNanos;
+        s_lastReportCount = 0;
+        s_nextReportNanos = s_startNanos + s_intervalNanos;
+        if (s_jmx) {
+            MigrationStatus.register(runName);
+        }
+    }
+
+    /**
+     * Marks the start of work on the next object on this thread.  This is
+     * only needed when something other than work on objects, such as
+     * loading a stylesheet, has been done since the last was processed.
+     */
+    public static void startObject() {
+        if (s_topObjects > 0) {
+            TALLIES.get().reset();
+        }
+    }
+
+    /**
+     * Counts one object as processed, logging a progress line if one
+     * is due.
+     */
+    public static void processed() {
+        processed(null);
+    }
+
+    /**
+     * Counts one object as processed, logging a progress line if one
+     * is due, and considers it for the slowest and largest objects of
+     * the run.
+     *
+     * @param pid the pid of the object, or null to leave it out of the
+     *        slowest and largest objects.
+     */
+    public static void processed(String pid) {
+        if (s_enabled) {
+            if (s_topObjects > 0) {
+                Tally tally = TALLIES.get();
+                if (pid != null) {
+                    ObjectProfile profile = new ObjectProfile(pid,
+                            System.nanoTime() - tally.startNanos,
+                            tally.bytes, tally.stageNanos);
+                    SLOWEST.offer(profile);
+                    LARGEST.offer(profile);
+                }
+                tally.reset();
+            }
+            long count = PROCESSED.incrementAndGet();
+            if (s_logging) {
+                long now = System.nanoTime();
+                if (now - s_nextReportNanos >= 0) {
+                    logProgress(count, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts one object as failed.
+     */
+    public static void failed() {
+        if (s_enabled) {
+            FAILED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Notes the batch (for example, the PID file) now being processed.
+     *
+     * @param batch a short description of the batch.
+     */
+    public static void setCurrentBatch(String batch) {
+        s_currentBatch = batch;
+    }
+
+    /**
+     * Notes the number of distinct content models found so far.
+     *
+     * @param count the number of content models.
+     */
+    public static void setContentModels(int count) {
+        s_contentModels = count;
+    }
+
+    /**
+     * Reports the depth of a pipeline queue for the rest of the current
+     * run.
+     *
+     * @param name the name of the queue.
+     * @param queue the queue; its size is read each time it's reported.
+     */
+    public static void registerQueue(String name, Queue<?> queue) {
+        QUEUES.put(name, queue);
+    }
+
+    /**
+     * Stops reporting the depth of a pipeline queue.
+     *
+     * @param name the name of the queue.
+     */
+    public static void unregisterQueue(String name) {
+        QUEUES.remove(name);
+    }
+
+    /**
+     * Logs the per-stage breakdown for the run, if metrics logging is
+     * enabled.
+     */
+    public static synchronized void finish() {
+        if (!s_logging) {
+            return;
+        }
+        long elapsed = getElapsedNanos();
+        long count = PROCESSED.get();
+        LOG.info(s_runName + " processed " + count + " objects in "
+                + formatDuration(elapsed) + " ("
+                + formatRate(count, elapsed) + "/sec)");
+        LOG.info(String.format("%-12s %9s %9s %6s %9s %9s %9s %9s %9s %9s",
+                "stage", "count", "total s", "%run", "mean ms", "p50 ms",
+                "p90 ms", "p99 ms", "max ms", "MB"));
+        for (Stage stage : Stage.values()) {
+            Histogram h = LATENCIES[stage.ordinal()];
+            if (h.getCount() == 0) {
+                continue;
+            }
+            LOG.info(String.format(
+                    "%-12s %9d %9.1f %6.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.1f",
+                    stage.getLabel(),
+                    h.getCount(),
+                    h.getTotal() / NANOS_PER_SECOND,
+                    elapsed == 0 ? 0.0 : 100.0 * h.getTotal() / elapsed,
+                    h.getMean() / NANOS_PER_MILLI,
+                    h.getPercentile(50) / NANOS_PER_MILLI,
+                    h.getPercentile(90) / NANOS_PER_MILLI,
+                    h.getPercentile(99) / NANOS_PER_MILLI,
+                    h.getMax() / NANOS_PER_MILLI,
+                    BYTES.get(stage.ordinal()) / (1024.0 * 1024.0)));
+        }
+    }
+
+    //---
+    // Snapshot
+    //---
+
+    /**
+     * Writes a report of the slowest and largest objects of the run, if
+     * any were kept.  Failure to write it is logged but otherwise ignored.
+     *
+     * @param file the file to write.
+     */
+    public static void writeTopObjects(File file) {
+        if (s_topObjects == 0) {
+            return;
+        }
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+            writer.println("# Slowest and largest objects of the "
+                    + s_runName + " run finished " + new Date());
+            writer.println("# Times are in milliseconds and sizes in bytes."
+                    + "  An object's time includes");
+            writer.println("# the time spent fetching it, so it can exceed "
+                    + "the sum of its stage times.");
+            writeProfiles(writer, "slowest", SLOWEST.getProfiles());
+            writeProfiles(writer, "largest", LARGEST.getProfiles());
+            writer.close();
+            if (writer.checkError()) {
+                throw new IOException("Error writing to " + file.getPath());
+            }
+            LOG.info("Wrote slowest and largest objects to "
+                    + file.getPath());
+        } catch (IOException e) {
+            LOG.warn("Unable to write " + file.getPath(), e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the latencies recorded for a stage in the current run.
+     *
+     * @param stage the stage.
+     * @return the histogram of latencies, in nanoseconds.
+     */
+    public static Histogram getLatencies(Stage stage) {
+        return LATENCIES[stage.ordinal()];
+    }
+
+    /**
+     * Gets the number of bytes handled by a stage in the current run.
+     *
+     * @param stage the stage.
+     * @return the byte count.
+     */
+    public static long getBytes(Stage stage) {
+        return BYTES.get(stage.ordinal());
+    }
+
+    /**
+     * Gets the number of objects processed in the current run.
+     *
+     * @return the count.
+     */
+    public static long getProcessed() {
+        return PROCESSED.get();
+    }
+
+    /**
+     * Gets the number of objects that failed in the current run.
+     *
+     * @return the count.
+     */
+    public static long getFailed() {
+        return FAILED.get();
+    }
+
+    /**
+     * Gets the name of the current run.
+     *
+     * @return the name.
+     */
+    public static String getRunName() {
+        return s_runName;
+    }
+
+    /**
+     * Gets the batch now being processed.
+     *
+     * @return a short description of the batch, or null.
+     */
+    public static String getCurrentBatch() {
+        return s_currentBatch;
+    }
+
+    /**
+     * Gets the number of distinct content models found so far.
+     *
+     * @return the count.
+     */
+    public static int getContentModels() {
+        return s_contentModels;
+    }
+
+    /**
+     * Gets the current depth of each registered pipeline queue.
+     *
+     * @return a map of queue name to size, sorted by name.
+     */
+    public static Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Queue<?>> entry : QUEUES.entrySet()) {
+            depths.put(entry.getKey(), entry.getValue().size());
+        }
+        return depths;
+    }
+
+    /**
+     * Gets the number of objects expected in the current run.
+     *
+     * @return the count, or -1 if unknown.
+     */
+    public static long getExpected() {
+        return s_expected;
+    }
+
+    /**
+     * Gets the time since the current run began.
+     *
+     * @return the elapsed time, in nanoseconds.
+     */
+    public static long getElapsedNanos() {
+        return System.nanoTime() - s_startNanos;
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    /**
+     * Ends and sends the calling thread's open event for a stage, if any.
+     *
+     * @param stage the stage.
+     * @param pid the pid of the object worked on, or null if unknown.
+     * @param bytes the number of bytes read or written.
+     */
+    static void commitEvent(Stage stage, String pid, long bytes) {
+        StageEvents events = s_events;
+        if (events != null) {
+            Object[] open = OPEN_EVENTS.get();
+            Object event = open[stage.ordinal()];
+            if (event != null) {
+                open[stage.ordinal()] = null;
+                events.commit(event, stage, pid, bytes);
+            }
+        }
+    }
+
+    private static void updateEnabled() {
+        s_enabled = s_logging || s_jmx || s_events != null
+                || s_topObjects > 0;
+    }
+
+    private static void writeProfiles(PrintWriter writer,
+                                      String title,
+                                      List<ObjectProfile> profiles) {
+        writer.println();
+        writer.println("# " + profiles.size() + " " + title + " objects");
+        StringBuilder header = new StringBuilder(
+                String.format("%-4s %10s %12s", "#", "total", "size"));
+        for (Stage stage : Stage.values()) {
+            if (LATENCIES[stage.ordinal()].getCount() > 0) {
+                header.append(String.format(" %11s", stage.getLabel()));
+            }
+        }
+        writer.println(header.append("  pid"));
+        int rank = 0;
+        for (ObjectProfile profile : profiles) {
+            StringBuilder line = new StringBuilder(
+                    String.format("%-4d %10.3f %12d", ++rank,
+                            profile.nanos / NANOS_PER_MILLI, profile.bytes));
+            for (Stage stage : Stage.values()) {
+                if (LATENCIES[stage.ordinal()].getCount() > 0) {
+                    line.append(String.format(" %11.3f",
+                            profile.stageNanos[stage.ordinal()]
+                            / NANOS_PER_MILLI));
+                }
+            }
+            writer.println(line.append("  ").append(profile.pid));
+        }
+    }
+
+    // JFR needs Java 11, so its classes are built separately, and may be
+    // missing or unloadable; in that case no events are sent.
+    private static StageEvents loadJFRStageEvents() {
+        try {
+            return (StageEvents) Class.forName(JFR_STAGE_EVENTS)
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            LOG.warn("JFR events are unavailable: " + JFR_STAGE_EVENTS
+                    + " is not on the classpath");
+        } catch (LinkageError e) {
+            LOG.warn("JFR events are unavailable; Java 11 or later is "
+                    + "required (" + e + ")");
+        } catch (InstantiationException e) {
+            LOG.warn("JFR events are unavailable", e);
+        } catch (IllegalAccessException e) {
+            LOG.warn("JFR events are unavailable", e);
+        }
+        return null;
+    }
+
+    private static synchronized void logProgress(long count, long now) {
+        if (now - s_nextReportNanos < 0) {
+            return; // another thread just logged
+        }
+        StringBuilder line = new StringBuilder(s_runName);
+        line.append(" progress: ").append(count);
+        long expected = s_expected;
+        if (expected > 0) {
+            line.append(" of ").append(expected).append(" objects");
+            line.append(String.format(" (%.1f%%)", 100.0 * count / expected));
+        } else {
+            line.append(" objects");
+        }
+        long elapsed = now - s_startNanos;
+        line.append(", ");
+        line.append(formatRate(count, elapsed)).append("/sec overall, ");
+        line.append(formatRate(count - s_lastReportCount,
+                               now - s_lastReportNanos));
+        line.append("/sec recent");
+        if (expected > count && count > 0) {
+            long remaining = (long) ((double) elapsed / count
+                    * (expected - count));
+            line.append(", ETA ").append(formatDuration(remaining));
+        }
+        LOG.info(line.toString());
+        s_lastReportCount = count;
+        s_lastReportNanos = now;
+        s_nextReportNanos = now + s_intervalNanos;
+    }
+
+    private static String formatRate(long count, long nanos) {
+        if (nanos <= 0) {
+            return "0.0";
+        }
+        return String.format("%.1f", count * NANOS_PER_SECOND / nanos);
+    }
+
+    private static String formatDuration(long nanos) {
+        long seconds = (long) (nanos / NANOS_PER_SECOND);
+        return String.format("%02d:%02d:%02d", seconds / 3600,
+                (seconds / 60) % 60, seconds % 60);
+    }
+
+    /**
+     * What one thread has spent on the object it's working on so far.
+     */
+    private static class Tally {
+
+        /** The time spent in each stage, indexed by ordinal. */
+        final long[] stageNanos = new long[Stage.values().length];
+
+        /** The number of bytes read. */
+        long bytes;
+
+        /** When work on the object began. */
+        long startNanos = System.nanoTime();
+
+        /**
+         * Starts over for the next object.
+         */
+        void reset() {
+            for (int i = 0; i < stageNanos.length; i++) {
+                stageNanos[i] = 0;
+            }
+            bytes = 0;
+            startNanos = System.nanoTime();
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The {@link MigrationStatusMXBean} implementation, a live view of
+ * {@link Metrics}.
+ *
+ * @author Chris Wilper
+ */
+class MigrationStatus
+        implements MigrationStatusMXBean {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(MigrationStatus.class);
+
+    /** The domain and type of the MBean names. */
+    private static final String NAME_PREFIX =
+            "fedora.utilities:type=MigrationStatus,name=";
+
+    /**
+     * Registers an instance with the platform MBean server, replacing any
+     * registered under the same name.  Failure to register is logged but
+     * otherwise ignored, since the run itself can go on without it.
+     *
+     * @param runName the name of the run.
+     */
+    static void register(String runName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(NAME_PREFIX
+                    + ObjectName.quote(runName));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MigrationStatus(), name);
+            LOG.info("Registered MBean " + name);
+        } catch (JMException e) {
+            LOG.warn("Unable to register MBean for " + runName, e);
+        }
+    }
+
+    //---
+    // MigrationStatusMXBean implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRunName() {
+        return Metrics.getRunName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getCurrentBatch() {
+        return Metrics.getCurrentBatch();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getProcessed() {
+        return Metrics.getProcessed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailed() {
+        return Metrics.getFailed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getExpected() {
+        return Metrics.getExpected();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRemaining() {
+        long expected = Metrics.getExpected();
+        if (expected < 0) {
+            return -1;
+        }
+        return Math.max(0, expected - Metrics.getProcessed()
+                - Metrics.getFailed());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getElapsedSeconds() {
+        return Metrics.getElapsedNanos() / 1000000000L;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getObjectsPerSecond() {
+        long elapsed = Metrics.getElapsedNanos();
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return Metrics.getProcessed() * 1000000000.0 / elapsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getContentModels() {
+        return Metrics.getContentModels();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Integer> getQueueDepths() {
+        return Metrics.getQueueDepths();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, StageStatistics> getStages() {
+        Map<String, StageStatistics> stages =
+                new LinkedHashMap<String, StageStatistics>();
+        for (Stage stage : Stage.values()) {
+            Histogram latencies = Metrics.getLatencies(stage);
+            if (latencies.getCount() > 0) {
+                stages.put(stage.getLabel(), StageStatistics.of(latencies,
+                        Metrics.getBytes(stage)));
+            }
+        }
+        return stages;
+    }
+
+}
@@ -0,0 +1,98 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.util.Map;
+
+/**
+ * Live progress of a run of one of the utilities, as seen through JMX.
+ *
+ * <p>An instance is registered as
+ * <code>fedora.utilities:type=MigrationStatus,name=<i>tool</i></code>
+ * when a run begins with JMX enabled, and can be watched with
+ * <code>jconsole</code> or any other JMX client.</p>
+ *
+ * @author Chris Wilper
+ */
+public interface MigrationStatusMXBean {
+
+    /**
+     * Gets the name of the run, e.g. <code>Transformer</code>.
+     *
+     * @return the name.
+     */
+    String getRunName();
+
+    /**
+     * Gets the batch now being processed, e.g. the name of a PID file.
+     *
+     * @return the batch, or null if the tool doesn't work in batches.
+     */
+    String getCurrentBatch();
+
+    /**
+     * Gets the number of objects processed so far.
+     *
+     * @return the count.
+     */
+    long getProcessed();
+
+    /**
+     * Gets the number of objects that failed so far.
+     *
+     * @return the count.
+     */
+    long getFailed();
+
+    /**
+     * Gets the number of objects expected in the run.
+     *
+     * @return the count, or -1 if unknown.
+     */
+    long getExpected();
+
+    /**
+     * Gets the number of objects yet to be processed.
+     *
+     * @return the count, or -1 if unknown.
+     */
+    long getRemaining();
+
+    /**
+     * Gets the time since the run began.
+     *
+     * @return the elapsed time, in seconds.
+     */
+    long getElapsedSeconds();
+
+    /**
+     * Gets the average rate of the run so far.
+     *
+     * @return objects processed per second.
+     */
+    double getObjectsPerSecond();
+
+    /**
+     * Gets the number of distinct content models found so far.
+     *
+     * @return the count.
+     */
+    int getContentModels();
+
+    /**
+     * Gets the current depth of each pipeline queue.
+     *
+     * @return a map of queue name to size; empty if the tool has none.
+     */
+    Map<String, Integer> getQueueDepths();
+
+    /**
+     * Gets latency statistics for each stage that has done any work.
+     *
+     * @return a map of stage label to statistics.
+     */
+    Map<String, StageStatistics> getStages();
+
+}
@@ -0,0 +1,42 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+/**
+ * The time spent on one object, overall and in each {@link Stage}, and
+ * its size.
+ *
+ * @author Chris Wilper
+ */
+class ObjectProfile {
+
+    /** The pid of the object. */
+    final String pid;
+
+    /** The total time spent on the object, in nanoseconds. */
+    final long nanos;
+
+    /** The number of bytes read for the object. */
+    final long bytes;
+
+    /** The time spent in each stage, in nanoseconds, indexed by ordinal. */
+    final long[] stageNanos;
+
+    /**
+     * Creates an instance.
+     *
+     * @param pid the pid of the object.
+     * @param nanos the total time spent on the object, in nanoseconds.
+     * @param bytes the number of bytes read for the object.
+     * @param stageNanos the time spent in each stage; the array is copied.
+     */
+    ObjectProfile(String pid, long nanos, long bytes, long[] stageNanos) {
+        this.pid = pid;
+        this.nanos = nanos;
+        this.bytes = bytes;
+        this.stageNanos = stageNanos.clone();
+    }
+
+}
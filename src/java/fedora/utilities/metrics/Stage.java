@@ -0,0 +1,48 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+/**
+ * The stages of work that are timed while objects are processed.
+ *
+ * @author Chris Wilper
+ */
+public enum Stage {
+
+    /** Looking up an object's path in the database. */
+    LOOKUP("lookup"),
+
+    /** Reading an object's bytes from disk. */
+    READ("read"),
+
+    /** Parsing an object, less the time spent reading it. */
+    DESERIALIZE("deserialize"),
+
+    /** Finding an object's content model. */
+    CLASSIFY("classify"),
+
+    /** Transforming an object, less the time spent reading it. */
+    TRANSFORM("transform"),
+
+    /** Serializing and writing an object to disk. */
+    WRITE("write");
+
+    /** The short name used in log output. */
+    private final String m_label;
+
+    private Stage(String label) {
+        m_label = label;
+    }
+
+    /**
+     * Gets the short name used in log output.
+     *
+     * @return the label.
+     */
+    public String getLabel() {
+        return m_label;
+    }
+
+}
@@ -0,0 +1,37 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+/**
+ * Receives an event for each unit of work on an object, for an external
+ * recorder such as Java Flight Recorder.
+ *
+ * <p>Events are begun and committed on the same thread, at most one per
+ * stage at a time.</p>
+ *
+ * @author Chris Wilper
+ */
+public interface StageEvents {
+
+    /**
+     * Begins an event.
+     *
+     * @param stage the stage the work belongs to.
+     * @return the event, to be passed back to
+     *         {@link #commit(Object, Stage, String, long)}.
+     */
+    Object begin(Stage stage);
+
+    /**
+     * Ends an event and sends it to the recorder.
+     *
+     * @param event the value returned by {@link #begin(Stage)}.
+     * @param stage the stage the work belongs to.
+     * @param pid the pid of the object worked on, or null if unknown.
+     * @param bytes the number of bytes read or written, or 0.
+     */
+    void commit(Object event, Stage stage, String pid, long bytes);
+
+}
@@ -0,0 +1,135 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable snapshot of the latencies recorded for one {@link Stage}.
+ *
+ * @author Chris Wilper
+ */
+public class StageStatistics {
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /** The number of units of work. */
+    private final long m_count;
+
+    /** The mean latency, in milliseconds. */
+    private final double m_meanMillis;
+
+    /** The median latency, in milliseconds. */
+    private final double m_p50Millis;
+
+    /** The 90th percentile latency, in milliseconds. */
+    private final double m_p90Millis;
+
+    /** The 99th percentile latency, in milliseconds. */
+    private final double m_p99Millis;
+
+    /** The largest latency, in milliseconds. */
+    private final double m_maxMillis;
+
+    /** The number of bytes read or written. */
+    private final long m_bytes;
+
+    /**
+     * Creates an instance.
+     *
+     * @param count the number of units of work.
+     * @param meanMillis the mean latency, in milliseconds.
+     * @param p50Millis the median latency, in milliseconds.
+     * @param p90Millis the 90th percentile latency, in milliseconds.
+     * @param p99Millis the 99th percentile latency, in milliseconds.
+     * @param maxMillis the largest latency, in milliseconds.
+     * @param bytes the number of bytes read or written.
+     */
+    @ConstructorProperties({"count", "meanMillis", "p50Millis", "p90Millis",
+            "p99Millis", "maxMillis", "bytes"})
+    public StageStatistics(long count,
+                           double meanMillis,
+                           double p50Millis,
+                           double p90Millis,
+                           double p99Millis,
+                           double maxMillis,
+                           long bytes) {
+        m_count = count;
+        m_meanMillis = meanMillis;
+        m_p50Millis = p50Millis;
+        m_p90Millis = p90Millis;
+        m_p99Millis = p99Millis;
+        m_maxMillis = maxMillis;
+        m_bytes = bytes;
+    }
+
+    /**
+     * Takes a snapshot of a stage's histogram.
+     *
+     * @param latencies the histogram of latencies, in nanoseconds.
+     * @param bytes the number of bytes read or written.
+     * @return the snapshot.
+     */
+    static StageStatistics of(Histogram latencies, long bytes) {
+        return new StageStatistics(latencies.getCount(),
+                latencies.getMean() / NANOS_PER_MILLI,
+                latencies.getPercentile(50) / NANOS_PER_MILLI,
+                latencies.getPercentile(90) / NANOS_PER_MILLI,
+                latencies.getPercentile(99) / NANOS_PER_MILLI,
+                latencies.getMax() / NANOS_PER_MILLI,
+                bytes);
+    }
+
+    /**
+     * @return the number of units of work.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    /**
+     * @return the mean latency, in milliseconds.
+     */
+    public double getMeanMillis() {
+        return m_meanMillis;
+    }
+
+    /**
+     * @return the median latency, in milliseconds.
+     */
+    public double getP50Millis() {
+        return m_p50Millis;
+    }
+
+    /**
+     * @return the 90th percentile latency, in milliseconds.
+     */
+    public double getP90Millis() {
+        return m_p90Millis;
+    }
+
+    /**
+     * @return the 99th percentile latency, in milliseconds.
+     */
+    public double getP99Millis() {
+        return m_p99Millis;
+    }
+
+    /**
+     * @return the largest latency, in milliseconds.
+     */
+    public double getMaxMillis() {
+        return m_maxMillis;
+    }
+
+    /**
+     * @return the number of bytes read or written.
+     */
+    public long getBytes() {
+        return m_bytes;
+    }
+
+}
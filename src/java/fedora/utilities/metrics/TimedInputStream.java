@@ -0,0 +1,119 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that keeps track of the time spent in, and bytes
+ * returned by, reads of the underlying stream.
+ *
+ * <p>This lets a caller that parses or transforms the stream record the
+ * read time as {@link Stage#READ} work, apart from its own.</p>
+ *
+ * @author Chris Wilper
+ */
+public class TimedInputStream
+        extends FilterInputStream {
+
+    /** Nanoseconds spent reading so far. */
+    private long m_readNanos;
+
+    /** Bytes read so far. */
+    private long m_bytes;
+
+    /**
+     * Creates an instance.
+     *
+     * @param in the stream to read from.
+     */
+    public TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Gets the time spent reading so far.
+     *
+     * @return the time, in nanoseconds.
+     */
+    public long getReadNanos() {
+        return m_readNanos;
+    }
+
+    /**
+     * Gets the number of bytes read so far.
+     *
+     * @return the byte count.
+     */
+    public long getBytes() {
+        return m_bytes;
+    }
+
+    /**
+     * Records the read totals as one unit of {@link Stage#READ} work,
+     * and the rest of the time since <code>start</code> as one unit of
+     * work for the given stage.  Any event for the given stage covers
+     * both, since the two are interleaved.
+     *
+     * @param stage the stage the caller's own work belongs to.
+     * @param start the value returned by {@link Metrics#start(Stage)}
+     *        before the stream was first read.
+     * @param pid the pid of the object read, or null if unknown.
+     */
+    public void stop(Stage stage, long start, String pid) {
+        if (Metrics.isEnabled()) {
+            long elapsed = System.nanoTime() - start;
+            Metrics.record(Stage.READ, m_readNanos, m_bytes);
+            Metrics.record(stage, elapsed - m_readNanos, 0);
+            Metrics.commitEvent(stage, pid, m_bytes);
+        }
+    }
+
+    //---
+    // FilterInputStream overrides
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        m_readNanos += System.nanoTime() - start;
+        if (b != -1) {
+            m_bytes++;
+        }
+        return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = super.read(b, off, len);
+        m_readNanos += System.nanoTime() - start;
+        if (n > 0) {
+            m_bytes += n;
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        long skipped = super.skip(n);
+        m_readNanos += System.nanoTime() - start;
+        return skipped;
+    }
+
+}
@@ -0,0 +1,97 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the top <i>k</i> object profiles seen according to some order,
+ * in a bounded heap.
+ *
+ * @author Chris Wilper
+ */
+class TopObjects {
+
+    /** Orders profiles by total time. */
+    static final Comparator<ObjectProfile> BY_TIME =
+            new Comparator<ObjectProfile>() {
+                public int compare(ObjectProfile a, ObjectProfile b) {
+                    if (a.nanos == b.nanos) {
+                        return 0;
+                    }
+                    return a.nanos < b.nanos ? -1 : 1;
+                }
+            };
+
+    /** Orders profiles by size. */
+    static final Comparator<ObjectProfile> BY_SIZE =
+            new Comparator<ObjectProfile>() {
+                public int compare(ObjectProfile a, ObjectProfile b) {
+                    if (a.bytes == b.bytes) {
+                        return 0;
+                    }
+                    return a.bytes < b.bytes ? -1 : 1;
+                }
+            };
+
+    /** The order; the greatest profiles are kept. */
+    private final Comparator<ObjectProfile> m_order;
+
+    /** The kept profiles, least first. */
+    private final PriorityQueue<ObjectProfile> m_heap;
+
+    /** The number of profiles to keep. */
+    private int m_size;
+
+    /**
+     * Creates an instance.
+     *
+     * @param order the order; the greatest profiles are kept.
+     */
+    TopObjects(Comparator<ObjectProfile> order) {
+        m_order = order;
+        m_heap = new PriorityQueue<ObjectProfile>(11, order);
+    }
+
+    /**
+     * Discards all profiles and sets the number to keep.
+     *
+     * @param size the number of profiles to keep.
+     */
+    synchronized void reset(int size) {
+        m_heap.clear();
+        m_size = size;
+    }
+
+    /**
+     * Keeps the given profile if it's among the greatest seen so far.
+     *
+     * @param profile the profile.
+     */
+    synchronized void offer(ObjectProfile profile) {
+        if (m_heap.size() < m_size) {
+            m_heap.add(profile);
+        } else if (m_size > 0 && m_order.compare(profile, m_heap.peek()) > 0) {
+            m_heap.poll();
+            m_heap.add(profile);
+        }
+    }
+
+    /**
+     * Gets the kept profiles.
+     *
+     * @return the profiles, greatest first.
+     */
+    synchronized List<ObjectProfile> getProfiles() {
+        List<ObjectProfile> profiles = new ArrayList<ObjectProfile>(m_heap);
+        Collections.sort(profiles, Collections.reverseOrder(m_order));
+        return profiles;
+    }
+
+}
@@ -0,0 +1,861 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * A hand-written, streaming equivalent of <code>foxml-upgrade-cma.xslt</code>.
+ *
+ * <p>The stylesheet is run by an XSLT 1.0 processor, which builds a full
+ * source tree of each object before writing anything.  This class produces
+ * the same FOXML 1.1 output with a single StAX pass over the input, so memory
+ * use does not grow with the size of the object.  The only content buffered
+ * is the RELS-EXT datastream, whose latest version must be known before any
+ * of its versions can be written.</p>
+ *
+ * <p>It accepts the same parameters as the stylesheet
+ * (<code>cModelPidURI</code>, <code>createdDate</code> and
+ * <code>explicitBasicModel</code>), and like the stylesheet, treats any
+ * non-empty value as set.  Input is expected to be valid FOXML 1.0; in
+ * particular, the object properties must precede all datastreams.</p>
+ *
+ * <p>Only <code>StreamSource</code> and <code>StreamResult</code> are
+ * supported, and output properties are ignored.  Instances are not
+ * threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+class StreamingUpgrader
+        extends javax.xml.transform.Transformer
+        implements XMLStreamConstants {
+
+    /** The FOXML namespace. */
+    private static final String FOXML = "info:fedora/fedora-system:def/foxml#";
+
+    /** The RDF namespace. */
+    private static final String RDF =
+            "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    /** The Fedora model namespace. */
+    private static final String MODEL = "info:fedora/fedora-system:def/model#";
+
+    /** The XSLT namespace. */
+    private static final String XSL = "http://www.w3.org/1999/XSL/Transform";
+
+    /** The old fType property name. */
+    private static final String FTYPE = RDF + "type";
+
+    /** The old content model property name. */
+    private static final String CONTENT_MODEL = MODEL + "contentModel";
+
+    /** The ServiceDefinition-3.0 model. */
+    private static final String SDEF_MODEL =
+            "info:fedora/fedora-system:ServiceDefinition-3.0";
+
+    /** The ServiceDeployment-3.0 model. */
+    private static final String SDEP_MODEL =
+            "info:fedora/fedora-system:ServiceDeployment-3.0";
+
+    /** The FedoraObject-3.0 model. */
+    private static final String BASIC_MODEL =
+            "info:fedora/fedora-system:FedoraObject-3.0";
+
+    /** The RELS-EXT format URI. */
+    private static final String RELS_EXT_FORMAT =
+            "info:fedora/fedora-system:FedoraRELSExt-1.0";
+
+    /** Name of the parameter holding the content model PID URI. */
+    private static final String CMODEL_PID_URI = "cModelPidURI";
+
+    /** Name of the parameter holding the created date for new RELS-EXTs. */
+    private static final String CREATED_DATE = "createdDate";
+
+    /** Name of the parameter asking for an explicit basic model. */
+    private static final String EXPLICIT_BASIC_MODEL = "explicitBasicModel";
+
+    /** Factory for readers; not shared across instances. */
+    private final XMLInputFactory m_inputFactory;
+
+    /** Factory for output writers; not shared across instances. */
+    private final XMLOutputFactory m_outputFactory;
+
+    /** Factory for writers that buffer RELS-EXT; repairs namespaces. */
+    private final XMLOutputFactory m_bufferFactory;
+
+    /** Current parameter values, keyed by name. */
+    private final Map<String, Object> m_params;
+
+    /** Output properties; kept only for the sake of the API. */
+    private Properties m_outputProperties;
+
+    /** URI resolver; kept only for the sake of the API. */
+    private URIResolver m_uriResolver;
+
+    /** Error listener; kept only for the sake of the API. */
+    private ErrorListener m_errorListener;
+
+    /** The model derived from the fType of the current object, if any. */
+    private String m_fedoraModel;
+
+    /** Whether a RELS-EXT datastream was seen in the current object. */
+    private boolean m_hasRelsExt;
+
+    /** The latest RELS-EXT CREATED date of the current object, if any. */
+    private String m_maxCreatedDate;
+
+    /**
+     * Creates an instance with no parameters set.
+     */
+    public StreamingUpgrader() {
+        m_inputFactory = XMLInputFactory.newInstance();
+        m_outputFactory = XMLOutputFactory.newInstance();
+        m_bufferFactory = XMLOutputFactory.newInstance();
+        m_bufferFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES,
+                                    Boolean.TRUE);
+        m_params = new HashMap<String, Object>();
+        m_outputProperties = new Properties();
+    }
+
+    /**
+     * Creates an instance with parameters taken from the top-level
+     * <code>xsl:param</code> defaults of the given stylesheet.
+     *
+     * <p>This is meant for stylesheets written by the generator, which only
+     * differ from <code>foxml-upgrade-cma.xslt</code> in their default
+     * <code>cModelPidURI</code>.  Only string literal defaults are
+     * understood.</p>
+     *
+     * @param xsltFile the stylesheet.
+     * @return the instance, or null if the stylesheet does not declare a
+     *         <code>cModelPidURI</code> parameter, and is therefore not an
+     *         upgrade stylesheet.
+     * @throws FaultException if the stylesheet can't be read.
+     */
+    public static StreamingUpgrader fromStylesheet(File xsltFile) {
+        StreamingUpgrader upgrader = new StreamingUpgrader();
+        InputStream in = null;
+        XMLStreamReader reader = null;
+        boolean isUpgrade = false;
+        try {
+            in = new FileInputStream(xsltFile);
+            reader = upgrader.m_inputFactory.createXMLStreamReader(in);
+            int depth = 0;
+            while (reader.hasNext()) {
+                int type = reader.next();
+                if (type == START_ELEMENT) {
+                    depth++;
+                    if (depth == 2 && XSL.equals(reader.getNamespaceURI())
+                            && reader.getLocalName().equals("param")) {
+                        String name = getAttribute(reader, "name");
+                        String select = getAttribute(reader, "select");
+                        if (CMODEL_PID_URI.equals(name)) {
+                            isUpgrade = true;
+                        }
+                        if (name != null && select != null) {
+                            upgrader.setParameter(name, unquote(select));
+                        }
+                    }
+                } else if (type == END_ELEMENT) {
+                    depth--;
+                }
+            }
+        } catch (IOException e) {
+            throw new FaultException("Error reading stylesheet: "
+                    + xsltFile.getPath(), e);
+        } catch (XMLStreamException e) {
+            throw new FaultException("Error parsing stylesheet: "
+                    + xsltFile.getPath(), e);
+        } finally {
+            close(reader);
+            FileUtil.close(in);
+        }
+        if (!isUpgrade) {
+            return null;
+        }
+        return upgrader;
+    }
+
+    //---
+    // javax.xml.transform.Transformer implementation
+    //---
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transform(Source source, Result result)
+            throws TransformerException {
+        XMLStreamReader reader = null;
+        XMLStreamWriter writer = null;
+        try {
+            reader = createReader(source);
+            writer = createWriter(result);
+            upgrade(reader, writer);
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new TransformerException(e);
+        } finally {
+            close(reader);
+            close(writer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setParameter(String name, Object value) {
+        m_params.put(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getParameter(String name) {
+        return m_params.get(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearParameters() {
+        m_params.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setURIResolver(URIResolver resolver) {
+        m_uriResolver = resolver;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URIResolver getURIResolver() {
+        return m_uriResolver;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOutputProperties(Properties oformat) {
+        m_outputProperties = new Properties();
+        if (oformat != null) {
+            m_outputProperties.putAll(oformat);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Properties getOutputProperties() {
+        return (Properties) m_outputProperties.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOutputProperty(String name, String value) {
+        m_outputProperties.setProperty(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOutputProperty(String name) {
+        return m_outputProperties.getProperty(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setErrorListener(ErrorListener listener) {
+        m_errorListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ErrorListener getErrorListener() {
+        return m_errorListener;
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    private XMLStreamReader createReader(Source source)
+            throws XMLStreamException, TransformerException {
+        if (!(source instanceof StreamSource)) {
+            throw new TransformerException("Unsupported source: "
+                    + source.getClass().getName());
+        }
+        StreamSource ss = (StreamSource) source;
+        InputStream in = ss.getInputStream();
+        if (in != null) {
+            return m_inputFactory.createXMLStreamReader(in);
+        }
+        Reader r = ss.getReader();
+        if (r != null) {
+            return m_inputFactory.createXMLStreamReader(r);
+        }
+        return m_inputFactory.createXMLStreamReader(source);
+    }
+
+    private XMLStreamWriter createWriter(Result result)
+            throws XMLStreamException, TransformerException {
+        if (!(result instanceof StreamResult)) {
+            throw new TransformerException("Unsupported result: "
+                    + result.getClass().getName());
+        }
+        StreamResult sr = (StreamResult) result;
+        OutputStream out = sr.getOutputStream();
+        if (out != null) {
+            return m_outputFactory.createXMLStreamWriter(out, "UTF-8");
+        }
+        Writer w = sr.getWriter();
+        if (w != null) {
+            return m_outputFactory.createXMLStreamWriter(w);
+        }
+        throw new TransformerException("StreamResult has no output stream "
+                + "or writer");
+    }
+
+    private String getParam(String name) {
+        Object value = m_params.get(name);
+        if (value == null) {
+            return "";
+        }
+        return value.toString();
+    }
+
+    private void upgrade(XMLStreamReader in, XMLStreamWriter out)
+            throws XMLStreamException {
+        m_fedoraModel = "";
+        m_hasRelsExt = false;
+        m_maxCreatedDate = "";
+        out.writeStartDocument("UTF-8", "1.0");
+        while (in.hasNext()) {
+            int type = in.next();
+            if (type == START_ELEMENT) {
+                if (isFOXML(in, "digitalObject")) {
+                    upgradeRoot(in, out);
+                } else {
+                    copyElement(in, out, null);
+                }
+            } else if (type == COMMENT || type == PROCESSING_INSTRUCTION) {
+                copyNode(in, out);
+            }
+            // the XPath data model has no doctype or text outside the root
+        }
+        out.writeEndDocument();
+    }
+
+    // <xsl:template match="/foxml:digitalObject">
+    private void upgradeRoot(XMLStreamReader in, XMLStreamWriter out)
+            throws XMLStreamException {
+        String pid = getAttribute(in, "PID");
+        if (pid == null) {
+            pid = "";
+        }
+        out.writeStartElement(in.getPrefix(),
+                              in.getLocalName(),
+                              in.getNamespaceURI());
+        copyNamespaces(in, out);
+        out.writeAttribute("VERSION", "1.1");
+        out.writeAttribute("PID", pid);
+        processChildren(in, out, null);
+        if (!m_hasRelsExt && (m_fedoraModel.length() > 0
+                || getParam(CMODEL_PID_URI).length() > 0
+                || getParam(EXPLICIT_BASIC_MODEL).length() > 0)) {
+            addRelsExt(pid, out);
+        }
+        out.writeEndElement();
+    }
+
+    // Applies templates to all child nodes of the current element, leaving
+    // the reader at its end element, which is not written.
+    private void processChildren(XMLStreamReader in,
+                                 XMLStreamWriter out,
+                                 String datastreamID)
+            throws XMLStreamException {
+        while (in.hasNext()) {
+            int type = in.next();
+            if (type == START_ELEMENT) {
+                processElement(in, out, datastreamID);
+            } else if (type == END_ELEMENT) {
+                return;
+            } else {
+                copyNode(in, out);
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    // Applies the matching template to the current element.
+    private void processElement(XMLStreamReader in,
+                                XMLStreamWriter out,
+                                String parentDatastreamID)
+            throws XMLStreamException {
+        if (isFOXML(in, "disseminator")) {
+            skipElement(in);
+        } else if (isFOXML(in, "property")) {
+            String name = getAttribute(in, "NAME");
+            if (FTYPE.equals(name)) {
+                m_fedoraModel += getModel(getAttribute(in, "VALUE"));
+                skipElement(in);
+            } else if (CONTENT_MODEL.equals(name)) {
+                skipElement(in);
+            } else {
+                copyElement(in, out, null);
+            }
+        } else if (isFOXML(in, "datastream")) {
+            String id = getAttribute(in, "ID");
+            if ("RELS-EXT".equals(id)) {
+                m_hasRelsExt = true;
+                XMLStreamReader buffered = bufferElement(in);
+                try {
+                    copyElement(buffered, out, id);
+                } finally {
+                    close(buffered);
+                }
+            } else {
+                copyElement(in, out, id);
+            }
+        } else if (parentDatastreamID != null
+                && isFOXML(in, "datastreamVersion")) {
+            processVersion(in, out, parentDatastreamID);
+        } else {
+            copyElement(in, out, null);
+        }
+    }
+
+    // Applies the templates for datastreamVersions of system-defined
+    // datastreams.
+    private void processVersion(XMLStreamReader in,
+                                XMLStreamWriter out,
+                                String dsID)
+            throws XMLStreamException {
+        if (dsID.equals("DC")) {
+            forceFormat(in, out, "text/xml",
+                        "http://www.openarchives.org/OAI/2.0/oai_dc/");
+        } else if (dsID.equals("RELS-EXT")) {
+            forceFormat(in, out, "application/rdf+xml", RELS_EXT_FORMAT);
+            String created = getAttribute(in, "CREATED");
+            if (created != null && created.equals(m_maxCreatedDate)) {
+                addCModelRels(in, out);
+                out.writeEndElement();
+                return;
+            }
+        } else if (dsID.equals("RELS-INT")) {
+            forceFormat(in, out, "application/rdf+xml",
+                        "info:fedora/fedora-system:FedoraRELSInt-1.0");
+        } else if (dsID.equals("POLICY")) {
+            forceFormat(in, out, "text/xml",
+                        "urn:oasis:names:tc:xacml:1.0:policy");
+        } else if (dsID.equals("METHODMAP")
+                && m_fedoraModel.equals(SDEF_MODEL)) {
+            forceFormat(in, out, "text/xml",
+                        "info:fedora/fedora-system:FedoraSDefMethodMap-1.0");
+        } else if (dsID.equals("METHODMAP")
+                && m_fedoraModel.equals(SDEP_MODEL)) {
+            forceFormat(in, out, "text/xml",
+                        "info:fedora/fedora-system:FedoraSDepMethodMap-1.1");
+        } else if (dsID.equals("DSINPUTSPEC")
+                && m_fedoraModel.equals(SDEP_MODEL)) {
+            forceFormat(in, out, "text/xml",
+                        "info:fedora/fedora-system:FedoraDSInputSpec-1.1");
+        } else if (dsID.equals("WSDL") && m_fedoraModel.equals(SDEP_MODEL)) {
+            forceFormat(in, out, "text/xml",
+                        "http://schemas.xmlsoap.org/wsdl/");
+        } else {
+            copyElement(in, out, null);
+            return;
+        }
+        processChildren(in, out, null);
+        out.writeEndElement();
+    }
+
+    // <xsl:template name="addCModelRels">; leaves the reader at the end
+    // element of the current element, which is not written.
+    private void addCModelRels(XMLStreamReader in, XMLStreamWriter out)
+            throws XMLStreamException {
+        while (in.hasNext()) {
+            int type = in.next();
+            if (type == START_ELEMENT) {
+                copyStart(in, out, true);
+                if ("rdf".equals(in.getPrefix())
+                        && in.getLocalName().equals("Description")) {
+                    printCModelRels(out);
+                    processChildren(in, out, null);
+                } else {
+                    addCModelRels(in, out);
+                }
+                out.writeEndElement();
+            } else if (type == END_ELEMENT) {
+                return;
+            } else {
+                copyNode(in, out);
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    // <xsl:template name="printCModelRels">
+    private void printCModelRels(XMLStreamWriter out)
+            throws XMLStreamException {
+        String cModelPidURI = getParam(CMODEL_PID_URI);
+        if (cModelPidURI.length() > 0) {
+            addHasModel(cModelPidURI, out);
+        }
+        if (m_fedoraModel.length() > 0) {
+            addHasModel(m_fedoraModel, out);
+        }
+        if (getParam(EXPLICIT_BASIC_MODEL).length() > 0) {
+            addHasModel(BASIC_MODEL, out);
+        }
+    }
+
+    private static void addHasModel(String modelURI, XMLStreamWriter out)
+            throws XMLStreamException {
+        NamespaceContext context = out.getNamespaceContext();
+        String rdfURI = context.getNamespaceURI("rdf");
+        boolean declareRDF = isEmpty(rdfURI);
+        if (declareRDF) {
+            rdfURI = RDF;
+        }
+        boolean declareModel =
+                !MODEL.equals(context.getNamespaceURI("fedora-model"));
+        out.writeStartElement("fedora-model", "hasModel", MODEL);
+        if (declareModel) {
+            out.writeNamespace("fedora-model", MODEL);
+        }
+        if (declareRDF) {
+            out.writeNamespace("rdf", rdfURI);
+        }
+        out.writeAttribute("rdf", rdfURI, "resource", modelURI);
+        out.writeEndElement();
+    }
+
+    // Writes the RELS-EXT datastream that is added when none exists.
+    private void addRelsExt(String pid, XMLStreamWriter out)
+            throws XMLStreamException {
+        String f = out.getNamespaceContext().getPrefix(FOXML);
+        boolean declareFOXML = f == null;
+        if (declareFOXML) {
+            f = "foxml";
+        }
+        out.writeStartElement(f, "datastream", FOXML);
+        if (declareFOXML) {
+            out.writeNamespace(f, FOXML);
+        }
+        out.writeAttribute("ID", "RELS-EXT");
+        out.writeAttribute("STATE", "A");
+        out.writeAttribute("CONTROL_GROUP", "X");
+        out.writeAttribute("VERSIONABLE", "true");
+        out.writeStartElement(f, "datastreamVersion", FOXML);
+        out.writeAttribute("ID", "RELS-EXT.0");
+        out.writeAttribute("MIMETYPE", "application/rdf+xml");
+        out.writeAttribute("FORMAT_URI", RELS_EXT_FORMAT);
+        String createdDate = getParam(CREATED_DATE);
+        if (createdDate.length() > 0) {
+            out.writeAttribute("CREATED", createdDate);
+        }
+        out.writeAttribute("LABEL", "RDF Statements about this object");
+        out.writeStartElement(f, "xmlContent", FOXML);
+        out.writeStartElement("rdf", "RDF", RDF);
+        out.writeNamespace("rdf", RDF);
+        out.writeNamespace("fedora-model", MODEL);
+        out.writeStartElement("rdf", "Description", RDF);
+        out.writeAttribute("rdf", RDF, "about", "info:fedora/" + pid);
+        printCModelRels(out);
+        out.writeEndElement();
+        out.writeEndElement();
+        out.writeEndElement();
+        out.writeEndElement();
+        out.writeEndElement();
+    }
+
+    // Copies the current element verbatim to a buffer, noting the latest
+    // CREATED date of its datastreamVersions, and returns a reader
+    // positioned at the start of the copy.
+    private XMLStreamReader bufferElement(XMLStreamReader in)
+            throws XMLStreamException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        XMLStreamWriter out = m_bufferFactory.createXMLStreamWriter(buf,
+                                                                   "UTF-8");
+        m_maxCreatedDate = "";
+        copyStart(in, out, false);
+        int depth = 1;
+        while (depth > 0) {
+            int type = in.next();
+            if (type == START_ELEMENT) {
+                depth++;
+                if (depth == 2 && isFOXML(in, "datastreamVersion")) {
+                    String created = getAttribute(in, "CREATED");
+                    if (created != null
+                            && created.compareTo(m_maxCreatedDate) > 0) {
+                        m_maxCreatedDate = created;
+                    }
+                }
+                copyStart(in, out, false);
+            } else if (type == END_ELEMENT) {
+                depth--;
+                out.writeEndElement();
+            } else {
+                copyNode(in, out);
+            }
+        }
+        out.close();
+        XMLStreamReader reader = m_inputFactory.createXMLStreamReader(
+                new ByteArrayInputStream(buf.toByteArray()), "UTF-8");
+        reader.nextTag();
+        return reader;
+    }
+
+    // Writes the start of a datastreamVersion with all attributes except
+    // MIMETYPE and FORMAT_URI copied, then the given values for those.
+    private static void forceFormat(XMLStreamReader in,
+                                    XMLStreamWriter out,
+                                    String mimeType,
+                                    String formatURI)
+            throws XMLStreamException {
+        out.writeStartElement(in.getPrefix(),
+                              in.getLocalName(),
+                              in.getNamespaceURI());
+        copyNamespaces(in, out);
+        for (int i = 0; i < in.getAttributeCount(); i++) {
+            String prefix = in.getAttributePrefix(i);
+            String name = in.getAttributeLocalName(i);
+            if ((prefix != null && prefix.length() > 0)
+                    || !(name.equals("MIMETYPE")
+                            || name.equals("FORMAT_URI"))) {
+                copyAttribute(in, i, out);
+            }
+        }
+        out.writeAttribute("MIMETYPE", mimeType);
+        out.writeAttribute("FORMAT_URI", formatURI);
+    }
+
+    // Identity copy of the current element and its children, applying
+    // templates to the children.
+    private void copyElement(XMLStreamReader in,
+                             XMLStreamWriter out,
+                             String datastreamID)
+            throws XMLStreamException {
+        copyStart(in, out, true);
+        processChildren(in, out, datastreamID);
+        out.writeEndElement();
+    }
+
+    // Copies the start of the current element and its attributes, minus any
+    // unqualified bDefPID attribute if dropBDefPID is true
+    // (<xsl:template match="@bDefPID"/>).
+    private static void copyStart(XMLStreamReader in,
+                                  XMLStreamWriter out,
+                                  boolean dropBDefPID)
+            throws XMLStreamException {
+        String prefix = in.getPrefix();
+        String uri = in.getNamespaceURI();
+        out.writeStartElement(prefix == null ? "" : prefix,
+                              in.getLocalName(),
+                              uri == null ? "" : uri);
+        copyNamespaces(in, out);
+        for (int i = 0; i < in.getAttributeCount(); i++) {
+            if (!dropBDefPID
+                    || !in.getAttributeLocalName(i).equals("bDefPID")
+                    || !isEmpty(in.getAttributeNamespace(i))) {
+                copyAttribute(in, i, out);
+            }
+        }
+    }
+
+    // Copies the namespace declarations of the current element.  Nothing is
+    // ever dropped between a declaration and its uses, so these are always
+    // enough for the copy to be well-formed.
+    private static void copyNamespaces(XMLStreamReader in,
+                                       XMLStreamWriter out)
+            throws XMLStreamException {
+        for (int i = 0; i < in.getNamespaceCount(); i++) {
+            String prefix = in.getNamespacePrefix(i);
+            String uri = in.getNamespaceURI(i);
+            if (isEmpty(prefix)) {
+                out.writeDefaultNamespace(uri == null ? "" : uri);
+            } else {
+                out.writeNamespace(prefix, uri);
+            }
+        }
+    }
+
+    private static void copyAttribute(XMLStreamReader in,
+                                      int i,
+                                      XMLStreamWriter out)
+            throws XMLStreamException {
+        String uri = in.getAttributeNamespace(i);
+        if (isEmpty(uri)) {
+            out.writeAttribute(in.getAttributeLocalName(i),
+                               in.getAttributeValue(i));
+        } else {
+            out.writeAttribute(in.getAttributePrefix(i),
+                               uri,
+                               in.getAttributeLocalName(i),
+                               in.getAttributeValue(i));
+        }
+    }
+
+    // Copies the current text, comment, or processing instruction.
+    // CDATA sections are written as plain text, as in the XPath data model.
+    private static void copyNode(XMLStreamReader in, XMLStreamWriter out)
+            throws XMLStreamException {
+        switch (in.getEventType()) {
+            case CHARACTERS:
+            case CDATA:
+            case SPACE:
+                out.writeCharacters(in.getTextCharacters(),
+                                    in.getTextStart(),
+                                    in.getTextLength());
+                break;
+            case ENTITY_REFERENCE:
+                out.writeCharacters(in.getText());
+                break;
+            case COMMENT:
+                out.writeComment(in.getText());
+                break;
+            case PROCESSING_INSTRUCTION:
+                String data = in.getPIData();
+                if (isEmpty(data)) {
+                    out.writeProcessingInstruction(in.getPITarget());
+                } else {
+                    out.writeProcessingInstruction(in.getPITarget(), data);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Skips all events up to and including the current element's end.
+    private static void skipElement(XMLStreamReader in)
+            throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int type = in.next();
+            if (type == START_ELEMENT) {
+                depth++;
+            } else if (type == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    private static String getModel(String fType) {
+        if ("FedoraBMechObject".equals(fType)) {
+            return SDEP_MODEL;
+        } else if ("FedoraBDefObject".equals(fType)) {
+            return SDEF_MODEL;
+        }
+        return "";
+    }
+
+    private static boolean isFOXML(XMLStreamReader in, String localName) {
+        return in.getLocalName().equals(localName)
+                && FOXML.equals(in.getNamespaceURI());
+    }
+
+    // Gets the value of an unqualified attribute of the current element.
+    private static String getAttribute(XMLStreamReader in, String name) {
+        for (int i = 0; i < in.getAttributeCount(); i++) {
+            if (in.getAttributeLocalName(i).equals(name)
+                    && isEmpty(in.getAttributeNamespace(i))) {
+                return in.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    private static String unquote(String select) {
+        String value = select.trim();
+        if (value.length() >= 2) {
+            char q = value.charAt(0);
+            if ((q == '\'' || q == '"')
+                    && value.charAt(value.length() - 1) == q) {
+                return value.substring(1, value.length() - 1);
+            }
+        }
+        return value;
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    private static void close(XMLStreamWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (XMLStreamException e) {
+                // nothing more can be done
+            }
+        }
+    }
+
+}
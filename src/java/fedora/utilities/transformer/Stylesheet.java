@@ -0,0 +1,115 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.transformer;
+
+import java.io.File;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A stylesheet, compiled on first use, from which any number of threads
+ * can get transformers of their own.
+ *
+ * <p>Upgrade stylesheets can instead be run by the native
+ * {@link StreamingUpgrader}; one is made for each transformer.
+ * Threadsafe.</p>
+ *
+ * @author Chris Wilper
+ */
+class Stylesheet {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(Stylesheet.class);
+
+    /** Option to make the basic content model explicit in the output. */
+    private static final String EXPLICIT_BASIC_MODEL = "explicitBasicModel";
+
+    /** The stylesheet file. */
+    private final File m_xsltFile;
+
+    /** Whether the basic content model will be made explicit. */
+    private final boolean m_explicitBasicModel;
+
+    /** Whether the native upgrader will be used if possible. */
+    private boolean m_streamingUpgrade;
+
+    /** Whether the use of the native upgrader has been logged. */
+    private boolean m_logged;
+
+    /** The compiled stylesheet, or null until compiled. */
+    private Templates m_templates;
+
+    /**
+     * Creates an instance.  Nothing is read until the first transformer
+     * is asked for.
+     *
+     * @param xsltFile the stylesheet file.
+     * @param explicitBasicModel whether to make the basic content model
+     *        explicit in the output.
+     * @param streamingUpgrade whether to use the native upgrader instead of
+     *        XSLT, if this is an upgrade stylesheet.
+     */
+    Stylesheet(File xsltFile,
+               boolean explicitBasicModel,
+               boolean streamingUpgrade) {
+        m_xsltFile = xsltFile;
+        m_explicitBasicModel = explicitBasicModel;
+        m_streamingUpgrade = streamingUpgrade;
+    }
+
+    /**
+     * Gets the stylesheet file.
+     *
+     * @return the file.
+     */
+    File getFile() {
+        return m_xsltFile;
+    }
+
+    /**
+     * Gets a new transformer for this stylesheet, for use by one thread.
+     *
+     * @return the transformer.
+     * @throws TransformerConfigurationException if the stylesheet can't be
+     *         compiled.
+     */
+    javax.xml.transform.Transformer newTransformer()
+            throws TransformerConfigurationException {
+        javax.xml.transform.Transformer transformer = null;
+        synchronized (this) {
+            if (m_streamingUpgrade) {
+                transformer = StreamingUpgrader.fromStylesheet(m_xsltFile);
+                if (transformer == null) {
+                    LOG.warn(m_xsltFile.getName() + " is not an upgrade "
+                            + "stylesheet; it will be applied as XSLT");
+                    m_streamingUpgrade = false;
+                } else if (!m_logged) {
+                    LOG.info("Using streaming upgrader for "
+                            + m_xsltFile.getName());
+                    m_logged = true;
+                }
+            }
+            if (transformer == null) {
+                if (m_templates == null) {
+                    TransformerFactory tfactory =
+                            TransformerFactory.newInstance();
+                    m_templates = tfactory.newTemplates(
+                            new StreamSource(m_xsltFile));
+                }
+                transformer = m_templates.newTransformer();
+            }
+        }
+        if (m_explicitBasicModel) {
+            transformer.setParameter(EXPLICIT_BASIC_MODEL, "'true'");
+        }
+        return transformer;
+    }
+
+}
@@ -0,0 +1,668 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.transformer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharConversionException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.log4j.Logger;
+
+import org.fcrepo.common.FaultException;
+
+import fedora.utilities.concurrent.AdaptiveLimiter;
+import fedora.utilities.concurrent.ExecutorUtil;
+import fedora.utilities.concurrent.HeapBudget;
+import fedora.utilities.digitalobject.FailedObjectList;
+import fedora.utilities.digitalobject.ObjectStore;
+import fedora.utilities.file.ByteBufferInputStream;
+import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
+
+/**
+ * Transforms objects on a pool of worker threads.
+ *
+ * <p>The number of objects being transformed at once is bounded by an
+ * {@link AdaptiveLimiter}, either fixed at the number of threads or
+ * adjusted between one and that number as the run goes on.  Transformers
+ * are kept for reuse, one for each object being transformed at once.</p>
+ *
+ * <p>With virtual threads, each object is read, transformed in memory, and
+ * written on a thread of its own, but only as many are transformed at once
+ * as there are processors.  Reads and writes, which mostly wait on the
+ * disk or database, then overlap freely without an operating system thread
+ * for each.  Objects of 16MB or more are streamed through temporary files
+ * instead, so no one object takes a large share of the heap.  Virtual
+ * threads need Java 21; on earlier releases, the same stages run on a pool
+ * of platform threads instead.</p>
+ *
+ * <p>Objects can also be scheduled by size, so the last to finish aren't
+ * the largest.  Each window of a batch is then started largest first,
+ * with objects above a given size sent to a lane of their own threads and
+ * always streamed through temporary files rather than held in memory, and
+ * small objects packed together so that each is not a task of its own.
+ * The sizes found are carried with the objects, not looked up again.  Idle
+ * threads take the next task from a shared queue, so no thread is left
+ * with a fixed share of the work.</p>
+ *
+ * <p>Given a heap budget, a worker waits before starting an object whose
+ * estimated cost, a multiple of its size on disk, wouldn't fit alongside
+ * those already started.</p>
+ *
+ * <p>If an object fails and failures aren't being listed, the first such
+ * failure is thrown from the next call to
+ * {@link #submit(Stylesheet, String)} or {@link #finish()}, and no more
+ * objects are started.</p>
+ *
+ * @author Chris Wilper
+ */
+class TransformWorkers {
+
+    /** Logger for this class. */
+    private static final Logger LOG = Logger.getLogger(TransformWorkers.class);
+
+    /** The most bytes of small objects to pack into one task. */
+    private static final long PACK_BYTES = 1024 * 1024;
+
+    /** The most small objects to pack into one task. */
+    private static final int PACK_SIZE = 64;
+
+    /** The size from which objects are never transformed in memory. */
+    private static final long IN_MEMORY_LIMIT = 16 * 1024 * 1024;
+
+    /** The store to read from and write to. */
+    private final ObjectStore m_store;
+
+    /** Whether transformed objects will be discarded. */
+    private final boolean m_dryRun;
+
+    /** Where to list objects that can't be transformed, or null. */
+    private final FailedObjectList m_failed;
+
+    /** Bounds the number of objects being transformed at once. */
+    private final AdaptiveLimiter m_limiter;
+
+    /** The worker threads. */
+    private final ExecutorService m_pool;
+
+    /**
+     * Bounds the number of objects being transformed in memory at once, or
+     * null if each is read, transformed, and written in one pass.
+     */
+    private final Semaphore m_processors;
+
+    /** Transformers not now in use. */
+    private final Queue<Cached> m_idle;
+
+    /** The threads large objects are transformed on, or null. */
+    private ExecutorService m_largePool;
+
+    /** The size from which objects are transformed on the large lane. */
+    private long m_largeObjectSize;
+
+    /** The budget objects are admitted against, or null. */
+    private HeapBudget m_heapBudget;
+
+    /** The multiple of an object's size taken as its heap cost. */
+    private int m_heapCostFactor;
+
+    /** The number of objects transformed. */
+    private final AtomicInteger m_transformed;
+
+    /** The first failure that should stop the run, or null. */
+    private volatile RuntimeException m_failure;
+
+    /**
+     * Creates an instance and starts its threads.
+     *
+     * @param threads the number of worker threads, or with virtual threads,
+     *        the most objects to have in hand at once.
+     * @param adaptive whether to adjust the number of objects transformed
+     *        at once, starting from one, rather than using all threads.
+     * @param virtualThreads whether to read and write objects on virtual
+     *        threads, and transform them on as many at once as there are
+     *        processors.
+     * @param store the store to read from and write to.
+     * @param dryRun if true, transformed objects will be discarded.
+     * @param failed where to list objects that can't be transformed, or
+     *        null to stop at the first.
+     */
+    TransformWorkers(int threads,
+                     boolean adaptive,
+                     boolean virtualThreads,
+                     ObjectStore store,
+                     boolean dryRun,
+                     FailedObjectList failed) {
+        m_store = store;
+        m_dryRun = dryRun;
+        m_failed = failed;
+        if (adaptive) {
+            m_limiter = new AdaptiveLimiter(1, 1, threads);
+        } else {
+            m_limiter = new AdaptiveLimiter(threads, threads, threads);
+        }
+        ExecutorService pool = null;
+        if (virtualThreads) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            m_processors = new Semaphore(processors);
+            pool = ExecutorUtil.newVirtualThreadExecutor("Transformer");
+            if (pool == null) {
+                LOG.warn("Virtual threads need Java 21; using platform "
+                        + "threads");
+            } else {
+                LOG.info("Transforming on virtual threads, up to " + threads
+                        + " objects in hand and " + processors
+                        + " in memory at once"
+                        + (adaptive ? ", adapting how many are in hand" : ""));
+            }
+        } else {
+            m_processors = null;
+        }
+        if (pool == null) {
+            pool = ExecutorUtil.newDaemonThreadPool("Transformer", threads);
+            LOG.info("Transforming with " + threads + " threads"
+                    + (adaptive ? ", adapting how many run at once" : ""));
+        }
+        m_pool = pool;
+        m_idle = new ConcurrentLinkedQueue<Cached>();
+        m_transformed = new AtomicInteger();
+    }
+
+    /**
+     * Submits an object to be transformed, waiting first until the limit
+     * allows another to start.
+     *
+     * @param stylesheet the stylesheet to transform it with.
+     * @param pid the pid of the object.
+     * @throws FaultException if an earlier object failed and failures
+     *         aren't being listed.
+     */
+    void submit(Stylesheet stylesheet, String pid)
+            throws FaultException {
+        submitPack(stylesheet, Collections.singletonList(pid), null);
+    }
+
+    /**
+     * Sends objects from the given size up to a lane of their own, to be
+     * transformed on the given number of threads without counting against
+     * the limit.  They are always streamed through temporary files, so
+     * however large, they take little memory.
+     *
+     * @param largeObjectSize the size, in bytes, from which objects are
+     *        large.
+     * @param threads the number of threads for large objects.
+     */
+    void setLargeObjectLane(long largeObjectSize, int threads) {
+        m_largeObjectSize = largeObjectSize;
+        m_largePool = ExecutorUtil.newDaemonThreadPool("Transformer-large",
+                                                       threads);
+        LOG.info("Transforming objects of " + largeObjectSize + " bytes or "
+                + "more on " + threads + " thread(s) of their own");
+    }
+
+    /**
+     * Admits objects against a heap budget.  Each object's cost is taken
+     * to be its size on disk times the given factor, covering its bytes
+     * in memory, the trees built while transforming it, and its output.
+     *
+     * @param budget the most bytes of estimated cost to admit at once.
+     * @param costFactor the multiple of an object's size taken as its
+     *        cost.
+     */
+    void setHeapBudget(long budget, int costFactor) {
+        m_heapBudget = new HeapBudget(budget);
+        m_heapCostFactor = costFactor;
+        LOG.info("Admitting objects against a heap budget of " + budget
+                + " bytes, at " + costFactor + " times their size");
+    }
+
+    /**
+     * Submits objects to be transformed, largest first.  Large objects go
+     * to their own lane, if there is one, and small ones are packed into
+     * tasks of up to a megabyte or 64 objects.  Objects whose sizes can't
+     * be found are taken to be small.  The sizes found are kept with each
+     * object, so they're not looked up again when it's transformed.
+     *
+     * @param stylesheet the stylesheet to transform them with.
+     * @param pids the pids of the objects; they'll be reordered.
+     * @throws FaultException if an earlier object failed and failures
+     *         aren't being listed.
+     */
+    void submitBySize(Stylesheet stylesheet, List<String> pids)
+            throws FaultException {
+        final Map<String, Long> sizes = getSizes(pids);
+        Collections.sort(pids, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return sizes.get(b).compareTo(sizes.get(a));
+            }
+        });
+        int large = 0;
+        int packs = 0;
+        List<String> pack = new ArrayList<String>();
+        long packBytes = 0;
+        for (String pid : pids) {
+            long size = sizes.get(pid);
+            if (m_largePool != null && size >= m_largeObjectSize) {
+                submitLarge(stylesheet, pid, size);
+                large++;
+                continue;
+            }
+            pack.add(pid);
+            packBytes += size;
+            if (packBytes >= PACK_BYTES || pack.size() >= PACK_SIZE) {
+                submitPack(stylesheet, pack, sizes);
+                packs++;
+                pack = new ArrayList<String>();
+                packBytes = 0;
+            }
+        }
+        if (!pack.isEmpty()) {
+            submitPack(stylesheet, pack, sizes);
+            packs++;
+        }
+        LOG.debug("Scheduled " + pids.size() + " objects by size: " + large
+                + " large, the rest in " + packs + " task(s)");
+    }
+
+    /**
+     * Waits for all submitted objects to be transformed and stops the
+     * threads.
+     *
+     * @return the number of objects transformed.
+     * @throws FaultException if an object failed and failures aren't being
+     *         listed.
+     */
+    int finish()
+            throws FaultException {
+        m_limiter.awaitIdle();
+        if (m_largePool != null) {
+            m_largePool.shutdown();
+            try {
+                while (!m_largePool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOG.info("Waiting for large objects to be transformed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FaultException("Interrupted while waiting for "
+                        + "large objects to be transformed", e);
+            }
+        }
+        m_pool.shutdown();
+        LOG.info("Transformed up to " + m_limiter.getPeakLimit()
+                + " objects at once, finishing with " + m_limiter.getLimit());
+        if (m_heapBudget != null) {
+            LOG.info("Admitted up to " + m_heapBudget.getPeak() + " bytes "
+                    + "of estimated heap cost at once, of a budget of "
+                    + m_heapBudget.getBudget());
+        }
+        throwFailure();
+        return m_transformed.get();
+    }
+
+    /**
+     * Stops the threads without waiting for submitted objects.
+     */
+    void abort() {
+        m_pool.shutdownNow();
+        if (m_largePool != null) {
+            m_largePool.shutdownNow();
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // submits objects to be transformed in turn, as one task, waiting
+    // first until the limit allows another to start; sizes may be null
+    private void submitPack(final Stylesheet stylesheet,
+                            final List<String> pids,
+                            final Map<String, Long> sizes)
+            throws FaultException {
+        throwFailure();
+        m_limiter.acquire();
+        m_pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    for (String pid : pids) {
+                        long size = sizes == null ? -1 : sizes.get(pid);
+                        long start = System.nanoTime();
+                        boolean overloaded = transform(stylesheet,
+                                                       pid,
+                                                       size,
+                                                       m_processors != null);
+                        m_limiter.record(System.nanoTime() - start,
+                                         overloaded);
+                    }
+                } finally {
+                    m_limiter.release();
+                }
+            }
+        });
+    }
+
+    // submits a large object to its own lane
+    private void submitLarge(final Stylesheet stylesheet,
+                             final String pid,
+                             final long size)
+            throws FaultException {
+        throwFailure();
+        m_largePool.execute(new Runnable() {
+            public void run() {
+                transform(stylesheet, pid, size, false);
+            }
+        });
+    }
+
+    // gets the sizes of the given objects' files, or 0 where unknown
+    private Map<String, Long> getSizes(List<String> pids) {
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        for (String pid : pids) {
+            sizes.put(pid, getSize(pid));
+        }
+        return sizes;
+    }
+
+    // gets the size of an object's file, or 0 if unknown
+    private long getSize(String pid) {
+        try {
+            File file = m_store.getObjectFile(pid);
+            if (file != null) {
+                return file.length();
+            }
+        } catch (FaultException e) {
+            // it will fail again, and be dealt with, when transformed
+            LOG.debug("Unable to look up file of " + pid, e);
+        }
+        return 0;
+    }
+
+    // transforms one object on a worker thread, in memory if asked and
+    // it's small enough; its size is looked up if given as -1, and only
+    // if needed.  Returns whether it failed in a way that signals overload
+    private boolean transform(Stylesheet stylesheet,
+                              String pid,
+                              long size,
+                              boolean inMemory) {
+        boolean overloaded = false;
+        long admitted = 0;
+        try {
+            if (m_failure != null) {
+                return false;
+            }
+            if (m_heapBudget != null) {
+                if (size < 0) {
+                    size = getSize(pid);
+                }
+                long cost = estimateCost(size);
+                m_heapBudget.acquire(cost);
+                admitted = cost;
+            }
+            if (inMemory) {
+                if (size < 0) {
+                    size = getSize(pid);
+                }
+                inMemory = size < IN_MEMORY_LIMIT;
+            }
+            if (!inMemory) {
+                Cached cached = borrow(stylesheet);
+                Metrics.startObject();
+                if (m_processors != null) {
+                    acquireProcessor(pid);
+                }
+                try {
+                    Transformer.transformOne(cached.transformer,
+                                             pid,
+                                             m_store,
+                                             m_dryRun);
+                } finally {
+                    if (m_processors != null) {
+                        m_processors.release();
+                    }
+                }
+                m_idle.add(cached);
+            } else {
+                Metrics.startObject();
+                transformInMemory(stylesheet, pid);
+            }
+            m_transformed.incrementAndGet();
+            Metrics.processed(pid);
+        } catch (TransformerConfigurationException e) {
+            stop(new FaultException("Error processing XSLT file: "
+                    + stylesheet.getFile().getName(), e));
+        } catch (TransformerException e) {
+            overloaded = isOverload(e);
+            if (m_failed == null) {
+                stop(new FaultException("Error transforming object " + pid
+                        + " using XSLT file: "
+                        + stylesheet.getFile().getName(), e));
+            } else {
+                Transformer.skip(m_failed, m_store, pid, e);
+            }
+        } catch (FaultException e) {
+            overloaded = isOverload(e);
+            if (m_failed == null) {
+                stop(e);
+            } else {
+                Transformer.skip(m_failed, m_store, pid, e);
+            }
+        } catch (RuntimeException e) {
+            overloaded = isOverload(e);
+            stop(e);
+        } finally {
+            if (admitted > 0) {
+                m_heapBudget.release(admitted);
+            }
+        }
+        return overloaded;
+    }
+
+    // estimates the heap an object of the given size will take while being
+    // transformed
+    private long estimateCost(long size) {
+        return Math.max(1, size) * m_heapCostFactor;
+    }
+
+    // waits for a processor to transform an object on
+    private void acquireProcessor(String pid) {
+        try {
+            m_processors.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaultException("Interrupted while waiting to "
+                    + "transform " + pid, e);
+        }
+    }
+
+    // reads an object into memory, transforms it while holding a
+    // processor, then writes it
+    private void transformInMemory(Stylesheet stylesheet, String pid)
+            throws TransformerException {
+        InputStream in = read(pid);
+        Buffer out = null;
+        acquireProcessor(pid);
+        try {
+            Cached cached = borrow(stylesheet);
+            long start = Metrics.start(Stage.TRANSFORM);
+            OutputStream sink;
+            if (m_dryRun) {
+                sink = new Transformer.DiscardingOutputStream();
+            } else {
+                out = new Buffer();
+                sink = out;
+            }
+            cached.transformer.transform(new StreamSource(in),
+                                         new StreamResult(sink));
+            Metrics.stop(Stage.TRANSFORM, start, pid);
+            m_idle.add(cached);
+        } finally {
+            m_processors.release();
+            FileUtil.close(in);
+        }
+        if (m_dryRun) {
+            LOG.info("Transformed " + pid);
+        } else {
+            LOG.info("Transformed and replaced " + pid);
+            m_store.replaceObject(pid, out.getInputStream());
+        }
+    }
+
+    // reads an object into memory, unless the store already has
+    private InputStream read(String pid) {
+        long start = Metrics.start(Stage.READ);
+        InputStream in = m_store.getObjectStream(pid);
+        if (in == null) {
+            Metrics.stop(Stage.READ, start, pid);
+            throw new FaultException("No such object: " + pid);
+        }
+        if (in instanceof ByteBufferInputStream) {
+            // read whole, or mapped; either way there's nothing to wait on
+            // that holding it in a heap array would avoid.  The read was
+            // timed with the lookup before it, which can't be told apart
+            Metrics.stop(Stage.READ, start, pid,
+                    ((ByteBufferInputStream) in).available());
+            return in;
+        }
+        Buffer buffer = new Buffer();
+        FileUtil.sendBytes(in, buffer);
+        Metrics.stop(Stage.READ, start, pid, buffer.size());
+        return buffer.getInputStream();
+    }
+
+    // gets an idle transformer for the given stylesheet, or a new one;
+    // those for earlier stylesheets are let go
+    private Cached borrow(Stylesheet stylesheet)
+            throws TransformerConfigurationException {
+        Cached cached = m_idle.poll();
+        while (cached != null && cached.stylesheet != stylesheet) {
+            cached = m_idle.poll();
+        }
+        if (cached == null) {
+            cached = new Cached(stylesheet, stylesheet.newTransformer());
+        }
+        return cached;
+    }
+
+    // notes a failure that should stop the run, keeping the first
+    private synchronized void stop(RuntimeException failure) {
+        Metrics.failed();
+        if (m_failure == null) {
+            m_failure = failure;
+        } else {
+            LOG.error("Also failed", failure);
+        }
+    }
+
+    // throws the failure that should stop the run, if any
+    private void throwFailure() {
+        RuntimeException failure = m_failure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    // tells whether a failure, or any cause of it, signals that the store
+    // or the machine is overloaded: a timeout, refused work, or a database
+    // or I/O error other than a missing file or badly encoded content
+    private static boolean isOverload(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException
+                    || t instanceof RejectedExecutionException
+                    || t instanceof SQLException
+                    || t instanceof InterruptedIOException) {
+                return true;
+            }
+            if (t instanceof IOException
+                    && !(t instanceof FileNotFoundException)
+                    && !(t instanceof CharConversionException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //---
+    // Nested classes
+    //---
+
+    /**
+     * A transformer, and the stylesheet it's for.
+     */
+    private static class Cached {
+
+        /** The stylesheet. */
+        final Stylesheet stylesheet;
+
+        /** The transformer. */
+        final javax.xml.transform.Transformer transformer;
+
+        /**
+         * Creates an instance.
+         *
+         * @param stylesheet the stylesheet.
+         * @param transformer the transformer.
+         */
+        Cached(Stylesheet stylesheet,
+               javax.xml.transform.Transformer transformer) {
+            this.stylesheet = stylesheet;
+            this.transformer = transformer;
+        }
+
+    }
+
+    /**
+     * A byte array output stream whose content can be read back without
+     * copying it.
+     */
+    private static class Buffer
+            extends ByteArrayOutputStream {
+
+        /**
+         * Gets a stream that reads the content written so far, from the
+         * buffer itself; nothing more should be written.
+         *
+         * @return the stream.
+         */
+        InputStream getInputStream() {
+            return new ByteBufferInputStream(ByteBuffer.wrap(buf, 0, count));
+        }
+
+    }
+
+}
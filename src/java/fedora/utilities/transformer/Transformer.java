@@ -1,22 +1,31 @@
 
 package fedora.utilities.transformer;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -25,9 +34,19 @@ import org.apache.log4j.Logger;
 import org.fcrepo.common.FaultException;
 
 import fedora.utilities.Log4J;
+import fedora.utilities.concurrent.ExecutorUtil;
 import fedora.utilities.config.ConfigUtil;
+import fedora.utilities.digitalobject.FailedObjectList;
+import fedora.utilities.digitalobject.GroupCommitWriter;
+import fedora.utilities.digitalobject.LocalRepoObjectStore;
+import fedora.utilities.digitalobject.MappedPidFile;
 import fedora.utilities.digitalobject.ObjectStore;
+import fedora.utilities.digitalobject.PidList;
+import fedora.utilities.digitalobject.ProgressJournal;
 import fedora.utilities.file.FileUtil;
+import fedora.utilities.metrics.Metrics;
+import fedora.utilities.metrics.Stage;
+import fedora.utilities.metrics.TimedInputStream;
 
 /**
  * Utility to apply transformation rules to Fedora objects.
@@ -42,6 +61,76 @@ public class Transformer {
     /** Option to make the basic content model explicit in the output. */
     private static final String EXPLICIT_BASIC_MODEL = "explicitBasicModel";
 
+    /** Option to use the native upgrader instead of XSLT where possible. */
+    private static final String STREAMING_UPGRADE = "streamingUpgrade";
+
+    /** Option to skip objects that fail rather than stopping. */
+    private static final String CONTINUE_ON_ERROR = "continueOnError";
+
+    /** Option to transform only the objects that failed last time. */
+    private static final String RETRY_FAILED = "retryFailed";
+
+    /** Option to reorder objects by their location on disk. */
+    private static final String LOCALITY_WINDOW = "localityWindow";
+
+    /** Option to commit replaced objects durably, in groups. */
+    private static final String GROUP_COMMIT = "groupCommit";
+
+    /** Option to skip objects journaled by an earlier run. */
+    private static final String RESUME = "resume";
+
+    /** Option to transform objects on a number of threads. */
+    private static final String THREADS = "threads";
+
+    /** Option to adjust how many objects are transformed at once. */
+    private static final String ADAPTIVE_CONCURRENCY = "adaptiveConcurrency";
+
+    /** Option to read and write objects on virtual threads. */
+    private static final String VIRTUAL_THREADS = "virtualThreads";
+
+    /** The most objects in hand at once on virtual threads, by default. */
+    private static final int DEFAULT_VIRTUAL_THREADS = 256;
+
+    /** Option to read each pid file on a number of threads. */
+    private static final String PID_READERS = "pidReaders";
+
+    /** Option to transform the largest objects of each batch first. */
+    private static final String SCHEDULE_BY_SIZE = "scheduleBySize";
+
+    /** Option giving the number of objects to read ahead and sort by size. */
+    private static final String SIZE_WINDOW = "sizeWindow";
+
+    /** The number of objects to sort by size at a time, by default. */
+    private static final int DEFAULT_SIZE_WINDOW = 10000;
+
+    /** Option giving the size from which objects have a lane of their own. */
+    private static final String LARGE_OBJECT_SIZE = "largeObjectSize";
+
+    /** Option giving the number of threads for large objects. */
+    private static final String LARGE_OBJECT_THREADS = "largeObjectThreads";
+
+    /** The size from which objects are large, by default; 64MB. */
+    private static final long DEFAULT_LARGE_OBJECT_SIZE = 64 * 1024 * 1024;
+
+    /** Option giving the most heap to let objects being transformed take. */
+    private static final String HEAP_BUDGET = "heapBudget";
+
+    /** Option giving the multiple of an object's size taken as its cost. */
+    private static final String HEAP_COST_FACTOR = "heapCostFactor";
+
+    /** The multiple of an object's size taken as its cost, by default. */
+    private static final int DEFAULT_HEAP_COST_FACTOR = 6;
+
+    /** Where the slowest and largest objects are reported, if asked. */
+    private static final String TOP_OBJECTS_FILE =
+            "transformer-top-objects.txt";
+
+    /** Where skipped objects are listed, if continuing on error. */
+    private static final String FAILED_FILE = "transformer-failed.txt";
+
+    /** Where replaced objects are journaled, if committing in groups. */
+    private static final String JOURNAL_FILE = "transformer-journal.txt";
+
     /** PID files this instance will run with. */
     private final List<File> m_pidFiles;
 
@@ -51,6 +140,54 @@ public class Transformer {
     /** Whether the basic content model will be made explicit in the output. */
     private final boolean m_explicitBasicModel;
 
+    /** Whether upgrade stylesheets will be run natively. */
+    private final boolean m_streamingUpgrade;
+
+    /** Whether objects that fail will be skipped rather than stopping. */
+    private final boolean m_continueOnError;
+
+    /** Whether only the objects that failed last time will be transformed. */
+    private final boolean m_retryFailed;
+
+    /** The number of objects to reorder by location at once, or 0. */
+    private final int m_localityWindow;
+
+    /** The most replaced objects to commit at once, or 0 not to group. */
+    private final int m_groupCommit;
+
+    /** Whether objects journaled by an earlier run will be skipped. */
+    private final boolean m_resume;
+
+    /** The number of threads to transform objects on. */
+    private final int m_threads;
+
+    /** Whether the number of objects transformed at once will be adjusted. */
+    private final boolean m_adaptiveConcurrency;
+
+    /** Whether objects will be read and written on virtual threads. */
+    private final boolean m_virtualThreads;
+
+    /** The number of threads to read each pid file on. */
+    private final int m_pidReaders;
+
+    /** Whether the largest objects of each batch will be started first. */
+    private final boolean m_scheduleBySize;
+
+    /** The number of objects to read ahead and sort by size at a time. */
+    private final int m_sizeWindow;
+
+    /** The size, in bytes, from which objects have a lane of their own. */
+    private final long m_largeObjectSize;
+
+    /** The number of threads for large objects, or 0 for no lane. */
+    private final int m_largeObjectThreads;
+
+    /** The most bytes of estimated heap cost to admit, or 0 for no limit. */
+    private final long m_heapBudget;
+
+    /** The multiple of an object's size taken as its heap cost. */
+    private final int m_heapCostFactor;
+
     /**
      * Creates an instance.
      *
@@ -69,9 +206,51 @@ public class Transformer {
     public Transformer(List<File> pidFiles,
                        List<File> xsltFiles,
                        boolean explicitBasicModel) {
+        this(pidFiles, xsltFiles, explicitBasicModel, false);
+    }
+
+    /**
+     * Creates an instance.
+     *
+     * @param pidFiles
+     *        pid files identifying objects to transform for each associated
+     *        stylesheet.
+     * @param xsltFiles
+     *        xslt files containing transformation rules for each associated pid
+     *        file.
+     * @param explicitBasicModel
+     *        whether to make the basic content model explicit in the output.
+     * @param streamingUpgrade
+     *        whether to apply upgrade stylesheets produced by the generator
+     *        with the native, constant-memory upgrader instead of XSLT.
+     *        Other stylesheets are always run as XSLT.
+     * @throws IllegalArgumentException
+     *         if pidFiles or xsltFiles are empty, a file listed doesn't exist,
+     *         or the number of pidFiles and xsltFiles don't match.
+     */
+    public Transformer(List<File> pidFiles,
+                       List<File> xsltFiles,
+                       boolean explicitBasicModel,
+                       boolean streamingUpgrade) {
         m_pidFiles = pidFiles;
         m_xsltFiles = xsltFiles;
         m_explicitBasicModel = explicitBasicModel;
+        m_streamingUpgrade = streamingUpgrade;
+        m_continueOnError = false;
+        m_retryFailed = false;
+        m_localityWindow = 0;
+        m_groupCommit = 0;
+        m_resume = false;
+        m_threads = 1;
+        m_adaptiveConcurrency = false;
+        m_virtualThreads = false;
+        m_pidReaders = 1;
+        m_scheduleBySize = false;
+        m_sizeWindow = DEFAULT_SIZE_WINDOW;
+        m_largeObjectSize = DEFAULT_LARGE_OBJECT_SIZE;
+        m_largeObjectThreads = 0;
+        m_heapBudget = 0;
+        m_heapCostFactor = DEFAULT_HEAP_COST_FACTOR;
         validateFiles();
     }
 
@@ -82,11 +261,104 @@ public class Transformer {
      *   pidFiles  (required) - space-delimited path(s) to one or more files,
      *                          each containing a list of PIDs (one per line).
      *                          For each path given, a corresponding xslt file
-     *                          must be given in xsltFiles.
+     *                          must be given in xsltFiles.  If the analyzer's
+     *                          binary form of a file (ending in .bin rather
+     *                          than .txt) is present and no older, PIDs are
+     *                          read from it instead.
      *   xsltFiles (required) - space-delimited path(s) to one or more files,
      *                          each consisting of an XSLT stylesheet through
      *                          which the corresponding pid list should be
      *                          passed.
+     *   streamingUpgrade (optional) - if true, stylesheets produced by the
+     *                          generator will be applied with the native,
+     *                          constant-memory upgrader rather than XSLT;
+     *                          default is false.
+     *   metrics   (optional) - whether to log per-stage timings and
+     *                          progress; default is false.
+     *   jmx       (optional) - whether to register an MBean with live
+     *                          progress; default is false.
+     *   jfr       (optional) - whether to emit Flight Recorder events;
+     *                          default is false.
+     *   topObjects (optional) - the number of slowest and largest objects
+     *                          to report in transformer-top-objects.txt,
+     *                          next to the first pid file; default is 0.
+     *   continueOnError (optional) - if true, objects that can't be
+     *                          transformed will be skipped and listed in
+     *                          transformer-failed.txt, next to the first
+     *                          pid file; default is false.
+     *   retryFailed (optional) - if true, only the objects listed in
+     *                          transformer-failed.txt by an earlier run will
+     *                          be transformed, and once the run completes,
+     *                          the list will be replaced with those that
+     *                          fail again; if it doesn't, the list is kept.
+     *                          This implies continueOnError; default is
+     *                          false.
+     *   localityWindow (optional) - the number of objects to read ahead
+     *                          from each pid file and reorder by the paths
+     *                          of their files, to cut seeks on spinning
+     *                          disks, or 0 not to; default is 0.
+     *   groupCommit (optional) - the most transformed objects to force to
+     *                          disk at once, on a separate thread, before
+     *                          journaling them in transformer-journal.txt,
+     *                          next to the first pid file; or 0 to replace
+     *                          each object as it's transformed without a
+     *                          journal.  Default is 0.
+     *   resume    (optional) - if true, objects journaled by an earlier run
+     *                          with groupCommit will be skipped, and the
+     *                          journal will be added to; default is false.
+     *   threads   (optional) - the number of threads to transform objects
+     *                          on, or with virtualThreads, the most objects
+     *                          to have in hand at once; default is 1, or
+     *                          four per processor if adaptiveConcurrency is
+     *                          true, or 256 if virtualThreads is true.
+     *   adaptiveConcurrency (optional) - if true, the number of objects
+     *                          transformed at once will start at one and be
+     *                          adjusted, up to the number of threads, to
+     *                          where throughput stops improving; default is
+     *                          false.
+     *   virtualThreads (optional) - if true, each object will be read and
+     *                          written on a virtual thread of its own, and
+     *                          transformed in memory, on no more at once
+     *                          than there are processors; objects of 16MB
+     *                          or more are streamed instead.  This needs
+     *                          Java 21; on earlier releases, platform
+     *                          threads are used.  Default is false.
+     *   pidReaders (optional) - when transforming on more than one thread,
+     *                          the number of threads to read each pid file
+     *                          on.  The file is split into chunks at line
+     *                          boundaries, each mapped into memory and
+     *                          handed to its own thread, which passes pids
+     *                          straight to the workers, reordered by
+     *                          location within its own chunk.  Ignored with
+     *                          scheduleBySize or retryFailed; default is 1.
+     *   scheduleBySize (optional) - if true, and objects are transformed on
+     *                          more than one thread, each batch will be
+     *                          read a window at a time, and each window
+     *                          started largest first, with small objects
+     *                          packed into tasks together, so that a large
+     *                          object isn't left running long after the
+     *                          rest.  This takes precedence over
+     *                          localityWindow; default is false.
+     *   sizeWindow (optional) - with scheduleBySize, the number of objects
+     *                          to read ahead and sort by size at a time;
+     *                          default is 10000.
+     *   largeObjectSize (optional) - with scheduleBySize, the size in bytes
+     *                          from which objects are transformed on a lane
+     *                          of their own, always streamed through
+     *                          temporary files; default is 67108864 (64MB).
+     *   largeObjectThreads (optional) - with scheduleBySize, the number of
+     *                          threads for large objects, or 0 for no lane
+     *                          of their own; default is 1.
+     *   heapBudget (optional) - when transforming on more than one thread,
+     *                          the most bytes of heap to let the objects
+     *                          being transformed take at once, as
+     *                          estimated from their sizes.  Objects that
+     *                          wouldn't fit wait for others to finish, and
+     *                          one larger than the budget runs alone.  Use
+     *                          0 for no limit; default is 0.
+     *   heapCostFactor (optional) - the multiple of an object's size on
+     *                          disk taken as its cost against heapBudget;
+     *                          default is 6.
      * </pre>
      *
      * @param props
@@ -103,7 +375,68 @@ public class Transformer {
                 ConfigUtil.getOptionalBoolean(props,
                                               EXPLICIT_BASIC_MODEL,
                                               false);
+        m_streamingUpgrade =
+                ConfigUtil.getOptionalBoolean(props,
+                                              STREAMING_UPGRADE,
+                                              false);
+        m_retryFailed =
+                ConfigUtil.getOptionalBoolean(props, RETRY_FAILED, false);
+        m_continueOnError = m_retryFailed
+                || ConfigUtil.getOptionalBoolean(props,
+                                                 CONTINUE_ON_ERROR,
+                                                 false);
+        m_localityWindow =
+                ConfigUtil.getOptionalInt(props, LOCALITY_WINDOW, 0);
+        m_groupCommit = ConfigUtil.getOptionalInt(props, GROUP_COMMIT, 0);
+        m_resume = ConfigUtil.getOptionalBoolean(props, RESUME, false);
+        m_adaptiveConcurrency =
+                ConfigUtil.getOptionalBoolean(props,
+                                              ADAPTIVE_CONCURRENCY,
+                                              false);
+        m_virtualThreads =
+                ConfigUtil.getOptionalBoolean(props, VIRTUAL_THREADS, false);
+        int defaultThreads = 1;
+        if (m_virtualThreads) {
+            defaultThreads = DEFAULT_VIRTUAL_THREADS;
+        } else if (m_adaptiveConcurrency) {
+            defaultThreads = Runtime.getRuntime().availableProcessors() * 4;
+        }
+        m_threads = ConfigUtil.getOptionalInt(props, THREADS, defaultThreads);
+        m_pidReaders = ConfigUtil.getOptionalInt(props, PID_READERS, 1);
+        m_scheduleBySize =
+                ConfigUtil.getOptionalBoolean(props, SCHEDULE_BY_SIZE, false);
+        m_sizeWindow = ConfigUtil.getOptionalInt(props,
+                                                 SIZE_WINDOW,
+                                                 DEFAULT_SIZE_WINDOW);
+        m_largeObjectSize =
+                ConfigUtil.getOptionalLong(props,
+                                           LARGE_OBJECT_SIZE,
+                                           DEFAULT_LARGE_OBJECT_SIZE);
+        m_largeObjectThreads =
+                ConfigUtil.getOptionalInt(props, LARGE_OBJECT_THREADS, 1);
+        m_heapBudget = ConfigUtil.getOptionalLong(props, HEAP_BUDGET, 0);
+        m_heapCostFactor =
+                ConfigUtil.getOptionalInt(props,
+                                          HEAP_COST_FACTOR,
+                                          DEFAULT_HEAP_COST_FACTOR);
+        if (m_heapCostFactor < 1) {
+            throw new IllegalArgumentException(HEAP_COST_FACTOR
+                    + " must be at least 1");
+        }
+        if (m_threads < 1) {
+            throw new IllegalArgumentException(THREADS
+                    + " must be at least 1");
+        }
+        if (m_pidReaders < 1) {
+            throw new IllegalArgumentException(PID_READERS
+                    + " must be at least 1");
+        }
+        if (m_sizeWindow < 1) {
+            throw new IllegalArgumentException(SIZE_WINDOW
+                    + " must be at least 1");
+        }
         validateFiles();
+        Metrics.configure(props);
     }
 
     /**
@@ -120,21 +453,161 @@ public class Transformer {
             throws FaultException {
         LOG.info("Will transform " + m_pidFiles.size() + " batch(es) of "
                 + "objects");
+        Set<String> retry = null;
+        if (m_retryFailed) {
+            File file = getReportFile(FAILED_FILE);
+            if (!file.exists()) {
+                throw new FaultException("Cannot retry failed objects; no "
+                        + "such file: " + file.getPath());
+            }
+            retry = FailedObjectList.readPids(file);
+            LOG.info("Will only retry the " + retry.size() + " object(s) "
+                    + "listed in " + file.getPath());
+        }
+        Set<String> done = null;
+        if (m_resume) {
+            File file = getReportFile(JOURNAL_FILE);
+            done = ProgressJournal.readPids(file);
+            LOG.info("Will skip the " + done.size() + " object(s) already "
+                    + "listed in " + file.getPath());
+        }
+        long expected = -1;
+        if (retry != null) {
+            expected = retry.size();
+        } else if (Metrics.isEnabled()) {
+            expected = countPids(m_pidFiles);
+            if (done != null) {
+                expected = Math.max(0, expected - done.size());
+            }
+        }
+        Metrics.begin("Transformer", expected);
+        FailedObjectList failed = null;
+        if (m_retryFailed) {
+            // the old list is kept until the retry completes
+            failed = new FailedObjectList(FileUtil.createTempFile(
+                    getReportFile(FAILED_FILE)));
+        } else if (m_continueOnError) {
+            failed = new FailedObjectList(getReportFile(FAILED_FILE));
+        }
+        ProgressJournal journal = null;
+        GroupCommitWriter writer = null;
+        if (m_groupCommit > 0 && !dryRun) {
+            if (store instanceof LocalRepoObjectStore) {
+                journal = new ProgressJournal(getReportFile(JOURNAL_FILE),
+                                              m_resume);
+                writer = new GroupCommitWriter(m_groupCommit, journal);
+                ((LocalRepoObjectStore) store).setGroupCommitWriter(writer);
+            } else {
+                LOG.warn("Group commit is not supported by "
+                        + store.getClass().getName() + "; ignoring");
+            }
+        }
+        boolean committed = false;
+        boolean completed = false;
+        try {
+            transformBatches(store, dryRun, retry, done, failed);
+            if (writer != null) {
+                writer.close();
+                committed = true;
+                LOG.info("Journaled " + journal.getCount() + " object(s) "
+                        + "in " + journal.getFile().getPath());
+            }
+            completed = true;
+        } finally {
+            if (writer != null) {
+                if (!committed) {
+                    // keep what was done, so the run can be resumed
+                    closeQuietly(writer);
+                }
+                ((LocalRepoObjectStore) store).setGroupCommitWriter(null);
+                journal.close();
+            }
+            if (failed != null) {
+                closeFailed(failed, completed);
+            }
+        }
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // closes the list of failed objects; when retrying, it replaces the old
+    // list only if the run completed, so no pid that wasn't retried is lost
+    private void closeFailed(FailedObjectList failed, boolean completed)
+            throws FaultException {
+        failed.close();
+        File file = failed.getFile();
+        if (m_retryFailed) {
+            File list = getReportFile(FAILED_FILE);
+            if (!completed) {
+                if (!file.delete()) {
+                    LOG.warn("Unable to delete " + file.getPath());
+                }
+                LOG.info("Kept " + list.getPath() + " unchanged, since the "
+                        + "retry did not complete");
+                return;
+            }
+            FileUtil.commitFile(file, list, false);
+            file = list;
+        }
+        LOG.info("Skipped " + failed.getCount() + " object(s) after "
+                + "failure (see " + file.getPath() + ")");
+    }
+
+    private void transformBatches(ObjectStore store,
+                                  boolean dryRun,
+                                  Set<String> retry,
+                                  Set<String> done,
+                                  FailedObjectList failed) {
+        TransformWorkers workers = null;
+        if (m_threads > 1 || m_adaptiveConcurrency || m_virtualThreads) {
+            workers = new TransformWorkers(m_threads,
+                                           m_adaptiveConcurrency,
+                                           m_virtualThreads,
+                                           store,
+                                           dryRun,
+                                           failed);
+            if (m_scheduleBySize && m_largeObjectThreads > 0) {
+                workers.setLargeObjectLane(m_largeObjectSize,
+                                           m_largeObjectThreads);
+            }
+            if (m_heapBudget > 0) {
+                workers.setHeapBudget(m_heapBudget, m_heapCostFactor);
+            }
+        }
         int total = 0;
-        for (int i = 0; i < m_pidFiles.size(); i++) {
-            File pidFile = m_pidFiles.get(i);
-            File xsltFile = m_xsltFiles.get(i);
-            LOG.info("Transforming objects in " + pidFile.getName() + " with "
-                    + xsltFile.getName());
-            int batchCount =
-                    transformBatch(xsltFile,
-                                   pidFile,
-                                   store,
-                                   m_explicitBasicModel,
-                                   dryRun);
-            LOG.info("Finished transforming batch of " + batchCount
-                    + " objects");
-            total += batchCount;
+        try {
+            for (int i = 0; i < m_pidFiles.size(); i++) {
+                File pidFile = m_pidFiles.get(i);
+                File xsltFile = m_xsltFiles.get(i);
+                LOG.info("Transforming objects in " + pidFile.getName()
+                        + " with " + xsltFile.getName());
+                Metrics.setCurrentBatch(pidFile.getName());
+                int batchCount =
+                        transformBatch(xsltFile,
+                                       pidFile,
+                                       store,
+                                       dryRun,
+                                       retry,
+                                       done,
+                                       failed,
+                                       workers);
+                if (workers == null) {
+                    LOG.info("Finished transforming batch of " + batchCount
+                            + " objects");
+                    total += batchCount;
+                } else {
+                    LOG.info("Queued batch of " + batchCount + " objects");
+                }
+            }
+            if (workers != null) {
+                total = workers.finish();
+            }
+        } finally {
+            if (workers != null) {
+                workers.abort();
+            }
         }
         LOG.info("Finished transforming all " + total + " objects.");
         if (dryRun) {
@@ -142,11 +615,15 @@ public class Transformer {
         } else {
             LOG.info("NOTE: This was NOT a dry run (all changes written).");
         }
+        Metrics.finish();
+        Metrics.writeTopObjects(getReportFile(TOP_OBJECTS_FILE));
     }
 
-    //---
-    // Instance helpers
-    //---
+    // gets a file with the given name next to the first pid file
+    private File getReportFile(String name) {
+        return new File(m_pidFiles.get(0).getAbsoluteFile().getParentFile(),
+                        name);
+    }
 
     private void validateFiles() {
         if (m_pidFiles == null || m_xsltFiles == null) {
@@ -179,8 +656,109 @@ public class Transformer {
         }
     }
 
+    // commits what it can after a failure, logging any further failure
+    private static void closeQuietly(GroupCommitWriter writer) {
+        try {
+            writer.close();
+        } catch (FaultException e) {
+            LOG.error("Error committing transformed objects", e);
+        }
+    }
+
+    // counts the pids in the given files, for progress reporting
+    private static long countPids(List<File> pidFiles) {
+        long count = 0;
+        for (File pidFile : pidFiles) {
+            PidList list = PidList.forText(pidFile);
+            if (list == null) {
+                count += new MappedPidFile(pidFile).count();
+            } else {
+                count += list.size();
+            }
+        }
+        return count;
+    }
+
+    // reads the parts of a pid file on threads of their own, each handing
+    // its pids straight to the workers, and returns the number queued
+    private int submitInParallel(final Stylesheet stylesheet,
+                                 List<Iterable<String>> parts,
+                                 final ObjectStore store,
+                                 final Set<String> done,
+                                 final TransformWorkers workers) {
+        ExecutorService readers =
+                ExecutorUtil.newDaemonThreadPool("PidReader", parts.size());
+        try {
+            List<Future<Integer>> queued = new ArrayList<Future<Integer>>();
+            for (final Iterable<String> part : parts) {
+                queued.add(readers.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        return new Integer(submitPart(stylesheet, part, store,
+                                                      done, workers));
+                    }
+                }));
+            }
+            int count = 0;
+            for (Future<Integer> future : queued) {
+                count += future.get().intValue();
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FaultException("Interrupted while reading pid file", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FaultException("Error reading pid file", e.getCause());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    // hands the pids in one part of a pid file to the workers, reordered
+    // by location a window at a time, and returns the number queued
+    private int submitPart(Stylesheet stylesheet,
+                           Iterable<String> part,
+                           ObjectStore store,
+                           Set<String> done,
+                           TransformWorkers workers) {
+        int count = 0;
+        List<String> window = new ArrayList<String>();
+        for (String pid : part) {
+            if (done != null && done.contains(pid)) {
+                continue;
+            }
+            window.add(pid);
+            if (window.size() >= m_localityWindow) {
+                count += submitWindow(stylesheet, window, store, workers);
+            }
+        }
+        return count + submitWindow(stylesheet, window, store, workers);
+    }
+
+    // hands a window of pids to the workers, reordered by location, and
+    // empties it
+    private static int submitWindow(Stylesheet stylesheet,
+                                    List<String> window,
+                                    ObjectStore store,
+                                    TransformWorkers workers) {
+        if (window.size() > 1) {
+            orderByLocation(window, store);
+        }
+        for (String pid : window) {
+            workers.submit(stylesheet, pid);
+        }
+        int count = window.size();
+        window.clear();
+        return count;
+    }
+
     /**
      * Transform all objects in pidFile with the indicated xsltFile.
+     * If the pid file has an up-to-date binary form, pids are read from
+     * that instead, in sorted order.  Either form may be read on several
+     * threads at once, if so configured.
      *
      * @param xsltFile
      *        the stylesheet to use for transforming the batch.
@@ -190,53 +768,183 @@ public class Transformer {
      *        the store to read from/write to.
      * @param dryRun
      *        if false, transformation should not overwrite original.
-     * @return the number of transformations done.
+     * @param retry
+     *        the pids to transform, or null to transform all in pidFile.
+     * @param done
+     *        the pids to skip, or null to skip none.
+     * @param failed
+     *        where to list objects that can't be transformed, or null to
+     *        stop at the first.
+     * @param workers
+     *        the threads to transform objects on, or null to transform them
+     *        on this one.
+     * @return the number of transformations done, or queued if workers
+     *         were given.
      * @throws FaultException
      *         if transformation cannot complete for any reason.
      */
-    private static int transformBatch(File xsltFile,
-                                      File pidFile,
-                                      ObjectStore store,
-                                      boolean explicitBasicModel,
-                                      boolean dryRun) {
-        BufferedReader pids = null;
+    private int transformBatch(File xsltFile,
+                               File pidFile,
+                               ObjectStore store,
+                               boolean dryRun,
+                               Set<String> retry,
+                               Set<String> done,
+                               FailedObjectList failed,
+                               TransformWorkers workers) {
         String pidLine = null;
         int numTransformed = 0;
         try {
-            TransformerFactory tfactory = TransformerFactory.newInstance();
-            javax.xml.transform.Transformer vtransformer =
-                    tfactory.newTransformer(new StreamSource(xsltFile));
-
-            if (explicitBasicModel) {
-                vtransformer.setParameter(EXPLICIT_BASIC_MODEL, "'true'");
+            // the stylesheet is compiled on first use, so batches with
+            // nothing to retry cost no more than reading the pid file
+            Stylesheet stylesheet = new Stylesheet(xsltFile,
+                                                   m_explicitBasicModel,
+                                                   m_streamingUpgrade);
+            javax.xml.transform.Transformer vtransformer = null;
+            // scheduling by size sorts a window of the batch at a time
+            boolean bySize = workers != null && m_scheduleBySize;
+            int windowSize = bySize ? m_sizeWindow : m_localityWindow;
+            List<String> window = new ArrayList<String>();
+            Iterator<String> pids;
+            PidList list = PidList.forText(pidFile);
+            if (list != null && retry != null) {
+                // look up the few to retry rather than scan the list
+                pids = list.retain(retry).iterator();
+            } else if (workers != null && !bySize && retry == null
+                    && m_pidReaders > 1) {
+                List<Iterable<String>> parts;
+                if (list == null) {
+                    parts = new MappedPidFile(pidFile).split(m_pidReaders);
+                } else {
+                    parts = list.split(m_pidReaders);
+                }
+                LOG.debug("Reading " + pidFile.getName() + " in "
+                        + parts.size() + " part(s)");
+                return submitInParallel(stylesheet, parts, store, done,
+                                        workers);
+            } else if (list == null) {
+                pids = new MappedPidFile(pidFile).iterator();
+            } else {
+                pids = list.iterator();
             }
-            pids = new BufferedReader(new FileReader(pidFile));
-            while ((pidLine = pids.readLine()) != null) {
-                pidLine = pidLine.trim();
-                if (pidLine.length() == 0 || pidLine.startsWith("#")) {
+            Metrics.startObject();
+            boolean more = true;
+            while (more) {
+                pidLine = pids.hasNext() ? pids.next() : null;
+                more = pidLine != null;
+                if (more) {
+                    if (retry != null && !retry.contains(pidLine)) {
+                        continue;
+                    }
+                    if (done != null && done.contains(pidLine)) {
+                        continue;
+                    }
+                    window.add(pidLine);
+                    if (window.size() < windowSize) {
+                        continue;
+                    }
+                }
+                if (window.isEmpty()) {
+                    continue;
+                }
+                if (vtransformer == null && workers == null) {
+                    vtransformer = stylesheet.newTransformer();
+                    Metrics.startObject();
+                }
+                if (bySize) {
+                    workers.submitBySize(stylesheet, window);
+                    numTransformed += window.size();
+                    window.clear();
                     continue;
                 }
-                transformOne(vtransformer, pidLine, store, dryRun);
-                numTransformed++;
+                if (window.size() > 1) {
+                    orderByLocation(window, store);
+                }
+                for (String pid : window) {
+                    pidLine = pid;
+                    if (workers != null) {
+                        workers.submit(stylesheet, pid);
+                        numTransformed++;
+                        continue;
+                    }
+                    try {
+                        transformOne(vtransformer, pid, store, dryRun);
+                    } catch (TransformerException e) {
+                        if (failed == null) {
+                            throw e;
+                        }
+                        skip(failed, store, pid, e);
+                        continue;
+                    } catch (FaultException e) {
+                        if (failed == null) {
+                            throw e;
+                        }
+                        skip(failed, store, pid, e);
+                        continue;
+                    }
+                    numTransformed++;
+                    Metrics.processed(pid);
+                }
+                window.clear();
             }
             return numTransformed;
-        } catch (IOException e) {
-            throw new FaultException("Error reading from pid file: "
-                    + pidFile.getName(), e);
         } catch (TransformerConfigurationException e) {
             throw new FaultException("Error processing XSLT file: "
                     + xsltFile.getName(), e);
         } catch (TransformerException e) {
+            Metrics.failed();
             throw new FaultException("Error transforming object " + pidLine
                     + "using XSLT file: " + xsltFile.getName(), e);
-        } finally {
-            FileUtil.close(pids);
         }
     }
 
+    // sorts pids by the paths of their files, so they're read in roughly
+    // the order they're laid out on disk; those without files go last
+    private static void orderByLocation(List<String> pids,
+                                        ObjectStore store) {
+        final Map<String, String> paths = new HashMap<String, String>();
+        for (String pid : pids) {
+            File file = store.getObjectFile(pid);
+            if (file != null) {
+                paths.put(pid, file.getPath());
+            }
+        }
+        Collections.sort(pids, new Comparator<String>() {
+            public int compare(String a, String b) {
+                String pathA = paths.get(a);
+                String pathB = paths.get(b);
+                if (pathA == null || pathB == null) {
+                    return pathA == null ? (pathB == null ? 0 : 1) : -1;
+                }
+                return pathA.compareTo(pathB);
+            }
+        });
+    }
+
+    // lists an object that couldn't be transformed and moves on
+    static void skip(FailedObjectList failed,
+                     ObjectStore store,
+                     String pid,
+                     Exception e) {
+        File file = null;
+        try {
+            file = store.getObjectFile(pid);
+        } catch (FaultException lookupError) {
+            LOG.warn("Unable to look up file of " + pid, lookupError);
+        }
+        failed.add(pid, file, e);
+        Metrics.failed();
+        Metrics.startObject();
+    }
+
     /**
      * Transform one object with the indicated xsltFile.
      *
+     * <p>The result is spooled to a temporary file from the store rather
+     * than held in memory, and the store then moves that file into place,
+     * so it's written once.  It is discarded as it's written if this is a
+     * dry run.
+     * This method is package-private so it can be benchmarked.</p>
+     *
      * @param xsltTransformer
      *        the compiled form of the stylesheet to use for transforming the
      *        object.
@@ -249,22 +957,63 @@ public class Transformer {
      * @return the number of transformations done.
      * @throws TransformerException
      */
-    private static int transformOne(javax.xml.transform.Transformer
-                                            xsltTransformer,
-                                    String pid,
-                                    ObjectStore store,
-                                    boolean dryRun)
+    static int transformOne(javax.xml.transform.Transformer
+                                    xsltTransformer,
+                            String pid,
+                            ObjectStore store,
+                            boolean dryRun)
             throws TransformerException {
         InputStream str = store.getObjectStream(pid);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        StreamResult res = new StreamResult(out);
-        xsltTransformer.transform(new StreamSource(str), res);
-        if (!dryRun) {
-            LOG.info("Transformed and replaced " + pid);
-            store.replaceObject(pid,
-                                new ByteArrayInputStream(out.toByteArray()));
-        } else {
+        TimedInputStream timed = null;
+        if (str != null && Metrics.isEnabled()) {
+            timed = new TimedInputStream(str);
+            str = timed;
+        }
+        long start = Metrics.start(Stage.TRANSFORM);
+        if (dryRun) {
+            try {
+                xsltTransformer.transform(new StreamSource(str),
+                        new StreamResult(new DiscardingOutputStream()));
+                if (timed != null) {
+                    timed.stop(Stage.TRANSFORM, start, pid);
+                }
+            } finally {
+                FileUtil.close(str);
+            }
             LOG.info("Transformed " + pid);
+            return 0;
+        }
+        File tempFile = null;
+        boolean handedOff = false;
+        try {
+            tempFile = store.createTempFile(pid);
+            if (tempFile == null) {
+                throw new FaultException("Object not found: " + pid);
+            }
+            OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(tempFile));
+            try {
+                xsltTransformer.transform(new StreamSource(str),
+                                          new StreamResult(out));
+            } finally {
+                FileUtil.close(out);
+            }
+            if (timed != null) {
+                timed.stop(Stage.TRANSFORM, start, pid);
+            }
+            LOG.info("Transformed and replaced " + pid);
+            // from here on, the store decides whether the temp file goes
+            handedOff = true;
+            store.replaceObject(pid, tempFile);
+        } catch (IOException e) {
+            throw new FaultException("Error spooling transformed object "
+                    + pid, e);
+        } finally {
+            FileUtil.close(str);
+            if (!handedOff && tempFile != null && tempFile.exists()
+                    && !tempFile.delete()) {
+                LOG.warn("Unable to delete " + tempFile.getPath());
+            }
         }
         return 0;
     }
@@ -426,4 +1175,28 @@ public class Transformer {
     private static void exitFatally() {
         System.exit(1);
     }
+
+    /**
+     * An output stream that discards everything written to it.
+     */
+    static class DiscardingOutputStream
+            extends OutputStream {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b) {
+            // discard
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+
+    }
 }
\ No newline at end of file
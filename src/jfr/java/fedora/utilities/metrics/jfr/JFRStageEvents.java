@@ -0,0 +1,45 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics.jfr;
+
+import fedora.utilities.metrics.Stage;
+import fedora.utilities.metrics.StageEvents;
+
+/**
+ * Sends stage events to Java Flight Recorder.
+ *
+ * <p>Events are only written while a recording that enables
+ * <code>fedora.utilities.Stage</code> is running; otherwise each costs
+ * little more than the allocation, which the JIT can usually remove.</p>
+ *
+ * @author Chris Wilper
+ */
+public class JFRStageEvents
+        implements StageEvents {
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object begin(Stage stage) {
+        StageEvent event = new StageEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void commit(Object event, Stage stage, String pid, long bytes) {
+        StageEvent stageEvent = (StageEvent) event;
+        stageEvent.end();
+        if (stageEvent.shouldCommit()) {
+            stageEvent.stage = stage.getLabel();
+            stageEvent.pid = pid;
+            stageEvent.bytes = bytes;
+            stageEvent.commit();
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for one stage of work on one object.
+ *
+ * @author Chris Wilper
+ */
+@Name("fedora.utilities.Stage")
+@Label("Migration Stage")
+@Category({"Fedora", "Migration"})
+@Description("One stage of work on one object by a migration utility")
+@StackTrace(false)
+class StageEvent
+        extends Event {
+
+    /** The stage, e.g. <code>lookup</code> or <code>transform</code>. */
+    @Label("Stage")
+    String stage;
+
+    /** The pid of the object worked on, or null if unknown. */
+    @Label("PID")
+    String pid;
+
+    /** The number of bytes read or written, or 0. */
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+}
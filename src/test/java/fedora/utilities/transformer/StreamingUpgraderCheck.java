@@ -0,0 +1,298 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://www.fedora.info/license/).
+ */
+package fedora.utilities.transformer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import fedora.utilities.file.FileUtil;
+
+/**
+ * Checks that {@link StreamingUpgrader} gives the same output as the
+ * upgrade stylesheet it stands in for.
+ *
+ * <p>Each FOXML fixture in the given directory is upgraded by both, with
+ * every combination of the stylesheet's parameters, both through the
+ * stylesheet itself and through a copy with a default content model, as
+ * the generator writes for each content model.  The outputs are compared
+ * after canonicalization, which ignores where namespaces are declared and
+ * the order of attributes, but nothing else.  Any difference is printed,
+ * and the exit status is 1.</p>
+ *
+ * <pre>
+ * java fedora.utilities.transformer.StreamingUpgraderCheck \
+ *     foxml-upgrade-cma.xslt fixture-dir
+ * </pre>
+ *
+ * @author Chris Wilper
+ */
+public class StreamingUpgraderCheck {
+
+    /** The values tried for each parameter; null leaves it unset. */
+    private static final String[][] PARAMETER_VALUES = new String[][] {
+            {null, "", "true"},
+            {null, "", "info:fedora/demo:ParamModel"},
+            {null, "", "2009-02-03T04:05:06.789Z"}};
+
+    /** The names of the parameters, in the order of their values above. */
+    private static final String[] PARAMETER_NAMES = new String[] {
+            "explicitBasicModel", "cModelPidURI", "createdDate"};
+
+    /** The default content model written into the generated copy. */
+    private static final String GENERATED_MODEL = "demo:GeneratedModel";
+
+    /** The namespace of namespace declarations, as DOM attributes. */
+    private static final String XMLNS = "http://www.w3.org/2000/xmlns/";
+
+    /** The stylesheets to check against. */
+    private final List<File> m_stylesheets;
+
+    /** The FOXML 1.0 fixtures. */
+    private final List<File> m_fixtures;
+
+    /** The number of comparisons made. */
+    private int m_checked;
+
+    /** The number of comparisons that differed. */
+    private int m_failed;
+
+    /**
+     * Creates an instance.
+     *
+     * @param stylesheets the stylesheets to check against.
+     * @param fixtures the FOXML 1.0 fixtures.
+     */
+    public StreamingUpgraderCheck(List<File> stylesheets,
+                                  List<File> fixtures) {
+        m_stylesheets = stylesheets;
+        m_fixtures = fixtures;
+    }
+
+    /**
+     * Compares the outputs for every stylesheet, fixture and combination of
+     * parameters.
+     *
+     * @return whether all were the same.
+     * @throws Exception if either can't be run.
+     */
+    public boolean run()
+            throws Exception {
+        TransformerFactory factory = TransformerFactory.newInstance();
+        for (File stylesheet : m_stylesheets) {
+            javax.xml.transform.Transformer xslt = factory.newTransformer(
+                    new StreamSource(stylesheet));
+            for (File fixture : m_fixtures) {
+                for (String[] values : getCombinations()) {
+                    StreamingUpgrader streaming =
+                            StreamingUpgrader.fromStylesheet(stylesheet);
+                    xslt.clearParameters();
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] != null) {
+                            xslt.setParameter(PARAMETER_NAMES[i], values[i]);
+                            streaming.setParameter(PARAMETER_NAMES[i],
+                                                   values[i]);
+                        }
+                    }
+                    compare(stylesheet, fixture, values, xslt, streaming);
+                }
+            }
+        }
+        System.out.println(m_checked + " comparisons, " + m_failed
+                + " different");
+        return m_failed == 0;
+    }
+
+    //---
+    // Instance helpers
+    //---
+
+    // runs both on a fixture and reports any difference
+    private void compare(File stylesheet,
+                         File fixture,
+                         String[] values,
+                         javax.xml.transform.Transformer xslt,
+                         javax.xml.transform.Transformer streaming)
+            throws Exception {
+        byte[] expected = transform(xslt, fixture);
+        byte[] actual = transform(streaming, fixture);
+        m_checked++;
+        if (!canonicalize(expected).equals(canonicalize(actual))) {
+            m_failed++;
+            System.out.println("DIFFERENT: " + fixture.getName() + " with "
+                    + stylesheet.getName() + " and "
+                    + Arrays.asList(values));
+            System.out.println("--- stylesheet:");
+            System.out.println(new String(expected, "UTF-8"));
+            System.out.println("--- streaming:");
+            System.out.println(new String(actual, "UTF-8"));
+        }
+    }
+
+    //---
+    // Static helpers
+    //---
+
+    // gets every combination of parameter values
+    private static List<String[]> getCombinations() {
+        List<String[]> combinations = new ArrayList<String[]>();
+        combinations.add(new String[0]);
+        for (String[] values : PARAMETER_VALUES) {
+            List<String[]> longer = new ArrayList<String[]>();
+            for (String[] combination : combinations) {
+                for (String value : values) {
+                    String[] next = Arrays.copyOf(combination,
+                                                  combination.length + 1);
+                    next[combination.length] = value;
+                    longer.add(next);
+                }
+            }
+            combinations = longer;
+        }
+        return combinations;
+    }
+
+    // transforms a fixture into memory
+    private static byte[] transform(javax.xml.transform.Transformer
+                                            transformer,
+                                    File fixture)
+            throws Exception {
+        InputStream in = new FileInputStream(fixture);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transformer.transform(new StreamSource(in),
+                                  new StreamResult(out));
+            return out.toByteArray();
+        } finally {
+            FileUtil.close(in);
+        }
+    }
+
+    // writes a copy of the stylesheet with a default content model, as the
+    // generator does
+    private static File writeGenerated(File stylesheet)
+            throws IOException {
+        String xslt = FileUtil.readTextStream(new FileInputStream(stylesheet));
+        xslt = xslt.replaceAll("<xsl:param name=\"cModelPidURI\"",
+                "<xsl:param name=\"cModelPidURI\" select=\"'info:fedora/"
+                + GENERATED_MODEL + "'\"");
+        File file = File.createTempFile("cmodel-generated", ".xslt");
+        file.deleteOnExit();
+        FileUtil.writeTextFile(xslt, file);
+        return file;
+    }
+
+    // gets a form of a document that's the same for equivalent output
+    private static String canonicalize(byte[] xml)
+            throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(
+                new ByteArrayInputStream(xml));
+        doc.normalizeDocument();
+        StringBuilder out = new StringBuilder();
+        canonicalize(doc, out);
+        return out.toString();
+    }
+
+    // appends the canonical form of a node and its descendants
+    private static void canonicalize(Node node, StringBuilder out) {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            out.append("<{" + node.getNamespaceURI() + "}"
+                    + node.getNodeName());
+            NamedNodeMap attributes = node.getAttributes();
+            TreeSet<String> sorted = new TreeSet<String>();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node a = attributes.item(i);
+                if (!XMLNS.equals(a.getNamespaceURI())) {
+                    sorted.add("{" + a.getNamespaceURI() + "}"
+                            + a.getLocalName() + "=" + a.getNodeValue());
+                }
+            }
+            out.append(sorted + ">");
+            break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+            out.append("T[" + node.getNodeValue() + "]");
+            break;
+        case Node.COMMENT_NODE:
+            out.append("C[" + node.getNodeValue() + "]");
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            out.append("P[" + node.getNodeName() + " "
+                    + node.getNodeValue() + "]");
+            break;
+        default:
+            break;
+        }
+        for (Node child = node.getFirstChild(); child != null;
+                child = child.getNextSibling()) {
+            canonicalize(child, out);
+        }
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+            out.append("</>\n");
+        }
+    }
+
+    //---
+    // Command-line
+    //---
+
+    /**
+     * Command-line entry point.
+     *
+     * @param args the upgrade stylesheet and the directory of fixtures.
+     * @throws Exception if either can't be read, or the check can't be
+     *         run.
+     */
+    public static void main(String[] args)
+            throws Exception {
+        if (args.length != 2) {
+            System.out.println("Usage: StreamingUpgraderCheck "
+                    + "foxml-upgrade-cma.xslt fixture-dir");
+            System.exit(2);
+        }
+        File stylesheet = new File(args[0]);
+        List<File> stylesheets = new ArrayList<File>();
+        stylesheets.add(stylesheet);
+        stylesheets.add(writeGenerated(stylesheet));
+        List<File> fixtures = new ArrayList<File>();
+        File[] files = new File(args[1]).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(".xml")) {
+                    fixtures.add(file);
+                }
+            }
+        }
+        if (fixtures.isEmpty()) {
+            System.out.println("No fixtures in " + args[1]);
+            System.exit(2);
+        }
+        if (!new StreamingUpgraderCheck(stylesheets, fixtures).run()) {
+            System.exit(1);
+        }
+    }
+
+}